@@ -0,0 +1,47 @@
+# les blocs d'éléments des tableaux qui grandissent font 2^k cases, k < 16
+# la tête de la liste des blocs libres de 2^k cases est en 4096 + k, la première case d'un bloc libre pointe vers le suivant
+alloc:
+	SUBi SP SP 1
+	LD R0 SP				        # taille
+	XOR R1 R1 R1					# k = 0
+	ADDi R2 R1 1					# 2^k
+alloc_class:
+	JSEQ R2 R0 alloc_class_found	# while (2^k < taille)
+	SLi R2 R2 1
+	ADDi R1 R1 1					# k++
+	JMP alloc_class
+alloc_class_found:
+	ADDi R3 R1 4096					# tête de la liste k
+	LD R4 R3						# bloc = premier bloc libre
+	XOR R5 R5 R5
+	JEQU R4 R5 alloc_bump			# if (bloc != 0)
+	LD R5 R4
+	ST R5 R3						# la liste commence au bloc suivant
+	ST R4 SP
+	ADDi SP SP 1
+	RET								# on retourne le bloc
+alloc_bump:							# else
+	ADDi R4 TP 0					# bloc = TP
+	ADD TP TP R2					# TP += 2^k
+	ST R4 SP
+	ADDi SP SP 1
+	RET
+
+free:
+	SUBi SP SP 1
+	LD R0 SP				        # taille, une puissance de 2
+	SUBi SP SP 1
+	LD R1 SP				        # bloc
+	XOR R2 R2 R2					# k = 0
+	ADDi R3 R2 1					# 2^k
+free_class:
+	JSEQ R3 R0 free_class_found		# while (2^k < taille)
+	SLi R3 R3 1
+	ADDi R2 R2 1					# k++
+	JMP free_class
+free_class_found:
+	ADDi R3 R2 4096					# tête de la liste k
+	LD R4 R3
+	ST R4 R1						# *bloc = premier bloc libre
+	ST R1 R3						# la liste commence au bloc
+	RET
@@ -5,8 +5,7 @@ dump_memory:
 	ADDi R1 R1 ESPACE
 	XOR R2 R2 R2
 	ADDi R2 R2 SAUT_LIGNE
-	XOR R3 R3 R3
-	ADDi R3 R3 4500
+	ADDi R3 TP 0	        # jusqu'à la fin des tableaux
 debut_dump:
 	JEQU R0 R3 fin_dump
 	LD R4 R0
@@ -9,22 +9,17 @@ print_tab:                          // *print_tab
 	SUBi SP SP 1
 	LD R2 SP		                # pointeur du tableau
 	LD R3 R2		                # longueur du tableau
+	ADDi R2 R2 2
+	LD R2 R2		                # on pointe maintenant sur le premier élément
 	XOR R4 R4 R4
 	ADDi R4 R4 91
 	OUT R4			                # on affiche "["
 	SUBi R4 R4 59
 	OUT R4			                # on affiche " "
 	XOR R5 R5 R5	                # i = 0
-	ADDi R2 R2 1	                # on pointe maintenant sur le premier élément
 	ADDi SP SP 2	                # on bouge le SP tout en haut
 debut_boucle_print_tab:             // *loop_start
 	JEQU R5 R3 fin_pour_print_tab
-	XOR R6 R6 R6
-	MODi R7 R5 10
-	JNEQ R7 R6 skip_tab_end	# i % 10 != 0
-	JEQU R5 R6 skip_tab_end	# i == 0
-	LD R2 R2
-skip_tab_end:                       //*skip_tab_end
 	XOR R9 R9 R9
 	ADDi R9 R9 1
 	JEQU R1 R9 print_element
@@ -1,48 +1,84 @@
+# un tableau est un pointeur vers un en-tête [longueur, capacité, pointeur des éléments], les éléments sont contigus
 tab_access:
 	SUBi SP SP 1
 	LD R0 SP				        # profondeur
 	SUBi SP SP 1
 	LD R1 SP				        # index
 	SUBi SP SP 1
-	LD R2 SP				        # pointeur
+	LD R2 SP				        # pointeur de l'en-tête
 	LD R3 R2				        # longueur
-	ADDi R4 R3 0			        # nouvelle_longueur = longueur
-	JINF R1 R3 skip_resize	        # if (index >= longueur)
-	ADDi R4 R1 1			        # nouvelle_longueur = index + 1
-skip_resize:
-	ST R4 R2				        # *pointeur = nouvelle_longueur
-	ADDi R2 R2 1			        # pointeur++
-	XOR R5 R5 R5			        # i = 0
-	XOR R6 R6 R6			        # constante à 0
-	XOR R9 R9 R9
-	ADDi R9 R9 1					# constante à 1
-begin_loop:
-	MODi R7 R5 10					# R7 := i % 10
-	JNEQ R7 R6 skip_tab_access_end	# i % 10 != 0
-	JEQU R5 R6 skip_tab_access_end	# i == 0
-	JIEQ R5 R3 skip_alloc			# if (i >= longueur)
-	ST TP R2						# *pointeur = TP
-	ADDi TP TP 11					# TP += 11
-skip_alloc:
-	LD R2 R2						# pointeur = *pointeur
-skip_tab_access_end:
-	JINF R5 R3 skip_fill			# if (i >= longueur)
-	JNEQ R0 R9 skip_simple_init		# if (profondeur == 1)
-	ST R6 R2						# *pointeur = 0
-	JMP skip_fill					
-skip_simple_init:					# else
-	ADDi R8 R2 0					# oldPointeur = pointeur
-	ST TP R2						# *pointeur = TP
-	ADDi TP TP 12					# TP += 12
-	LD R2 R2 						# *pointeur = pointeur
-	ST R6 R2						# *pointeur = 0
-	ADDi R2 R8 0					# pointeur = oldPointeur
-skip_fill:
-	JNEQ R5 R1 skip_return			# if (i == index)
-	ST R2 SP			            # on empile le pointeur dans le tableau
+	JINF R1 R3 tab_access_found		# if (index < longueur) accès direct
+	ADDi R7 R2 1
+	LD R4 R7						# capacité
+	JINF R1 R4 tab_access_fill		# if (index < capacité) pas besoin de déplacer les éléments
+	ADD R5 R4 R4					# nouvelle_capacité = 2 * capacité
+	ADDi R6 R1 1
+	JSEQ R5 R6 skip_capacity		# if (nouvelle_capacité < index + 1)
+	ADDi R5 R6 0					# nouvelle_capacité = index + 1
+skip_capacity:
+	XOR R10 R10 R10
+	ADDi R10 R10 1					# taille = 1
+round_capacity:
+	JSEQ R10 R5 capacity_rounded	# while (taille < nouvelle_capacité)
+	SLi R10 R10 1					# taille *= 2, les blocs de alloc sont des puissances de 2
+	JMP round_capacity
+capacity_rounded:
+	ST R10 R7						# *(en-tête + 1) = taille
+	ST R10 SP
+	ADDi SP SP 1
+	CALL alloc
+	SUBi SP SP 1
+	LD R9 SP						# nouveaux éléments
+	ADDi R7 R2 2
+	LD R8 R7						# anciens éléments
+	ST R9 R7						# *(en-tête + 2) = nouveaux éléments
+	XOR R6 R6 R6					# i = 0
+copy_loop:
+	JEQU R6 R3 copy_end				# while (i != longueur)
+	ADD R10 R8 R6
+	LD R10 R10
+	ADD R11 R9 R6
+	ST R10 R11						# nouveaux[i] = anciens[i]
+	ADDi R6 R6 1					# i++
+	JMP copy_loop
+copy_end:
+	XOR R6 R6 R6
+	JEQU R4 R6 tab_access_fill		# if (capacité != 0
+	ADDi R10 R2 3
+	JEQU R8 R10 tab_access_fill		#     && anciens éléments != en-tête + 3) les éléments ne sont pas alloués avec l'en-tête
+	ST R8 SP
+	ADDi SP SP 1
+	ST R4 SP
+	ADDi SP SP 1
+	CALL free						# free(anciens éléments, capacité)
+tab_access_fill:
+	ADDi R7 R2 2
+	LD R8 R7						# éléments
+	XOR R9 R9 R9					# constante à 0
+	ADDi R10 R9 1					# constante à 1
+fill_loop:
+	JSUP R3 R1 fill_end				# while (longueur <= index)
+	ADD R11 R8 R3
+	JSUP R0 R10 fill_array			# if (profondeur <= 1)
+	ST R9 R11						# éléments[longueur] = 0
+	JMP fill_next
+fill_array:							# else
+	ST TP R11						# éléments[longueur] = TP, un tableau vide [0, 0, TP + 3]
+	ST R9 TP
+	ADDi R11 TP 1
+	ST R9 R11
+	ADDi R11 TP 2
+	ADDi TP TP 3					# TP += 3
+	ST TP R11
+fill_next:
+	ADDi R3 R3 1					# longueur++
+	JMP fill_loop
+fill_end:
+	ST R3 R2						# *en-tête = index + 1
+tab_access_found:
+	ADDi R7 R2 2
+	LD R8 R7
+	ADD R8 R8 R1					# éléments + index
+	ST R8 SP			            # on empile le pointeur dans le tableau
 	ADDi SP SP 1
 	RET					            # et on le retourne
-skip_return:
-	ADDi R2 R2 1		            # pointeur++
-	ADDi R5 R5 1		            # i++
-	JMP begin_loop
\ No newline at end of file
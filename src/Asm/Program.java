@@ -1,11 +1,14 @@
 package src.Asm;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 /**
  * Ceci est une classe permettant de représenter un programme.
  */
 public class Program {
     private ArrayList<Instruction> instructions;
+    private Map<String, List<Integer>> callRegisters;
   
     /** 
      * Getter de la liste d'instructions
@@ -33,17 +36,34 @@ public class Program {
         this.instructions.addAll(program.getInstructions());
     }
 
-    
+
+    /**
+     * Getter des registres par lesquels passent les appels, tant que les registres vivants autour des CALL ne sont pas sauvegardés
+     * (voir CallerSaves) : un CALL d'une fonction TCL ne modifie alors que ces registres, SP et TP
+     * @return Map<String, List<Integer>> registres des paramètres puis registre de retour de chaque fonction, null une fois les sauvegardes insérées
+     */
+    public Map<String, List<Integer>> getCallRegisters() {
+        return callRegisters;
+    }
+
+    /**
+     * Setter des registres par lesquels passent les appels
+     * @param callRegisters registres des paramètres puis registre de retour de chaque fonction, null si les CALL modifient tous leurs registres
+     */
+    public void setCallRegisters(Map<String, List<Integer>> callRegisters) {
+        this.callRegisters = callRegisters;
+    }
+
     /** 
      * Convertit le programme en String pour l'affichage
      * @return String contenant les instructions du programme
      */
     public String toString() {
-        String result = "";
+        StringBuilder result = new StringBuilder();
         for (Instruction instr : instructions) {
-            result += instr.toString();
+            result.append(instr.toString());
         }
-        return result;
+        return result.toString();
     }
 
     /**
@@ -10,49 +10,52 @@ import src.Asm.Ret;
 import src.Asm.Stop;
 import src.Asm.UAL;
 import src.Asm.UALi;
+import java.util.ArrayList;
 
 public class AssemblerGenerator {
     private Program program;
-    private ConflictGraph conflictGraph;
+    private RegisterAllocation allocation;
     private int dynamicArrayIndex;
 
     /**
      * Constructeur
      * @param program
+     * @param allocation l'allocation de registres (graphe de conflit colorié ou balayage linéaire)
      */
-    public AssemblerGenerator(Program program, ConflictGraph conflictGraph) {
+    public AssemblerGenerator(Program program, RegisterAllocation allocation) {
         this.program = program;
-        this.conflictGraph = conflictGraph;
+        this.allocation = allocation;
         this.dynamicArrayIndex = 57000;
     }
 
     /**
-     * Retourne le registre à utiliser
+     * Retourne le registre à utiliser, le pointeur de pile et le pointeur des tableaux ne sont pas alloués
      * @param register
      * @return
      */
     private int getActualRegister(int register) {
-        return conflictGraph.getColor("R" + register);
+        if (register < ConflictGraph.RESERVED_REGISTERS) return register;
+        return allocation.getColor("R" + register);
     }
 
     /**
-     * Retourne le registre à utiliser
+     * Retourne le registre à utiliser, en le chargeant dans operationRegister s'il est en mémoire
      * @param register
      * @param result
      * @param operationRegister
      * @return
      */
-    private String getRegister(int register, StringBuilder result, int operationRegister) {
+    private int getRegister(int register, ArrayList<Instruction> result, int operationRegister) {
         register = getActualRegister(register);
         if (register < 30) {
-            return "R" + register;
+            return register;
         }
         else {
             int memLocation = (register - 30) + dynamicArrayIndex;
-            result.append("XOR R" + operationRegister + " R" + operationRegister + " R" + operationRegister + "\n");
-            result.append("ADDi R" + operationRegister + " R" + operationRegister + " " + memLocation + "\n");
-            result.append("LD R" + operationRegister + " R" + operationRegister + "\n");
-            return "R" + operationRegister;
+            result.add(new UAL(UAL.Op.XOR, operationRegister, operationRegister, operationRegister));
+            result.add(new UALi(UALi.Op.ADD, operationRegister, operationRegister, memLocation));
+            result.add(new Mem(Mem.Op.LD, operationRegister, operationRegister));
+            return operationRegister;
         }
     }
 
@@ -61,23 +64,23 @@ public class AssemblerGenerator {
      * @param register
      * @return
      */
-    private String getRegisterNumber(int register) {
+    private int getRegisterNumber(int register) {
         register = getActualRegister(register);
         if (register < 30) {
-            return "R" + register;
+            return register;
         }
         else {
-            return "R30";
+            return 30;
         }
     }
 
-    private void returnRegister(int register, StringBuilder result) {
+    private void returnRegister(int register, ArrayList<Instruction> result) {
         register = getActualRegister(register);
         if (register < 30) return;
         int memLocation = (register - 30) + dynamicArrayIndex;
-        result.append("XOR R31 R31 R31\n");
-        result.append("ADDi R31 R31 " + memLocation + "\n");
-        result.append("ST R30 R31\n");
+        result.add(new UAL(UAL.Op.XOR, 31, 31, 31));
+        result.add(new UALi(UALi.Op.ADD, 31, 31, memLocation));
+        result.add(new Mem(Mem.Op.ST, 30, 31));
     }
 
     /**
@@ -85,19 +88,19 @@ public class AssemblerGenerator {
      * @return
      */
     public String generateAssembly() {
-        if (program.getInstructions().isEmpty()) {
-            return "";
-        }
+        return generateProgram().toString();
+    }
 
-        StringBuilder result = new StringBuilder();
-        String currentlyBuildInstruction;
+    /**
+     * Génère le programme final, avec les registres physiques, à partir du programme et de l'allocation de registres
+     * @return Program le programme, exécutable directement par src.Simulator.ProgramDecoder
+     */
+    public Program generateProgram() {
+        Program result = new Program();
 
         for (Instruction instruction : program.getInstructions()) {
             String[] parts = instruction.getName().split(" ");
-            currentlyBuildInstruction = "";
-            if (!instruction.getLabel().isEmpty()) {
-                currentlyBuildInstruction += (instruction.getLabel()) + (": ");
-            }
+            ArrayList<Instruction> code = new ArrayList<>();
             if (parts.length < 1) {
                 throw new IllegalArgumentException("Format d'instruction invalide : " + instruction.getName());
             }
@@ -122,22 +125,30 @@ public class AssemblerGenerator {
                         int destReg = ual.getDest();
                         int reg1 = ual.getSr1();
                         int reg2 = ual.getSr2();
-                        String newDestReg = this.getRegisterNumber(destReg);
-                        String newReg1 = this.getRegister(reg1, result, 30);
-                        String newReg2 = this.getRegister(reg2, result, 31);
-                        currentlyBuildInstruction += (op + " " + newDestReg + " " + newReg1 + " " + newReg2 + "\n");
-                        result.append(currentlyBuildInstruction);
-                        this.returnRegister(destReg, result);
+                        int newDestReg = this.getRegisterNumber(destReg);
+                        if (reg1 == reg2 && (op.equals("XOR") || op.equals("SUB"))) {
+                            // zéro sans lire l'opérande (voir Liveness.getUse), qui peut ne pas avoir de registre
+                            code.add(new UAL(UAL.Op.XOR, newDestReg, newDestReg, newDestReg));
+                            this.returnRegister(destReg, code);
+                            break;
+                        }
+                        int newReg1 = this.getRegister(reg1, code, 30);
+                        int newReg2 = this.getRegister(reg2, code, 31);
+                        code.add(new UAL(UAL.Op.valueOf(op), newDestReg, newReg1, newReg2));
+                        this.returnRegister(destReg, code);
                     } else {
                         UALi uali = (UALi) instruction;
                         int destReg = uali.getDest();
                         int reg1 = uali.getSr();
                         int imm = uali.getImm();
-                        String newDestReg = this.getRegisterNumber(destReg);
-                        String newReg1 = this.getRegister(reg1, result, 30);
-                        currentlyBuildInstruction += (op + " " + newDestReg + " " + newReg1 + " " + imm + "\n");
-                        result.append(currentlyBuildInstruction);
-                        this.returnRegister(destReg, result);
+                        if (ConflictGraph.isCopy(uali) && instruction.getLabel().isEmpty()
+                                && getActualRegister(destReg) == getActualRegister(reg1)) {
+                            break; // copie fusionnée par l'allocation
+                        }
+                        int newDestReg = this.getRegisterNumber(destReg);
+                        int newReg1 = this.getRegister(reg1, code, 30);
+                        code.add(new UALi(UALi.Op.valueOf(op), newDestReg, newReg1, imm));
+                        this.returnRegister(destReg, code);
                     }
                     break;
                 }
@@ -155,10 +166,9 @@ public class AssemblerGenerator {
                     String address = condJump.getAddress();
                     int reg1 = condJump.getSr1();
                     int reg2 = condJump.getSr2();
-                    String newReg1 = this.getRegister(reg1, result, 30);
-                    String newReg2 = this.getRegister(reg2, result, 31);
-                    currentlyBuildInstruction += (op + " " + newReg1 + " " + newReg2 + " " + address + "\n");
-                    result.append(currentlyBuildInstruction);
+                    int newReg1 = this.getRegister(reg1, code, 30);
+                    int newReg2 = this.getRegister(reg2, code, 31);
+                    code.add(new CondJump(CondJump.Op.valueOf(op), newReg1, newReg2, address));
                     break;
                 }
 
@@ -169,11 +179,10 @@ public class AssemblerGenerator {
                     Mem mem = (Mem) instruction;
                     int reg1 = mem.getDest();
                     int reg2 = mem.getAddress();
-                    String newReg1 = this.getRegister(reg1, result, 30);
-                    String newReg2 = this.getRegister(reg2, result, 31);
-                    currentlyBuildInstruction += (op + " " + newReg1 + " " + newReg2 + "\n");
-                    result.append(currentlyBuildInstruction);
-                    this.returnRegister(reg1, result);
+                    int newReg1 = this.getRegisterNumber(reg1);
+                    int newReg2 = this.getRegister(reg2, code, 31);
+                    code.add(new Mem(Mem.Op.LD, newReg1, newReg2));
+                    this.returnRegister(reg1, code);
                     break;
                 }
 
@@ -184,10 +193,9 @@ public class AssemblerGenerator {
                     Mem mem = (Mem) instruction;
                     int reg1 = mem.getDest();
                     int reg2 = mem.getAddress();
-                    String newReg1 = this.getRegister(reg1, result, 30);
-                    String newReg2 = this.getRegister(reg2, result, 31);
-                    currentlyBuildInstruction += (op + " " + newReg1 + " " + newReg2 + "\n");
-                    result.append(currentlyBuildInstruction);
+                    int newReg1 = this.getRegister(reg1, code, 30);
+                    int newReg2 = this.getRegister(reg2, code, 31);
+                    code.add(new Mem(Mem.Op.ST, newReg1, newReg2));
                     break;
                 }
 
@@ -197,9 +205,7 @@ public class AssemblerGenerator {
                         throw new IllegalArgumentException("Invalid instruction type for jump/call: " + instruction.getName());
                     }
                     JumpCall jumpCall = (JumpCall) instruction;
-                    String jumpLabel = jumpCall.getAddress();
-                    currentlyBuildInstruction += (op + " " + jumpLabel + "\n");
-                    result.append(currentlyBuildInstruction);
+                    code.add(new JumpCall(JumpCall.Op.valueOf(op), jumpCall.getAddress()));
                     break;
                 }
 
@@ -208,8 +214,7 @@ public class AssemblerGenerator {
                     if (!(instruction instanceof Stop) && !(instruction instanceof Ret)) {
                         throw new IllegalArgumentException("Invalid instruction type for stop: " + instruction.getName());
                     }
-                    currentlyBuildInstruction += (op + "\n");
-                    result.append(currentlyBuildInstruction);
+                    code.add(instruction instanceof Stop ? new Stop() : new Ret());
                     break;
                 }
 
@@ -220,10 +225,9 @@ public class AssemblerGenerator {
                     }
                     IO io = (IO) instruction;
                     int reg = io.getReg();
-                    String newReg1 = this.getRegister(reg, result, 30);
-                    currentlyBuildInstruction += (op + " " + newReg1 + "\n");
-                    result.append(currentlyBuildInstruction);
-                    this.returnRegister(reg, result);
+                    int newReg1 = this.getRegisterNumber(reg);
+                    code.add(new IO(IO.Op.valueOf(op), newReg1));
+                    this.returnRegister(reg, code);
                     break;
                 }
 
@@ -234,17 +238,23 @@ public class AssemblerGenerator {
                     }
                     IO io = (IO) instruction;
                     int reg = io.getReg();
-                    String newReg1 = this.getRegister(reg, result, 30);
-                    currentlyBuildInstruction += (op + " " + newReg1 + "\n");
-                    result.append(currentlyBuildInstruction);
+                    int newReg1 = this.getRegister(reg, code, 30);
+                    code.add(new IO(IO.Op.valueOf(op), newReg1));
                     break;
                 }
 
                 default:
                     throw new IllegalArgumentException("Unknown instruction: " + parts[0]);
             }
+            // le label est placé devant les chargements des registres en mémoire, pour qu'un saut les exécute aussi
+            if (!instruction.getLabel().isEmpty()) {
+                code.get(0).setLabel(instruction.getLabel());
+            }
+            for (Instruction generated : code) {
+                result.addInstruction(generated);
+            }
         }
 
-        return result.toString();
+        return result;
     }
 }
@@ -0,0 +1,152 @@
+package src;
+
+import src.Asm.Instruction;
+import java.util.List;
+
+/**
+ * Bloc de base du graphe de contrôle : une suite d'instructions consécutives du programme
+ * dans laquelle on ne peut entrer que par la première et sortir que par la dernière.
+ */
+public class BasicBlock {
+    private final int id;
+    private final int start;
+    private final int end;
+    private final List<Instruction> instructions;
+    private int[] successors;
+    private int[] predecessors;
+    private long[] use;
+    private long[] def;
+
+    /**
+     * Constructeur
+     * @param id numéro du bloc
+     * @param start indice de la première instruction du bloc dans le programme
+     * @param end indice de l'instruction qui suit la dernière instruction du bloc
+     * @param instructions les instructions du bloc
+     */
+    public BasicBlock(int id, int start, int end, List<Instruction> instructions) {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.instructions = instructions;
+        this.successors = new int[0];
+        this.predecessors = new int[0];
+    }
+
+    /**
+     * Getter du numéro du bloc
+     * @return int numéro du bloc, entre 0 et le nombre de blocs
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Getter de l'indice de la première instruction dans le programme
+     * @return int indice de la première instruction
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Getter de l'indice qui suit la dernière instruction dans le programme
+     * @return int indice de fin (exclu)
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Getter des instructions du bloc
+     * @return List<Instruction> instructions du bloc, dans l'ordre du programme
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Getter de la dernière instruction du bloc
+     * @return Instruction dernière instruction
+     */
+    public Instruction getLast() {
+        return instructions.get(instructions.size() - 1);
+    }
+
+    /**
+     * Getter des successeurs
+     * @return int[] numéros des blocs successeurs
+     */
+    public int[] getSuccessors() {
+        return successors;
+    }
+
+    /**
+     * Setter des successeurs
+     * @param successors numéros des blocs successeurs
+     */
+    public void setSuccessors(int[] successors) {
+        this.successors = successors;
+    }
+
+    /**
+     * Getter des prédécesseurs
+     * @return int[] numéros des blocs prédécesseurs
+     */
+    public int[] getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * Setter des prédécesseurs
+     * @param predecessors numéros des blocs prédécesseurs
+     */
+    public void setPredecessors(int[] predecessors) {
+        this.predecessors = predecessors;
+    }
+
+    /**
+     * Getter des registres lus dans le bloc avant toute définition dans le bloc
+     * @return long[] vecteur de bits indexé par les identifiants denses du graphe de contrôle
+     */
+    public long[] getUse() {
+        return use;
+    }
+
+    /**
+     * Setter des registres lus avant définition
+     * @param use vecteur de bits
+     */
+    public void setUse(long[] use) {
+        this.use = use;
+    }
+
+    /**
+     * Getter des registres définis dans le bloc
+     * @return long[] vecteur de bits indexé par les identifiants denses du graphe de contrôle
+     */
+    public long[] getDef() {
+        return def;
+    }
+
+    /**
+     * Setter des registres définis
+     * @param def vecteur de bits
+     */
+    public void setDef(long[] def) {
+        this.def = def;
+    }
+
+    /**
+     * Conversion pour l'affichage
+     * @return String
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("B" + id + " [" + start + ", " + end + "[ -> ");
+        for (int s : successors) {
+            sb.append("B").append(s).append(" ");
+        }
+        return sb.toString();
+    }
+}
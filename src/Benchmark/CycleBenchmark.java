@@ -0,0 +1,365 @@
+package src.Benchmark;
+
+import src.Pipeline;
+import src.Asm.Program;
+import src.Simulator.ProgramDecoder;
+import src.Simulator.Simulator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Mesure le nombre de cycles du Simulator sur un corpus de programmes TCL, avec toutes les optimisations
+ * puis en désactivant chacune d'elles comme l'option correspondante de Main, et vérifie que les sorties ne changent pas.
+ * Usage : java src.Benchmark.CycleBenchmark [programme.tcl...] (le corpus intégré par défaut)
+ */
+public class CycleBenchmark {
+    /**
+     * Les options de Main essayées, chacune seule, après la compilation sans option
+     */
+    private static final List<String> OPTIONS = List.of("--sans-constantes", "--sans-court-circuit", "--sans-bornes", "--sans-appel-terminal", "--sans-echappement", "--sans-integration",
+            "--sans-invariants", "--sans-sous-expressions", "--sans-induction", "--sans-peephole", "--sans-propagation", "--linear-scan");
+
+    /**
+     * Les programmes mesurés par défaut ; les indices restent dans les tableaux même sans court-circuit
+     */
+    private static final Map<String, String> CORPUS = new LinkedHashMap<>();
+    static {
+        CORPUS.put("fibo", """
+                int fibo(int n) {
+                    if (n < 2) { return n; }
+                    return fibo(n - 1) + fibo(n - 2);
+                }
+                int main() {
+                    int total = 0;
+                    for (int i = 0; i < 16; i = i + 1;) {
+                        total = total + fibo(i);
+                    }
+                    print(total);
+                    return 0;
+                }
+                """);
+        CORPUS.put("court-circuit", """
+                int cost(int x) {
+                    int s = 0;
+                    for (int i = 0; i < 8; i = i + 1;) { s = s + x * i; }
+                    return s;
+                }
+                bool isOdd(int x) {
+                    return x % 2 == 1;
+                }
+                int main() {
+                    int[] t = {};
+                    for (int k = 0; k < 64; k = k + 1;) { t[k] = (k * 37) % 64; }
+                    int hits = 0;
+                    for (int i = 0; i < 64; i = i + 1;) {
+                        bool rising = i > 0 && t[(i + 63) % 64] < t[i];
+                        bool keep = isOdd(i) || cost(i) > 1000;
+                        if (rising && keep) { hits = hits + 1; }
+                    }
+                    print(hits);
+                    return 0;
+                }
+                """);
+        CORPUS.put("tri", """
+                int main() {
+                    int[] t = {};
+                    int n = 40;
+                    for (int k = 0; k < n; k = k + 1;) { t[k] = (k * 17 + 5) % n; }
+                    for (int i = 1; i < n; i = i + 1;) {
+                        int j = i;
+                        while (j > 0 && t[(j + n - 1) % n] > t[j]) {
+                            int x = t[j];
+                            t[j] = t[j - 1];
+                            t[j - 1] = x;
+                            j = j - 1;
+                        }
+                    }
+                    for (int p = 0; p < n; p = p + 1;) {
+                        int e = t[p];
+                        print(e);
+                    }
+                    return 0;
+                }
+                """);
+        CORPUS.put("produit", """
+                int dot(int[] a, int[] b, int n) {
+                    int s = 0;
+                    for (int i = 0; i < n; i = i + 1;) { s = s + a[i] * b[i]; }
+                    return s;
+                }
+                int main() {
+                    int[] u = {};
+                    int[] v = {};
+                    int n = 64;
+                    for (int k = 0; k < n; k = k + 1;) { u[k] = k % 7; v[k] = 3 - k % 5; }
+                    for (int i = 1; i < n; i = i + 1;) { u[i] = u[i] + u[i - 1]; }
+                    int total = 0;
+                    for (int r = 0; r < 8; r = r + 1;) { total = total + dot(u, v, n); }
+                    print(total);
+                    return 0;
+                }
+                """);
+        CORPUS.put("terminal", """
+                int somme(int n, int acc) {
+                    if (n == 0) { return acc; }
+                    return somme(n - 1, acc + n % 7);
+                }
+                int pgcd(int a, int b) {
+                    if (b == 0) { return a; }
+                    return pgcd(b, a % b);
+                }
+                int main() {
+                    int total = somme(2000, 0);
+                    for (int i = 1; i < 40; i = i + 1;) { total = total + pgcd(i * 91, 1001 - i); }
+                    print(total);
+                    return 0;
+                }
+                """);
+        CORPUS.put("allocations", """
+                int fill(int[] t, int n, int seed) {
+                    for (int k = 0; k < n; k = k + 1;) { t[k] = (k * seed) % 101; }
+                    int s = 0;
+                    for (int j = 0; j < n; j = j + 1;) { s = s + t[j]; }
+                    return s;
+                }
+                int main() {
+                    int total = 0;
+                    for (int r = 0; r < 30; r = r + 1;) {
+                        int[] a = {0};
+                        int[] b = {1, 2, 3};
+                        total = total + fill(a, 40 + r, r + 3) + fill(b, 20 + r, r + 7);
+                    }
+                    print(total);
+                    return 0;
+                }
+                """);
+        CORPUS.put("memoire", """
+                int work(int n) {
+                    int[] a = {n, 1};
+                    for (int k = 2; k < n; k = k + 1;) { a[k] = (a[k - 1] + a[k - 2]) % 1000; }
+                    return a[n - 1];
+                }
+                int[] make(int n) {
+                    int[] t = {};
+                    for (int k = 0; k < 20; k = k + 1;) { t[k] = (n + k) % 13; }
+                    return t;
+                }
+                int at(int[] t, int i) { return t[i]; }
+                int rec(int n, int acc) {
+                    if (n == 0) { return acc; }
+                    int[] c = {n, acc, 0};
+                    c[5] = n;
+                    return rec(n - 1, (acc + c[0] + c[4]) % 1000);
+                }
+                int main() {
+                    int total = 0;
+                    for (int i = 0; i < 1000; i = i + 1;) { total = (total + work(20 + i % 7)) % 1000; }
+                    int[] b = {};
+                    for (int j = 0; j < 3000; j = j + 1;) {
+                        b = make(j);
+                        total = (total + at(b, j % 20)) % 1000;
+                    }
+                    print(total);
+                    int r = rec(1000, 0);
+                    print(r);
+                    return 0;
+                }
+                """);
+        CORPUS.put("fonctions", """
+                int clamp(int x, int lo, int hi) {
+                    if (x < lo) { return lo; }
+                    if (x > hi) { return hi; }
+                    return x;
+                }
+                int sq(int x) { return x * x; }
+                bool isEven(int x) { return x % 2 == 0; }
+                int dist(int a, int b) { return sq(a - b); }
+                int scale(int x, int k) {
+                    if (k != 0) { return x * k; }
+                    return x;
+                }
+                int main() {
+                    int total = 0;
+                    for (int i = 0; i < 60; i = i + 1;) {
+                        if (isEven(i)) {
+                            total = total + clamp(dist(i, 30), 10, 400);
+                        } else {
+                            total = total - clamp(i, 5, 40) + sq(3) + scale(i, 0);
+                        }
+                    }
+                    print(total);
+                    return 0;
+                }
+                """);
+        CORPUS.put("invariants", """
+                int sum(int[] a, int n, int k) {
+                    int s = 0;
+                    for (int i = 0; i < n; i = i + 1;) { s = s + a[i] * (k * 3 + 1); }
+                    return s;
+                }
+                int main() {
+                    int[] u = {};
+                    int w = 7;
+                    for (int k = 0; k < 50; k = k + 1;) { u[k] = k % 9 + w * w; }
+                    int t = 0;
+                    for (int r = 0; r < 20; r = r + 1;) {
+                        t = t + sum(u, 50, r) + sum(u, 10, r);
+                    }
+                    print(t);
+                    return 0;
+                }
+                """);
+        CORPUS.put("parcours", """
+                int main() {
+                    int[] u = {};
+                    for (int k = 0; k < 90; k = k + 1;) { u[k] = k * 7 % 11; }
+                    int s = 0;
+                    for (int r = 0; r < 10; r = r + 1;) {
+                        for (int i = 0; i < 30; i = i + 1;) { s = s + u[i * 3 + 1]; }
+                        for (int j = 0; j < 90; j = j + 1;) { s = s + u[j] * j; }
+                    }
+                    print(s);
+                    return 0;
+                }
+                """);
+        CORPUS.put("expressions", """
+                int norm(int[] a, int n, int w) {
+                    int s = 0;
+                    for (int i = 0; i < n; i = i + 1;) {
+                        s = s + a[i] * a[i] + (i * w + 1) * (i * w + 1);
+                    }
+                    return s;
+                }
+                int main() {
+                    int[] u = {};
+                    for (int k = 0; k < 60; k = k + 1;) { u[k] = k % 13 - 6; }
+                    int t = 0;
+                    for (int r = 0; r < 8; r = r + 1;) { t = t + norm(u, 60, r); }
+                    print(t);
+                    return 0;
+                }
+                """);
+        // programme aléatoire : un nombre de faits disponibles qui n'est pas multiple de 64 dans CommonSubexpressionElimination
+        CORPUS.put("aleatoire", """
+                int f0(int n, int a) {
+                    if (n <= 0) { return a; }
+                    return f0(n - 1, (a + n * 4) % 1000);
+                }
+                int f1(int n, int a) {
+                    if (n <= 0) { return a; }
+                    return (f1(n - 1, (a * 3 + n) % 97) + f1(n - 2, a)) % 1000;
+                }
+                int main() {
+                    int v0 = -2;
+                    int v1 = 1;
+                    int v2 = 2;
+                    int[] arr0 = {0, 1, 7, 0, 1, 4};
+                    int[] arr1 = {1, 4, 0, 9};
+                    {
+                        v2 = (19) % 1000;
+                        for (int i0 = 0; i0 < 3; i0 = i0 + 1;) {
+                            print(v1);
+                        }
+                        arr1[(((v0 - 5)) % 4 + 4) % 4] = ((((6 / 2) + (v1 - -1)) - ((14 + 14) - (v0 - v2)))) % 1000;
+                        print(v0);
+                        print(v1);
+                        print(v2);
+                    }
+                    return 0;
+                }
+                """);
+        CORPUS.put("boucles", """
+                int main() {
+                    int size = 8;
+                    int total = 0;
+                    for (int i = 0; i < size * 4; i = i + 1;) {
+                        for (int j = 0; j < size; j = j + 1;) {
+                            total = total + (i * 8 + j) / 4 - j % 2;
+                        }
+                    }
+                    print(total);
+                    return 0;
+                }
+                """);
+        CORPUS.put("difference", """
+                int f(int n) {
+                    if (n > 0) { return f(n - 1) + 1; }
+                    return 0;
+                }
+                int main() {
+                    int x = f(3) - 2;
+                    int d = x - x;
+                    print(d);
+                    return 0;
+                }
+                """);
+        CORPUS.put("unification", """
+                int main() {
+                    int[] a = {1};
+                    int v = a[0];
+                    v = 2;
+                    print(v);
+                    return 0;
+                }
+                """);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> corpus = CORPUS;
+        if (args.length > 0) {
+            corpus = new LinkedHashMap<>();
+            for (String file : args) corpus.put(Path.of(file).getFileName().toString(), Files.readString(Path.of(file)));
+        }
+
+        System.out.printf("%-16s %12s", "programme", "toutes");
+        for (String option : OPTIONS) System.out.printf(" %20s", option);
+        System.out.println();
+        for (Map.Entry<String, String> entry : corpus.entrySet()) {
+            StringWriter reference = new StringWriter();
+            long cycles = run(compileTcl(entry.getValue(), Set.of()), reference);
+            System.out.printf("%-16s %12d", entry.getKey(), cycles);
+            for (String option : OPTIONS) {
+                StringWriter output = new StringWriter();
+                cycles = run(compileTcl(entry.getValue(), Set.of(option)), output);
+                if (!output.toString().equals(reference.toString())) {
+                    throw new IllegalStateException(entry.getKey() + " " + option + " : sortie différente " + output + " / " + reference);
+                }
+                System.out.printf(" %20d", cycles);
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Exécute un programme alloué, registres et mémoire initialisés toujours de la même façon
+     * @return long nombre de cycles
+     */
+    private static long run(Program program, StringWriter output) throws IOException {
+        Simulator simulator = ProgramDecoder.decode(program, Simulator.REGISTER_COUNT, new Random(0));
+        return simulator.run(new StringReader(""), output);
+    }
+
+    /**
+     * Compile un programme TCL jusqu'au programme alloué, comme Main avec les options données, sans les affichages du typeur
+     */
+    private static Program compileTcl(String source, Set<String> options) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return new Pipeline(options).compile(source);
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package src.Benchmark;
+
+import src.Pipeline;
+import src.Asm.Program;
+import src.Simulator.CompiledProgram;
+import src.Simulator.JitCompiler;
+import src.Simulator.ProgramDecoder;
+import src.Simulator.Simulator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compare l'exécution d'un programme TCL compilé par le Simulator (boucle de dispatch)
+ * et par le JitCompiler (bytecode compilé par HotSpot) : temps de compilation, temps par exécution,
+ * et vérification que les sorties et les nombres de cycles sont identiques.
+ * Usage : java src.Benchmark.JitBenchmark [programme.tcl] [entrées] [répétitions]
+ */
+public class JitBenchmark {
+    private static final String DEFAULT_PROGRAM = """
+            int fibo(int n) {
+                if (n < 2) { return n; }
+                return fibo(n - 1) + fibo(n - 2);
+            }
+            int main() {
+                int total = 0;
+                for (int i = 0; i < 20; i = i + 1;) {
+                    total = total + fibo(i);
+                }
+                print(total);
+                return 0;
+            }
+            """;
+
+    public static void main(String[] args) throws IOException {
+        String source = args.length > 0 ? Files.readString(Path.of(args[0])) : DEFAULT_PROGRAM;
+        String input = args.length > 1 ? Files.readString(Path.of(args[1])) : "";
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        Program program = compileTcl(source);
+        System.out.println("instructions : " + program.getInstructions().size());
+
+        long start = System.nanoTime();
+        CompiledProgram compiled = JitCompiler.compile(program, Simulator.REGISTER_COUNT);
+        System.out.printf("compilation JIT : %d ms%n", (System.nanoTime() - start) / 1000000);
+
+        long interpreted = 0;
+        long jit = 0;
+        for (int i = 0; i < repetitions; i++) {
+            StringWriter simulatorOutput = new StringWriter();
+            start = System.nanoTime();
+            Simulator simulator = ProgramDecoder.decode(program, Simulator.REGISTER_COUNT, new Random(i));
+            long simulatorCycles = simulator.run(new StringReader(input), simulatorOutput);
+            interpreted += System.nanoTime() - start;
+
+            StringWriter jitOutput = new StringWriter();
+            start = System.nanoTime();
+            long jitCycles = compiled.run(new StringReader(input), jitOutput, new Random(i));
+            jit += System.nanoTime() - start;
+
+            if (simulatorCycles != jitCycles || !simulatorOutput.toString().equals(jitOutput.toString())) {
+                throw new IllegalStateException("Résultats différents : " + simulatorCycles + " cycles " + simulatorOutput
+                        + " / " + jitCycles + " cycles " + jitOutput);
+            }
+            if (i == 0) System.out.println("cycles : " + simulatorCycles);
+        }
+        // les deux temps comprennent l'initialisation aléatoire des registres et de la mémoire
+        System.out.printf("simulateur : %.3f ms par exécution%n", interpreted / 1e6 / repetitions);
+        System.out.printf("JIT        : %.3f ms par exécution%n", jit / 1e6 / repetitions);
+    }
+
+    /**
+     * Compile un programme TCL jusqu'au programme alloué, comme Main, sans les affichages du typeur
+     */
+    private static Program compileTcl(String source) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return new Pipeline(Set.of()).compile(source);
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+}
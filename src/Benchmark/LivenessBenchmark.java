@@ -0,0 +1,85 @@
+package src.Benchmark;
+
+import src.ControlGraph;
+import src.Liveness;
+import src.Asm.CondJump;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.Stop;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Mesure le temps de l'analyse de vivacité en fonction de la taille du programme.
+ * Les programmes sont générés aléatoirement : des blocs de calcul sur des registres toujours nouveaux,
+ * reliés par des boucles qui se suivent ou s'imbriquent (jusqu'à MAX_DEPTH) comme celles produites par visitWhile et visitFor.
+ * Usage : java src.Benchmark.LivenessBenchmark [taille maximale]
+ */
+public class LivenessBenchmark {
+    /**
+     * Profondeur maximale des boucles imbriquées générées
+     */
+    private static final int MAX_DEPTH = 4;
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 128000;
+
+        System.out.println("instructions  blocs  registres  graphe de contrôle (ms)  vivacité (ms)");
+        for (int size = 1000; size <= maxSize; size *= 2) {
+            Program program = generate(size, new Random(size));
+
+            long start = System.nanoTime();
+            ControlGraph controlGraph = new ControlGraph(program);
+            long built = System.nanoTime();
+            new Liveness(controlGraph);
+            long end = System.nanoTime();
+
+            System.out.printf("%12d  %5d  %9d  %23d  %13d%n", program.getInstructions().size(), controlGraph.getBlockCount(), controlGraph.getRegisterCount(),
+                    (built - start) / 1000000, (end - built) / 1000000);
+        }
+    }
+
+    /**
+     * Génère un programme d'environ size instructions
+     * @param size nombre d'instructions visé
+     * @param random générateur aléatoire
+     * @return le programme généré
+     */
+    static Program generate(int size, Random random) {
+        Program program = new Program();
+        int nextRegister = 3;
+        int nextLabel = 0;
+        ArrayDeque<String> loopLabels = new ArrayDeque<>(); // boucles ouvertes, la plus interne en tête
+        ArrayDeque<Integer> loopStarts = new ArrayDeque<>();
+        while (program.getInstructions().size() < size) {
+            if (loopLabels.size() < MAX_DEPTH && random.nextInt(8) == 0) { // début de boucle, éventuellement dans la boucle ouverte
+                String loopLabel = "*label" + nextLabel++;
+                loopLabels.push(loopLabel);
+                loopStarts.push(nextRegister);
+                program.addInstruction(new UALi(loopLabel, UALi.Op.ADD, nextRegister, nextRegister - 1, 0));
+                nextRegister++;
+            }
+            switch (random.nextInt(4)) {
+                case 0 -> program.addInstruction(new UAL(UAL.Op.ADD, nextRegister, nextRegister - 1, 2 + random.nextInt(nextRegister - 2)));
+                case 1 -> program.addInstruction(new UALi(UALi.Op.MUL, nextRegister, nextRegister - 1, random.nextInt(10)));
+                case 2 -> program.addInstruction(new Mem(Mem.Op.LD, nextRegister, nextRegister - 1));
+                default -> program.addInstruction(new UAL(UAL.Op.XOR, nextRegister, nextRegister, nextRegister));
+            }
+            nextRegister++;
+            if (!loopLabels.isEmpty() && random.nextInt(16) == 0) { // fin de la boucle la plus interne
+                program.addInstruction(new CondJump(CondJump.Op.JINF, loopStarts.pop(), nextRegister - 1, loopLabels.pop()));
+            }
+        }
+        while (loopLabels.size() > 1) {
+            program.addInstruction(new CondJump(CondJump.Op.JINF, loopStarts.pop(), nextRegister - 1, loopLabels.pop()));
+        }
+        if (!loopLabels.isEmpty()) {
+            program.addInstruction(new JumpCall(JumpCall.Op.JMP, loopLabels.pop()));
+        }
+        program.addInstruction(new Stop());
+        return program;
+    }
+}
@@ -0,0 +1,51 @@
+package src.Benchmark;
+
+import src.ConflictGraph;
+import src.ControlGraph;
+import src.LinearScanAllocator;
+import src.Asm.Program;
+import java.lang.ref.Reference;
+import java.util.Random;
+
+/**
+ * Compare l'allocation par graphe de conflit (Chaitin-Briggs) et l'allocation par balayage linéaire :
+ * temps d'allocation et mémoire occupée par la structure d'allocation, sur les programmes de LivenessBenchmark.
+ * Usage : java src.Benchmark.RegisterAllocationBenchmark [taille maximale]
+ */
+public class RegisterAllocationBenchmark {
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+
+        System.out.println("instructions  registres  graphe (ms)  graphe (Mo)  couleurs  balayage (ms)  balayage (Mo)  couleurs");
+        for (int size = 1000; size <= maxSize; size *= 2) {
+            Program program = LivenessBenchmark.generate(size, new Random(size));
+            ControlGraph controlGraph = new ControlGraph(program);
+
+            long memory = usedMemory();
+            long start = System.nanoTime();
+            ConflictGraph conflictGraph = new ConflictGraph(controlGraph, program);
+            int graphColors = conflictGraph.color();
+            long graphTime = System.nanoTime() - start;
+            long graphMemory = usedMemory() - memory;
+            Reference.reachabilityFence(conflictGraph);
+            conflictGraph = null;
+
+            memory = usedMemory();
+            start = System.nanoTime();
+            LinearScanAllocator allocator = new LinearScanAllocator(controlGraph);
+            int scanColors = allocator.allocate();
+            long scanTime = System.nanoTime() - start;
+            long scanMemory = usedMemory() - memory;
+            Reference.reachabilityFence(allocator);
+
+            System.out.printf("%12d  %9d  %11d  %11d  %8d  %13d  %13d  %8d%n", program.getInstructions().size(), controlGraph.getRegisterCount(),
+                    graphTime / 1000000, graphMemory >> 20, graphColors, scanTime / 1000000, scanMemory >> 20, scanColors);
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
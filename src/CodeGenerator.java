@@ -1,11 +1,20 @@
 package src;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.AbstractParseTreeVisitor;
+import org.antlr.v4.runtime.tree.ParseTree;
 import src.Asm.*;
 import src.Type.ArrayType;
+import src.Type.FunctionType;
 import src.Type.Type;
 import src.Type.UnknownType;
 
@@ -25,6 +34,19 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
      * A stack of maps that links each function with the number of the register that stocks its return value
      */
     private final VarStack<String, Integer> returnRegisters;
+    /**
+     * A map that links each function with the registers in which it receives its arguments
+     */
+    private final Map<String, List<Integer>> parameterRegisters;
+    /**
+     * A map that links the register of each variable with the depth of the arrays it holds, from the type of its declaration
+     * (the types of the uses of a variable are not in the map given by the type analysis)
+     */
+    private final Map<Integer, Integer> arrayDepths;
+    /**
+     * A map that links each function with the depth of the arrays it returns
+     */
+    private final Map<String, Integer> returnDepths;
 
     /**
      * Stack pointer, contains the address of the next free space in the stack, and shouldn't go over 4095
@@ -34,6 +56,22 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
      * Stack pointer for arrays (Tab Pointer), contains the address of the next free space in memory for arrays (starting at 4096)
      */
     private final int TP = 1;
+    /**
+     * An array is a pointer to a header [length, capacity, pointer to the elements], the elements being contiguous in memory:
+     * offsets of the fields in the header, and size of the header
+     */
+    private static final int LENGTH = 0, CAPACITY = 1, DATA = 2, HEADER_SIZE = 3;
+    /**
+     * The elements of the arrays that grow are allocated by *alloc in blocks of 2^k cells, k < SIZE_CLASSES,
+     * and given back to *free when they are moved: the head of the free list of each size is stored at FREE_LISTS + k,
+     * the arrays start after these heads
+     */
+    private static final int FREE_LISTS = 4096, SIZE_CLASSES = 16;
+    /**
+     * The words of the stack that the frames of arrays may take: a function that isn't recursive has at most one frame at a time,
+     * so the frames below SP never take more than the sum of their sizes
+     */
+    private static final int FRAME_BUDGET = 1024;
 
     /**
      * Contains the number of the next non utilised register number, should always be incremented immediately after each use
@@ -47,19 +85,120 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
      * Contains the name of the function that is currently being declared
      */
     private String currentFunction;
-
+    /**
+     * Values of the expressions known at compile time, null to compile every expression
+     */
+    private final ConstantFolder constants;
+    /**
+     * True if the right operand of AND and OR is only evaluated when the left one doesn't decide the result
+     */
+    private boolean shortCircuit;
+    /**
+     * True if for loops whose accesses are proved in range by LoopBoundsAnalysis get a copy without bounds checks
+     */
+    private boolean boundsCheckElimination;
+    /**
+     * The array accesses compiled without bounds check, while generating such a copy
+     */
+    private final Set<ParserRuleContext> uncheckedAccesses;
+    /**
+     * True if a function that returns a call to itself jumps back to its entry instead of calling itself
+     */
+    private boolean tailCalls;
+    /**
+     * True if the frame of the arrays that don't escape their function is reserved below SP, see EscapeAnalysis
+     */
+    private boolean stackAllocation;
+    /**
+     * The analysis of the program being generated
+     */
+    private EscapeAnalysis escapeAnalysis;
+    /**
+     * The offset of each array of the current function in its frame, from the address in frameRegister
+     */
+    private final Map<grammarTCLParser.DeclarationContext, Integer> frameOffsets;
+    /**
+     * The register of each variable of the current function that owns its array (see EscapeAnalysis), 0 until it holds one
+     */
+    private final Map<grammarTCLParser.DeclarationContext, Integer> ownedRegisters;
+    /**
+     * Contains the number of the register that points to the frame of the current function, reserved at its entry
+     */
+    private int frameRegister;
+    /**
+     * The size of the frame of the current function, and true if it is a block from *alloc instead of the stack below SP
+     */
+    private int frameSize;
+    private boolean heapFrame;
+    /**
+     * The words of FRAME_BUDGET already given to the functions generated so far
+     */
+    private int stackFrameWords;
 
     /**
      * Constructor
      * @param types types of each variable of the source code
      */
     public CodeGenerator(Map<UnknownType, Type> types) {
+        this(types, null);
+    }
+
+    /**
+     * Constructor
+     * @param types types of each variable of the source code
+     * @param constants a ConstantFolder that visited the same tree, its constant expressions are loaded directly
+     */
+    public CodeGenerator(Map<UnknownType, Type> types, ConstantFolder constants) {
         this.types = types;
+        this.constants = constants;
         this.varRegisters = new VarStack<>();
         this.returnRegisters = new VarStack<>();
+        this.parameterRegisters = new HashMap<>();
+        this.arrayDepths = new HashMap<>();
+        this.returnDepths = new HashMap<>();
         this.nextRegister = 2;
         this.nextLabel = 0;
         this.currentFunction = "";
+        this.shortCircuit = true;
+        this.boundsCheckElimination = true;
+        this.uncheckedAccesses = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.tailCalls = true;
+        this.stackAllocation = true;
+        this.frameOffsets = new IdentityHashMap<>();
+        this.ownedRegisters = new LinkedHashMap<>(); // not an IdentityHashMap: containsValue compares the registers
+        this.stackFrameWords = 0;
+    }
+
+    /**
+     * Setter of the evaluation of AND and OR, short-circuit jumps by default
+     * @param shortCircuit false to always evaluate both operands and combine them with UAL AND/OR
+     */
+    public void setShortCircuit(boolean shortCircuit) {
+        this.shortCircuit = shortCircuit;
+    }
+
+    /**
+     * Setter of the bounds check elimination in for loops, enabled by default
+     * @param boundsCheckElimination false to check the index of every array access
+     */
+    public void setBoundsCheckElimination(boolean boundsCheckElimination) {
+        this.boundsCheckElimination = boundsCheckElimination;
+    }
+
+    /**
+     * Setter of the tail calls, enabled by default
+     * @param tailCalls false to compile return f(...) in f as a CALL followed by a RET
+     */
+    public void setTailCalls(boolean tailCalls) {
+        this.tailCalls = tailCalls;
+    }
+
+    /**
+     * Setter of the allocation of the arrays that don't escape in the frame of their function below SP, enabled by default
+     * @param stackAllocation false to take these frames from *alloc, they are still given back to *free on return
+     */
+    public void setStackAllocation(boolean stackAllocation) {
+        this.stackAllocation = stackAllocation;
     }
 
     /**
@@ -99,6 +238,91 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         return program;
     }
 
+    /**
+     * Macro to get the constant value of an expression
+     * @param expr the expression
+     * @return its value, or null if it is only known at run time (or if constant folding is disabled)
+     */
+    private Long getConstant(ParseTree expr) {
+        return this.constants == null ? null : this.constants.getValue(expr);
+    }
+
+    /**
+     * Macro to get the value of an operand that can be encoded as an immediate: an integer literal or a constant expression
+     * @param expr the operand
+     * @return its value, or null if it must be computed in a register
+     */
+    private Integer getImmediate(ParseTree expr) {
+        if (expr instanceof grammarTCLParser.IntegerContext integer)
+            return Integer.parseInt(integer.INT().getText());
+        Long value = getConstant(expr);
+        return value == null ? null : value.intValue();
+    }
+
+    /**
+     * Macro to compute register op value with the immediate form of the operation;
+     * a multiplication, division or modulo by a power of two becomes a shift or a mask
+     * (the division and the modulo are floored, so SR and AND give the same result on negative numbers)
+     * @param op the operation
+     * @param dest the result register
+     * @param register the register operand
+     * @param value the constant operand
+     * @return the instruction
+     */
+    private UALi getImmediateOperation(UALi.Op op, int dest, int register, int value) {
+        if (value > 1 && Integer.bitCount(value) == 1) { // value = 2^k
+            int shift = Integer.numberOfTrailingZeros(value);
+            switch (op) {
+                case MUL -> { return new UALi(UALi.Op.SL, dest, register, shift); }
+                case DIV -> { return new UALi(UALi.Op.SR, dest, register, shift); }
+                case MOD -> { return new UALi(UALi.Op.AND, dest, register, value - 1); }
+            }
+        }
+        return new UALi(op, dest, register, value);
+    }
+
+    /**
+     * Macro to put a label on the first instruction of a program, adding a dummy instruction if the program is empty
+     * @param program the program
+     * @param label the label
+     */
+    private void setFirstLabel(Program program, String label) {
+        if (program.getInstructions().isEmpty())
+            program.addInstruction(this.getLabelInstruction(label));
+        program.getInstructions().getFirst().setLabel(label);
+    }
+
+    /**
+     * Macro for a dummy instruction that only carries a label: it zeroes a new register, so that it reads none
+     * (a register read there, and not set on every path, would be live up to the entry of the function and saved by its callers)
+     * @param label the label
+     * @return the instruction
+     */
+    private Instruction getLabelInstruction(String label) {
+        int register = this.nextRegister;
+        this.nextRegister++;
+        return new UAL(label, UAL.Op.XOR, register, register, register);
+    }
+
+    /**
+     * Visit an expression or an instruction; an expression whose value is known at compile time is just loaded in R(nextRegister-1),
+     * except a constant variable which is already in a register (loading its value would cost two instructions instead of a copy)
+     * @param tree the node within the parse tree
+     * @return a program containing the linear code
+     */
+    @Override
+    public Program visit(ParseTree tree) {
+        if (tree instanceof grammarTCLParser.ExprContext && !(tree instanceof grammarTCLParser.VariableContext)) {
+            Long value = getConstant(tree);
+            if (value != null) {
+                Program program = this.setRegisterTo(this.nextRegister, value.intValue());
+                this.nextRegister++;
+                return program;
+            }
+        }
+        return super.visit(tree);
+    }
+
     /**
      * Macro to get a new valid non utilised label name
      * @return the label name
@@ -110,13 +334,34 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
 
     /**
      * Returns the depth (or dimension) of a given variable
-     * @param type the type we want to know the depth of
+     * @param type the type we want to know the depth of, a type variable is replaced by its substitution
      * @return 0 if it is not an array, else the depth (or dimension) of the array
      */
-    private static int getArrayDepth(Type type) {
+    private int getArrayDepth(Type type) {
         assert type != null : "Le type ne devrait pas être nul !";
         if (type instanceof ArrayType array)
             return 1 + getArrayDepth(array.getTabType());
+        if (type instanceof FunctionType function)
+            return getArrayDepth(function.getReturnType());
+        if (type instanceof UnknownType variable && this.types.get(variable) != null && !variable.equals(this.types.get(variable)))
+            return getArrayDepth(this.types.get(variable));
+        return 0;
+    }
+
+    /**
+     * Returns the depth (or dimension) of the value of an expression, from the declarations of the variables and functions it uses
+     * @param expr the expression
+     * @return 0 if it is not an array, else the depth (or dimension) of the array
+     */
+    private int getArrayDepth(ParseTree expr) {
+        if (expr instanceof grammarTCLParser.VariableContext variable)
+            return this.arrayDepths.getOrDefault(this.varRegisters.getVar(variable.VAR().getText()), 0);
+        if (expr instanceof grammarTCLParser.BracketsContext brackets)
+            return getArrayDepth(brackets.expr());
+        if (expr instanceof grammarTCLParser.Tab_accessContext access)
+            return Math.max(getArrayDepth(access.expr(0)) - 1, 0);
+        if (expr instanceof grammarTCLParser.CallContext call)
+            return this.returnDepths.getOrDefault(call.VAR().getText(), 0);
         return 0;
     }
 
@@ -199,6 +444,13 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
     public Program visitOr(grammarTCLParser.OrContext ctx) {
         // expr OR expr
 
+        Long left = getConstant(ctx.getChild(0));
+        Long right = getConstant(ctx.getChild(2));
+        if (left != null && left == 0) return visit(ctx.getChild(2)); // false || expr = expr
+        if (right != null && right == 0) return visit(ctx.getChild(0));
+        if (this.shortCircuit && !(ctx.getChild(2) instanceof grammarTCLParser.VariableContext))
+            return this.getBooleanProgram(ctx); // the right expr does some work, which is skipped when the left one is enough
+
         Program program = new Program();
 
         program.addInstructions(visit(ctx.getChild(0)));
@@ -248,6 +500,70 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         return program;
     }
 
+    /**
+     * Macro to get the address of a cell of an array: inline when the index is below the length,
+     * through the *tab_access function only when the array has to grow
+     * @param arrayRegister the register containing the array
+     * @param indexRegister the register containing the index
+     * @param depth the depth of the array (its number of dimensions)
+     * @param addressRegister the register that receives the address of the cell, can be arrayRegister
+     * @return a program that computes the address
+     */
+    private Program getCellAddress(int arrayRegister, int indexRegister, int depth, int addressRegister) {
+        /* pseudo-assembler:
+         *   LD R1 array
+         *   JSEQ index R1 slow // index >= length
+         *   ADDi address array DATA
+         *   LD address address
+         *   ADD address address index
+         *   JMP end
+         * slow: address := *tab_access(array, index, depth)
+         * end: following code...
+         */
+        Program program = new Program();
+        String labelSlow = this.getLabel();
+        String labelEnd = this.getLabel();
+        int lengthRegister = this.nextRegister;
+        this.nextRegister++;
+        int depthRegister = this.nextRegister;
+        this.nextRegister++;
+
+        program.addInstruction(new Mem(Mem.Op.LD, lengthRegister, arrayRegister)); // length of the array
+        program.addInstruction(new CondJump(CondJump.Op.JSEQ, indexRegister, lengthRegister, labelSlow));
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, arrayRegister, DATA));
+        program.addInstruction(new Mem(Mem.Op.LD, addressRegister, addressRegister)); // pointer to the elements
+        program.addInstruction(new UAL(UAL.Op.ADD, addressRegister, addressRegister, indexRegister));
+        program.addInstruction(new JumpCall(JumpCall.Op.JMP, labelEnd));
+
+        Program slowProgram = new Program();
+        slowProgram.addInstructions(this.stackRegister(arrayRegister)); // stack the arguments
+        slowProgram.addInstructions(this.stackRegister(indexRegister));
+        slowProgram.addInstructions(this.setRegisterTo(depthRegister, depth));
+        slowProgram.addInstructions(this.stackRegister(depthRegister));
+        slowProgram.addInstruction(new JumpCall(JumpCall.Op.CALL, "*tab_access")); // call the assembler function
+        slowProgram.addInstructions(this.unstackRegister(addressRegister)); // returns a pointer
+        slowProgram.getInstructions().getFirst().setLabel(labelSlow);
+        program.addInstructions(slowProgram);
+
+        program.addInstruction(this.getLabelInstruction(labelEnd));
+        return program;
+    }
+
+    /**
+     * Macro to get the address of a cell of an array whose index is known to be below the length
+     * @param arrayRegister the register containing the array
+     * @param indexRegister the register containing the index
+     * @param addressRegister the register that receives the address of the cell, can be arrayRegister
+     * @return a program that computes the address
+     */
+    private Program getUncheckedCellAddress(int arrayRegister, int indexRegister, int addressRegister) {
+        Program program = new Program();
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, arrayRegister, DATA));
+        program.addInstruction(new Mem(Mem.Op.LD, addressRegister, addressRegister)); // pointer to the elements
+        program.addInstruction(new UAL(UAL.Op.ADD, addressRegister, addressRegister, indexRegister));
+        return program;
+    }
+
     /**
      * Visit a node that contains access to a cell of an array and create the corresponding linear code
      * @param ctx the context within the parse tree
@@ -263,16 +579,15 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         int tabRegister = this.nextRegister - 1; // stock the name of the array
         program.addInstructions(visit(ctx.getChild(2)));
         int indexRegister = this.nextRegister - 1; // stock the index we access in the array
-        int depth = getArrayDepth(this.types.get(new UnknownType(ctx.getChild(0))));
+        int depth = getArrayDepth(ctx.getChild(0));
 
-        program.addInstructions(this.stackRegister(tabRegister)); // stack the arguments
-        program.addInstructions(this.stackRegister(indexRegister));
-        program.addInstructions(this.setRegisterTo(this.nextRegister, depth));
-        program.addInstructions(this.stackRegister(this.nextRegister));
+        int addressRegister = this.nextRegister;
         this.nextRegister++;
-        program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*tab_access")); // call the assembler function
-        program.addInstructions(this.unstackRegister(this.nextRegister)); // returns a pointer
-        program.addInstruction(new Mem(Mem.Op.LD, this.nextRegister, this.nextRegister)); // get the pointed value
+        if (this.uncheckedAccesses.contains(ctx))
+            program.addInstructions(this.getUncheckedCellAddress(tabRegister, indexRegister, addressRegister));
+        else
+            program.addInstructions(this.getCellAddress(tabRegister, indexRegister, depth, addressRegister));
+        program.addInstruction(new Mem(Mem.Op.LD, this.nextRegister, addressRegister)); // get the pointed value
         this.nextRegister++;
 
         return program;
@@ -304,37 +619,23 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         // VAR '(' (expr (',' expr)*)? ')'
 
         Program program = new Program();
-        int childCount = ctx.getChildCount();
-        int nbArguments = (childCount == 3) ? 0 : (childCount - 2)/2;
         String calledFunction = ctx.VAR().getText();
         int returnRegister = this.returnRegisters.getVar(calledFunction);
+        List<Integer> parameters = this.parameterRegisters.get(calledFunction);
 
         ArrayList<Integer> arguments = new ArrayList<>();
-        for (int i = 0; i < nbArguments; i++) { // expr*
-            program.addInstructions(visit(ctx.getChild((2 * i) + 2))); // value of expression will be stocked in R(nextRegister-1)
-            arguments.addLast(this.nextRegister-1); // we save the registers because we want to calculate the arguments first but stack the local variables first
+        for (grammarTCLParser.ExprContext argument : ctx.expr()) { // expr*
+            program.addInstructions(visit(argument)); // value of expression will be stocked in R(nextRegister-1)
+            arguments.addLast(this.nextRegister-1); // every argument is computed before the first one is moved, as they can contain calls too
         }
 
-        int lastUsedRegister = this.nextRegister - 1;
-        if (calledFunction.equals(this.currentFunction)) { // if it's a recursive call
-            for (int i = returnRegister + 1; i <= lastUsedRegister; i++) { // returnRegister is the first assigned register in visitDecl_fct
-                program.addInstructions(this.stackRegister(i)); // we save the current state of used registers in the function
-            }
-        }
-
-        for (int i = 0; i < arguments.size(); i++) { // don't use foreach to be sure of the order of the elements
-            program.addInstructions(this.stackRegister(arguments.get(i))); // we stack the arguments
+        for (int i = 0; i < arguments.size(); i++) {
+            program.addInstruction(new UALi(UALi.Op.ADD, parameters.get(i), arguments.get(i), 0)); // the arguments are passed in registers
         }
-        program.addInstruction(new JumpCall(JumpCall.Op.CALL, ctx.getChild(0).getText())); // we call the function
+        program.addInstruction(new JumpCall(JumpCall.Op.CALL, calledFunction)); // we call the function, see CallerSaves
         program.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister, returnRegister, 0)); // we stock the return value in R(nextRegister - 1)
         nextRegister++;
 
-        if (calledFunction.equals(this.currentFunction)) { // if it's a recursive call
-            for (int i = lastUsedRegister; i > returnRegister; i--) { // (un-stack in reverse order!)
-                program.addInstructions(this.unstackRegister(i)); // we load the state of used registers before the call
-            }
-        }
-
         return program;
     }
 
@@ -367,6 +668,13 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
     public Program visitAnd(grammarTCLParser.AndContext ctx) {
         // expr AND expr
 
+        Long left = getConstant(ctx.getChild(0));
+        Long right = getConstant(ctx.getChild(2));
+        if (left != null && left == 1) return visit(ctx.getChild(2)); // true && expr = expr
+        if (right != null && right == 1) return visit(ctx.getChild(0));
+        if (this.shortCircuit && !(ctx.getChild(2) instanceof grammarTCLParser.VariableContext))
+            return this.getBooleanProgram(ctx); // the right expr does some work, which is skipped when the left one is enough
+
         Program program = new Program();
 
         program.addInstructions(visit(ctx.getChild(0)));
@@ -407,6 +715,26 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         // expr op=(MUL | DIV | MODULO) expr
 
         Program program = new Program();
+        UALi.Op op = switch (ctx.op.getText()) {
+            case "*" -> UALi.Op.MUL;
+            case "/" -> UALi.Op.DIV;
+            default -> UALi.Op.MOD;
+        };
+
+        Integer right = getImmediate(ctx.getChild(2));
+        Integer left = getImmediate(ctx.getChild(0));
+        if (right != null && (right != 0 || op == UALi.Op.MUL)) { // expr op constant, the division by zero is left to the UAL form
+            program.addInstructions(visit(ctx.getChild(0)));
+            program.addInstruction(this.getImmediateOperation(op, this.nextRegister, this.nextRegister - 1, right));
+            this.nextRegister++;
+            return program;
+        }
+        if (left != null && op == UALi.Op.MUL) { // constant * expr
+            program.addInstructions(visit(ctx.getChild(2)));
+            program.addInstruction(this.getImmediateOperation(op, this.nextRegister, this.nextRegister - 1, left));
+            this.nextRegister++;
+            return program;
+        }
 
         program.addInstructions(visit(ctx.getChild(0)));
         int leftRegister = this.nextRegister - 1; // stock the value of the left expr
@@ -473,13 +801,76 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
     }
 
     /**
-     * Visit a node that contains the initialization of an array and create the corresponding linear code
+     * Visit a node that contains the initialization of an array and create the corresponding linear code:
+     * the header and the elements are two blocks from *alloc, so that the array can be given back to *free
      * @param ctx the context within the parse tree
      * @return a program containing the linear code
      */
     @Override
     public Program visitTab_initialization(grammarTCLParser.Tab_initializationContext ctx) {
         // '{' (expr (',' expr)*)? '}'
+        /* pseudo-assembler: {expr1, expr2}
+         *   header := *alloc(HEADER_SIZE)
+         *   elements := *alloc(2) // the capacity is the size of the block, 0 without elements (no block)
+         *   header[LENGTH] := 2, header[CAPACITY] := 2, header[DATA] := elements
+         *   elements[0] := visit(expr1)
+         *   elements[1] := visit(expr2)
+         */
+
+        Program program = new Program();
+        int varCount = ctx.expr().size();
+        int capacity = Integer.highestOneBit(varCount); // the size of the block of *alloc, a power of two
+        if (capacity < varCount) capacity <<= 1;
+        int headerRegister = this.nextRegister; // register containing a pointer to the header of the array
+        this.nextRegister++;
+        int pointerRegister = this.nextRegister; // register containing a pointer to the elements (mutable)
+        this.nextRegister++;
+        int valueRegister = this.nextRegister; // register containing a field of the header
+        this.nextRegister++;
+        int addressRegister = this.nextRegister; // register containing the address of a field of the header
+        this.nextRegister++;
+
+        program.addInstructions(this.setRegisterTo(valueRegister, HEADER_SIZE));
+        program.addInstructions(this.stackRegister(valueRegister));
+        program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*alloc"));
+        program.addInstructions(this.unstackRegister(headerRegister)); // headerRegister := *alloc(HEADER_SIZE)
+        if (capacity == 0) {
+            program.addInstruction(new UAL(UAL.Op.XOR, pointerRegister, pointerRegister, pointerRegister)); // no elements
+        }
+        else {
+            program.addInstructions(this.setRegisterTo(valueRegister, capacity));
+            program.addInstructions(this.stackRegister(valueRegister));
+            program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*alloc"));
+            program.addInstructions(this.unstackRegister(pointerRegister)); // pointerRegister := *alloc(capacity)
+        }
+        program.addInstructions(this.setRegisterTo(valueRegister, varCount));
+        program.addInstruction(new Mem(Mem.Op.ST, valueRegister, headerRegister)); // length
+        program.addInstructions(this.setRegisterTo(valueRegister, capacity));
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, CAPACITY));
+        program.addInstruction(new Mem(Mem.Op.ST, valueRegister, addressRegister)); // capacity
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, DATA));
+        program.addInstruction(new Mem(Mem.Op.ST, pointerRegister, addressRegister)); // pointer to the elements
+        program.addInstructions(this.getElementsProgram(ctx, pointerRegister));
+        program.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister, headerRegister, 0)); // nextRegister := headerRegister
+        this.nextRegister++;
+
+        return program;
+    }
+
+    /**
+     * Macro to fill the header and the elements of an array, reserved by the caller in a frame
+     * @param ctx the initialization of the array
+     * @param headerRegister the register containing the address of the header, followed by enough cells for the elements
+     * @param reuse true for an array of the frame that a previous run of its declaration may have grown: the elements go
+     * to the block it grew into, that keeps its capacity, instead of being freed
+     * @return a program containing the linear code, that returns the array in R(nextRegister - 1)
+     */
+    private Program getInitializationProgram(grammarTCLParser.Tab_initializationContext ctx, int headerRegister, boolean reuse) {
+        /* pseudo-assembler: {expr1, expr2}
+         *   header[LENGTH] := 2, header[CAPACITY] := 2, header[DATA] := header + HEADER_SIZE
+         *   header[DATA][0] := visit(expr1) // the elements are reserved before visiting them, as they can be arrays too
+         *   header[DATA][1] := visit(expr2)
+         */
 
         Program program = new Program();
 
@@ -492,33 +883,231 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         int varCount = (childCount == 2) ? 0 : (childCount - 1) / 2;
         int lengthRegister = this.nextRegister; // register containing the length of the array
         this.nextRegister++;
-        int pointerRegister = this.nextRegister; // register containing a pointer to the array (mutable)
+        int pointerRegister = this.nextRegister; // register containing a pointer to the elements (mutable)
         this.nextRegister++;
-        int fixedPointerRegister = this.nextRegister; // register containing a pointer to the array (return value)
+        int addressRegister = this.nextRegister; // register containing the address of a field of the header
         this.nextRegister++;
 
         program.addInstructions(this.setRegisterTo(lengthRegister, varCount)); // lengthRegister := varCount
-        program.addInstruction(new UALi(UALi.Op.ADD, pointerRegister, this.TP, 0)); // pointerRegister := TP
-        program.addInstruction(new UALi(UALi.Op.ADD, fixedPointerRegister, pointerRegister, 0)); // fixedPointerRegister := pointerRegister
-
-        program.addInstruction(new Mem(Mem.Op.ST, lengthRegister, pointerRegister)); // we stack the length of the array
-        program.addInstruction(new UALi(UALi.Op.ADD, pointerRegister, pointerRegister, 1));
-
-        program.addInstruction(new UALi(UALi.Op.ADD, this.TP, this.TP, 12)); // TP now points to the end of the array
-        for (int i = 0; i < varCount; i++) { // for each element in the initialization {}
-            if ((i % 10 == 0) && (i > 0)) { // if we go over the 10th element in the array part
-                program.addInstruction(new Mem(Mem.Op.ST, this.TP, pointerRegister)); // we add the pointer to the rest of the array at the end of the array part
-                program.addInstruction(new UALi(UALi.Op.ADD, pointerRegister, this.TP, 0)); // we move the pointer to the start of the next array part
-                program.addInstruction(new UALi(UALi.Op.ADD, this.TP, this.TP, 11)); // we update the next free space in memory for arrays
-            }
-            Program bracketsContent = visit(ctx.getChild((2 * i) + 1));
-            if (bracketsContent != null) // the content of the brackets can be empty
-                program.addInstructions(bracketsContent); // we get the value in R(nextRegister - 1)
+        if (reuse) {
+            String labelKeep = this.getLabel();
+            program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, DATA));
+            program.addInstruction(new Mem(Mem.Op.LD, pointerRegister, addressRegister)); // the elements of the previous run
+            program.addInstruction(new Mem(Mem.Op.ST, lengthRegister, headerRegister)); // length
+            program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, HEADER_SIZE));
+            program.addInstruction(new CondJump(CondJump.Op.JNEQ, pointerRegister, addressRegister, labelKeep)); // they moved when it grew
+            program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, CAPACITY));
+            program.addInstruction(new Mem(Mem.Op.ST, lengthRegister, addressRegister)); // capacity = length
+            program.addInstruction(this.getLabelInstruction(labelKeep));
+        }
+        else {
+            program.addInstruction(new UALi(UALi.Op.ADD, pointerRegister, headerRegister, HEADER_SIZE)); // the elements follow the header
+            program.addInstruction(new Mem(Mem.Op.ST, lengthRegister, headerRegister)); // length
+            program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, CAPACITY));
+            program.addInstruction(new Mem(Mem.Op.ST, lengthRegister, addressRegister)); // capacity = length
+            program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, DATA));
+            program.addInstruction(new Mem(Mem.Op.ST, pointerRegister, addressRegister)); // pointer to the elements
+        }
+
+        program.addInstructions(this.getElementsProgram(ctx, pointerRegister));
+        program.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister, headerRegister, 0)); // nextRegister := headerRegister
+        this.nextRegister++;
+
+        return program;
+    }
+
+    /**
+     * Macro to store the elements of an array initialization one after the other
+     * @param ctx the initialization of the array
+     * @param pointerRegister the register containing the address of the first element, moved to the end of the elements
+     * @return a program containing the linear code
+     */
+    private Program getElementsProgram(grammarTCLParser.Tab_initializationContext ctx, int pointerRegister) {
+        Program program = new Program();
+        for (grammarTCLParser.ExprContext element : ctx.expr()) { // for each element in the initialization {}
+            program.addInstructions(visit(element)); // we get the value in R(nextRegister - 1)
             program.addInstruction(new Mem(Mem.Op.ST, this.nextRegister - 1, pointerRegister)); // we append it in the array
             program.addInstruction(new UALi(UALi.Op.ADD, pointerRegister, pointerRegister, 1)); // we move the pointer to the next cell
         }
-        program.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister, fixedPointerRegister, 0)); // nextRegister := fixedPointerRegister
+        return program;
+    }
+
+    /**
+     * Macro to give back to *free the block where an array moved its elements when it grew, if it did
+     * @param headerRegister the register containing the address of the header
+     * @return a program containing the linear code
+     */
+    private Program getReleaseProgram(int headerRegister) {
+        Program program = new Program();
+        String labelEnd = this.getLabel();
+        int capacityRegister = this.nextRegister;
         this.nextRegister++;
+        int dataRegister = this.nextRegister;
+        this.nextRegister++;
+        int addressRegister = this.nextRegister;
+        this.nextRegister++;
+
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, DATA));
+        program.addInstruction(new Mem(Mem.Op.LD, dataRegister, addressRegister));
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, HEADER_SIZE));
+        program.addInstruction(new CondJump(CondJump.Op.JEQU, dataRegister, addressRegister, labelEnd)); // the elements never moved
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, headerRegister, CAPACITY));
+        program.addInstruction(new Mem(Mem.Op.LD, capacityRegister, addressRegister));
+        program.addInstructions(this.stackRegister(dataRegister));
+        program.addInstructions(this.stackRegister(capacityRegister));
+        program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*free"));
+        program.addInstruction(this.getLabelInstruction(labelEnd));
+
+        return program;
+    }
+
+    /**
+     * Macro to reserve the frame of a function for its arrays that don't escape (see EscapeAnalysis):
+     * below SP, or in a block from *alloc if the stack allocation is disabled, the function is recursive or FRAME_BUDGET is spent
+     * @param function the Decl_fctContext of the function, or the Core_fctContext of main
+     * @return a program containing the linear code, empty if the function has no such array
+     */
+    private Program getEnterFrameProgram(ParserRuleContext function) {
+        Program program = new Program();
+        this.frameOffsets.clear();
+        this.frameSize = 0;
+        for (grammarTCLParser.DeclarationContext declaration : this.escapeAnalysis.getFrameArrays(function)) {
+            this.frameSize += HEADER_SIZE + ((grammarTCLParser.Tab_initializationContext) declaration.expr()).expr().size();
+        }
+        this.heapFrame = !this.stackAllocation || this.escapeAnalysis.isRecursive(function)
+                || this.stackFrameWords + this.frameSize > FRAME_BUDGET;
+        // no frame, or too big for the size classes of *alloc: the arrays are allocated by visitTab_initialization
+        if (this.frameSize == 0 || (this.heapFrame && this.frameSize > 1 << (SIZE_CLASSES - 1))) return program;
+
+        this.frameRegister = this.nextRegister;
+        this.nextRegister++;
+        int dataRegister = this.nextRegister;
+        this.nextRegister++;
+        int addressRegister = this.nextRegister;
+        this.nextRegister++;
+
+        if (this.heapFrame) {
+            program.addInstructions(this.setRegisterTo(addressRegister, this.frameSize));
+            program.addInstructions(this.stackRegister(addressRegister));
+            program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*alloc"));
+            program.addInstructions(this.unstackRegister(this.frameRegister)); // frameRegister := *alloc(frameSize)
+        }
+        else {
+            program.addInstruction(new UALi(UALi.Op.ADD, this.frameRegister, this.SP, 0)); // frameRegister := SP
+        }
+        int offset = 0;
+        for (grammarTCLParser.DeclarationContext declaration : this.escapeAnalysis.getFrameArrays(function)) {
+            this.frameOffsets.put(declaration, offset);
+            // the elements in the frame until the declaration runs, so that the frame can be released from any return
+            program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, this.frameRegister, offset + DATA));
+            program.addInstruction(new UALi(UALi.Op.ADD, dataRegister, this.frameRegister, offset + HEADER_SIZE));
+            program.addInstruction(new Mem(Mem.Op.ST, dataRegister, addressRegister));
+            offset += HEADER_SIZE + ((grammarTCLParser.Tab_initializationContext) declaration.expr()).expr().size();
+        }
+        if (!this.heapFrame) {
+            program.addInstruction(new UALi(UALi.Op.ADD, this.SP, this.SP, this.frameSize)); // SP := SP + frameSize
+            this.stackFrameWords += this.frameSize;
+        }
+
+        return program;
+    }
+
+    /**
+     * Macro to give a register to each variable of a function that owns its array (see EscapeAnalysis), set to 0 at its entry
+     * @param function the Decl_fctContext of the function, or the Core_fctContext of main
+     * @return a program containing the linear code, empty if the function has no such variable
+     */
+    private Program getEnterOwnersProgram(ParserRuleContext function) {
+        Program program = new Program();
+        this.ownedRegisters.clear();
+        for (grammarTCLParser.DeclarationContext declaration : this.escapeAnalysis.getOwnedArrays(function)) {
+            int register = this.nextRegister;
+            this.nextRegister++;
+            this.ownedRegisters.put(declaration, register);
+            program.addInstruction(new UAL(UAL.Op.XOR, register, register, register)); // no array yet
+        }
+        return program;
+    }
+
+    /**
+     * Macro to give back to *free the array of a variable that owns it: the block of its elements if it has one, then its header
+     * @param register the register of the variable, 0 if it holds no array yet
+     * @return a program containing the linear code
+     */
+    private Program getOwnedReleaseProgram(int register) {
+        /* pseudo-assembler:
+         *   JEQU array 0 end
+         *   JEQU array[CAPACITY] 0 header // no elements
+         *   *free(array[DATA], array[CAPACITY])
+         * header: *free(array, HEADER_SIZE)
+         * end: following code...
+         */
+        Program program = new Program();
+        String labelHeader = this.getLabel();
+        String labelEnd = this.getLabel();
+        int zeroRegister = this.nextRegister;
+        this.nextRegister++;
+        int capacityRegister = this.nextRegister;
+        this.nextRegister++;
+        int dataRegister = this.nextRegister;
+        this.nextRegister++;
+        int addressRegister = this.nextRegister;
+        this.nextRegister++;
+
+        program.addInstruction(new UAL(UAL.Op.XOR, zeroRegister, zeroRegister, zeroRegister));
+        program.addInstruction(new CondJump(CondJump.Op.JEQU, register, zeroRegister, labelEnd));
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, register, CAPACITY));
+        program.addInstruction(new Mem(Mem.Op.LD, capacityRegister, addressRegister));
+        program.addInstruction(new CondJump(CondJump.Op.JEQU, capacityRegister, zeroRegister, labelHeader));
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, register, DATA));
+        program.addInstruction(new Mem(Mem.Op.LD, dataRegister, addressRegister));
+        program.addInstructions(this.stackRegister(dataRegister));
+        program.addInstructions(this.stackRegister(capacityRegister));
+        program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*free"));
+        Program headerProgram = new Program();
+        headerProgram.addInstructions(this.stackRegister(register));
+        headerProgram.addInstructions(this.setRegisterTo(capacityRegister, HEADER_SIZE));
+        headerProgram.addInstructions(this.stackRegister(capacityRegister));
+        headerProgram.addInstruction(new JumpCall(JumpCall.Op.CALL, "*free"));
+        headerProgram.getInstructions().getFirst().setLabel(labelHeader);
+        program.addInstructions(headerProgram);
+        program.addInstruction(this.getLabelInstruction(labelEnd));
+
+        return program;
+    }
+
+    /**
+     * Macro to release the frame of the current function before RET, with the blocks its arrays grew into,
+     * and the arrays of its variables that own one
+     * @param returnedRegister the register of the returned variable, whose array goes to the caller, or -1
+     * @return a program containing the linear code, empty if the function has no frame nor owned array, or is main (the program stops)
+     */
+    private Program getLeaveFrameProgram(int returnedRegister) {
+        Program program = new Program();
+        if (this.currentFunction.equals("*main")) return program;
+
+        for (int register : this.ownedRegisters.values()) {
+            if (register != returnedRegister) program.addInstructions(this.getOwnedReleaseProgram(register));
+        }
+        if (this.frameOffsets.isEmpty()) return program;
+
+        for (int offset : this.frameOffsets.values()) {
+            int headerRegister = this.nextRegister;
+            this.nextRegister++;
+            program.addInstruction(new UALi(UALi.Op.ADD, headerRegister, this.frameRegister, offset));
+            program.addInstructions(this.getReleaseProgram(headerRegister));
+        }
+        if (this.heapFrame) {
+            int sizeRegister = this.nextRegister;
+            this.nextRegister++;
+            program.addInstructions(this.stackRegister(this.frameRegister));
+            program.addInstructions(this.setRegisterTo(sizeRegister, this.frameSize));
+            program.addInstructions(this.stackRegister(sizeRegister));
+            program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*free"));
+        }
+        else {
+            program.addInstruction(new UALi(UALi.Op.ADD, this.SP, this.frameRegister, 0)); // SP := frameRegister
+        }
 
         return program;
     }
@@ -533,6 +1122,22 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         // expr op=(ADD | SUB) expr
 
         Program program = new Program();
+        UALi.Op op = ctx.op.getText().equals("+") ? UALi.Op.ADD : UALi.Op.SUB;
+
+        Integer right = getImmediate(ctx.getChild(2));
+        Integer left = getImmediate(ctx.getChild(0));
+        if (right != null) { // expr op constant
+            program.addInstructions(visit(ctx.getChild(0)));
+            program.addInstruction(new UALi(op, this.nextRegister, this.nextRegister - 1, right));
+            this.nextRegister++;
+            return program;
+        }
+        if (left != null && op == UALi.Op.ADD) { // constant + expr
+            program.addInstructions(visit(ctx.getChild(2)));
+            program.addInstruction(new UALi(op, this.nextRegister, this.nextRegister - 1, left));
+            this.nextRegister++;
+            return program;
+        }
 
         program.addInstructions(visit(ctx.getChild(0)));
         int leftValue = this.nextRegister - 1; // stock the value of the left expr
@@ -585,11 +1190,32 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         int varRegister = this.nextRegister;
         this.nextRegister++;
 
-        if (childCount == 5) { // if the variable is assigned a value
+        if (this.ownedRegisters.containsKey(ctx)) { // a variable that owns its array, in the register set at the entry of the function
+            varRegister = this.ownedRegisters.get(ctx);
+            if (EscapeAnalysis.isInLoop(ctx)) // the array of the previous run is unreachable
+                program.addInstructions(this.getOwnedReleaseProgram(varRegister));
+            if (childCount == 5) {
+                program.addInstructions(visit(ctx.expr()));
+                program.addInstruction(new UALi(UALi.Op.ADD, varRegister, this.nextRegister - 1, 0)); // varRegister := nextRegister - 1
+            }
+            else {
+                program.addInstruction(new UAL(UAL.Op.XOR, varRegister, varRegister, varRegister)); // no array
+            }
+        }
+        else if (this.frameOffsets.containsKey(ctx)) { // an array in the frame of the function
+            int headerRegister = this.nextRegister;
+            this.nextRegister++;
+            program.addInstruction(new UALi(UALi.Op.ADD, headerRegister, this.frameRegister, this.frameOffsets.get(ctx)));
+            program.addInstructions(this.getInitializationProgram((grammarTCLParser.Tab_initializationContext) ctx.expr(), headerRegister,
+                    EscapeAnalysis.isInLoop(ctx)));
+            program.addInstruction(new UALi(UALi.Op.ADD, varRegister, this.nextRegister - 1, 0)); // varRegister := nextRegister - 1
+        }
+        else if (childCount == 5) { // if the variable is assigned a value
             program.addInstructions(visit(ctx.expr()));
             program.addInstruction(new UALi(UALi.Op.ADD, varRegister, this.nextRegister - 1, 0)); // varRegister := nextRegister - 1
         }
         this.varRegisters.assignVar(ctx.VAR().getText(), varRegister); // declare the variable
+        this.arrayDepths.put(varRegister, getArrayDepth(this.types.get(new UnknownType(ctx.VAR()))));
 
         return program;
     }
@@ -604,10 +1230,8 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         // PRINT '(' VAR ')' SEMICOL
 
         Program program = new Program();
-        UnknownType variable = new UnknownType(ctx.VAR());
-        Type varType = this.types.get(variable);
-        int arrayDepth = getArrayDepth(varType);
         int varRegister = this.varRegisters.getVar(ctx.VAR().getText());
+        int arrayDepth = this.arrayDepths.getOrDefault(varRegister, 0);
 
         if (arrayDepth == 0) { // primitive type
             program.addInstruction(new IO(IO.Op.PRINT, varRegister));
@@ -640,11 +1264,9 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         Program program = new Program();
         int varRegister = this.varRegisters.getVar(ctx.VAR().getText());
         int bracketsCount = (ctx.getChildCount() - 4) / 3;
-        int arrayDepth = getArrayDepth(this.types.get(new UnknownType(ctx.VAR())));
+        int arrayDepth = this.arrayDepths.getOrDefault(varRegister, 0);
         int leftRegister = this.nextRegister;
         this.nextRegister++;
-        int depthRegister = this.nextRegister;
-        this.nextRegister++;
 
         program.addInstructions(visit(ctx.getChild(ctx.getChildCount() - 2))); // expr result returned in R(nextRegister - 1)
         int rightRegister = this.nextRegister - 1;
@@ -656,16 +1278,16 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
                 program.addInstruction(new Mem(Mem.Op.LD, leftRegister, leftRegister));
             program.addInstructions(visit(ctx.getChild(child))); // element pointer returned in R(nextRegister - 1)
             int indexRegister = this.nextRegister - 1;
-            program.addInstructions(this.stackRegister(leftRegister)); // we stack the arguments
-            program.addInstructions(this.stackRegister(indexRegister));
-            program.addInstructions(this.setRegisterTo(depthRegister, arrayDepth));
-            program.addInstructions(this.stackRegister(depthRegister));
-            program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*tab_access")); // we call the tab_access function
-            program.addInstructions(this.unstackRegister(leftRegister)); // we get the result
+            if (i == 0 && this.uncheckedAccesses.contains(ctx)) // pointer to the cell
+                program.addInstructions(this.getUncheckedCellAddress(leftRegister, indexRegister, leftRegister));
+            else
+                program.addInstructions(this.getCellAddress(leftRegister, indexRegister, arrayDepth, leftRegister));
             arrayDepth--; // the content of the array has less depth
         }
 
         if (bracketsCount == 0) { // if it's not a pointer, we store the value in the register
+            if (this.ownedRegisters.containsValue(varRegister)) // the array the variable owned is unreachable
+                program.addInstructions(this.getOwnedReleaseProgram(varRegister));
             program.addInstruction(new UALi(UALi.Op.ADD, varRegister, rightRegister, 0));
         } else { // if it's a pointer, we store the value in memory
             program.addInstruction(new Mem(Mem.Op.ST, rightRegister, leftRegister));
@@ -695,6 +1317,105 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         return program;
     }
 
+    /**
+     * Macro to compile a condition directly into jumps, without computing its 0/1 value:
+     * comparisons become a single conditional jump, AND and OR are evaluated with short-circuit jumps
+     * @param expr the condition
+     * @param jumpIf the value of the condition for which we jump (true or false)
+     * @param target the label we jump to, otherwise the execution falls through to the following code
+     * @return a program containing the linear code
+     */
+    private Program getBranchProgram(ParseTree expr, boolean jumpIf, String target) {
+        Program program = new Program();
+        Long value = getConstant(expr);
+        if (value != null) { // the jump is always or never taken
+            if ((value != 0) == jumpIf) program.addInstruction(new JumpCall(JumpCall.Op.JMP, target));
+            return program;
+        }
+
+        if (expr instanceof grammarTCLParser.BracketsContext ctx) {
+            return this.getBranchProgram(ctx.expr(), jumpIf, target);
+        } else if (expr instanceof grammarTCLParser.NegationContext ctx) {
+            return this.getBranchProgram(ctx.expr(), !jumpIf, target);
+        } else if (this.shortCircuit && (expr instanceof grammarTCLParser.AndContext || expr instanceof grammarTCLParser.OrContext)) {
+            /* pseudo-assembler: jump to target if expr1 && expr2
+             *   jump to skip if !expr1
+             *   jump to target if expr2
+             * skip: following code...
+             * (jump if false: both jumps go to target, and the same with OR when jumping if true)
+             */
+            boolean isAnd = expr instanceof grammarTCLParser.AndContext;
+            ParseTree left = expr.getChild(0);
+            ParseTree right = expr.getChild(2);
+            if (isAnd != jumpIf) { // && jumping if false, || jumping if true: the left expr alone can decide
+                program.addInstructions(this.getBranchProgram(left, jumpIf, target));
+                program.addInstructions(this.getBranchProgram(right, jumpIf, target));
+                return program;
+            }
+            String labelSkip = this.getLabel();
+            program.addInstructions(this.getBranchProgram(left, !jumpIf, labelSkip));
+            program.addInstructions(this.getBranchProgram(right, jumpIf, target));
+            program.addInstruction(this.getLabelInstruction(labelSkip)); // skip label
+            return program;
+        }
+
+        CondJump.Op op = null;
+        if (expr instanceof grammarTCLParser.ComparisonContext ctx) {
+            op = switch (ctx.op.getText()) {
+                case ">" -> jumpIf ? CondJump.Op.JSUP : CondJump.Op.JIEQ;
+                case "<" -> jumpIf ? CondJump.Op.JINF : CondJump.Op.JSEQ;
+                case ">=" -> jumpIf ? CondJump.Op.JSEQ : CondJump.Op.JINF;
+                default -> jumpIf ? CondJump.Op.JIEQ : CondJump.Op.JSUP;
+            };
+        } else if (expr instanceof grammarTCLParser.EqualityContext ctx) {
+            op = ctx.op.getText().equals("==") == jumpIf ? CondJump.Op.JEQU : CondJump.Op.JNEQ;
+        }
+        if (op != null) { // R1 := visit(expr1), R2 := visit(expr2), jump on the test
+            program.addInstructions(visit(expr.getChild(0)));
+            int leftValue = this.nextRegister - 1;
+            program.addInstructions(visit(expr.getChild(2)));
+            int rightValue = this.nextRegister - 1;
+            program.addInstruction(new CondJump(op, leftValue, rightValue, target));
+            return program;
+        }
+
+        // any other boolean (variable, call, array cell): compare its value with 0
+        program.addInstructions(visit(expr));
+        program.addInstruction(new UAL(UAL.Op.XOR, this.nextRegister, this.nextRegister, this.nextRegister));
+        this.nextRegister++;
+        program.addInstruction(new CondJump(jumpIf ? CondJump.Op.JNEQ : CondJump.Op.JEQU, this.nextRegister - 2, this.nextRegister - 1, target));
+        return program;
+    }
+
+    /**
+     * Macro to compute the 0/1 value of a condition with the jumps of getBranchProgram
+     * @param expr the condition
+     * @return a program containing the linear code, the value is in R(nextRegister-1)
+     */
+    private Program getBooleanProgram(ParseTree expr) {
+        /* pseudo-assembler:
+         *   XOR R1 R1 R1
+         *   jump to end if !expr
+         *   ADDi R1 R1 1
+         * end: ADDi R2 R1 0
+         */
+        Program program = new Program();
+        String labelEnd = this.getLabel();
+        int returnRegister = this.nextRegister;
+        this.nextRegister++;
+
+        program.addInstruction(new UAL(UAL.Op.XOR, returnRegister, returnRegister, returnRegister)); // false by default
+        program.addInstructions(this.getBranchProgram(expr, false, labelEnd));
+        program.addInstruction(new UALi(UALi.Op.ADD, returnRegister, returnRegister, 1)); // true
+
+        Program endProgram = new Program();
+        endProgram.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister, returnRegister, 0)); // stock the value in R(nextRegister-1)
+        this.nextRegister++;
+        endProgram.getInstructions().getFirst().setLabel(labelEnd);
+        program.addInstructions(endProgram);
+        return program;
+    }
+
     /**
      * Visit a node that contains an if structure and create the corresponding linear code
      * @param ctx the context within the parse tree
@@ -704,41 +1425,45 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
     public Program visitIf(grammarTCLParser.IfContext ctx) {
         // IF '(' expr ')' instr (ELSE instr)?
         /* pseudo-assembler: if (cond) { instr1 } else { instr2 }
-         *   R0 := visit(cond)
-         *   XOR R1 R1 R1
-         *   JEQU R0 R1 if
-         *   instr2 // only if there is an else
-         *   JMP end
-         * if: instr1
+         *   jump to else if !cond
+         *   instr1
+         *   JMP end // only if there is an else
+         * else: instr2
          * end: following code...
          */
 
+        Long condition = getConstant(ctx.getChild(2));
+        if (condition != null) { // the condition is known at compile time, only the branch that will be taken is compiled
+            Program program = new Program();
+            ParseTree taken = (condition != 0) ? ctx.getChild(4) : (ctx.getChildCount() == 7) ? ctx.getChild(6) : null;
+            if (taken != null) {
+                this.varRegisters.enterBlock(); // {
+                program.addInstructions(visit(taken));
+                this.varRegisters.leaveBlock(); // }
+            }
+            return program;
+        }
+
         Program program = new Program();
-        String labelIf = this.getLabel();
+        String labelElse = this.getLabel();
         String labelEnd = this.getLabel();
+        boolean hasElse = ctx.getChildCount() == 7;
 
-        program.addInstructions(visit(ctx.getChild(2))); // if condition
-        program.addInstruction(new UAL(UAL.Op.XOR, this.nextRegister, this.nextRegister, this.nextRegister)); // set new register to 0 for later test
-        this.nextRegister++;
-        program.addInstruction(new CondJump(CondJump.Op.JNEQ, this.nextRegister-2, this.nextRegister-1, labelIf)); // test if condition is true (!=0) => jump if
-        if (ctx.getChildCount() == 7) { // if there is an else
+        program.addInstructions(this.getBranchProgram(ctx.getChild(2), false, hasElse ? labelElse : labelEnd)); // if condition
+        this.varRegisters.enterBlock(); // {
+        program.addInstructions(visit(ctx.getChild(4))); // if instructions
+        this.varRegisters.leaveBlock(); // }
+        if (hasElse) {
+            program.addInstruction(new JumpCall(JumpCall.Op.JMP, labelEnd)); // JMP end
+            Program elseInstrProgram = new Program();
             this.varRegisters.enterBlock(); // {
-            program.addInstructions(visit(ctx.getChild(6))); // else instructions
+            elseInstrProgram.addInstructions(visit(ctx.getChild(6))); // else instructions
             this.varRegisters.leaveBlock(); // }
+            this.setFirstLabel(elseInstrProgram, labelElse);
+            program.addInstructions(elseInstrProgram);
         }
-        program.addInstruction(new JumpCall(JumpCall.Op.JMP, labelEnd)); // JMP end
 
-        Program ifInstrProgram = new Program();
-        this.varRegisters.enterBlock(); // {
-        ifInstrProgram.addInstructions(visit(ctx.getChild(4))); // if instructions
-        this.varRegisters.leaveBlock(); // }
-        ifInstrProgram.getInstructions().getFirst().setLabel(labelIf);
-        program.addInstructions(ifInstrProgram);
-
-        Program endIfProgram = new Program();
-        endIfProgram.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister-1, this.nextRegister-1, 0)); // dummy instruction to set end if label
-        endIfProgram.getInstructions().getFirst().setLabel(labelEnd);
-        program.addInstructions(endIfProgram);
+        program.addInstruction(this.getLabelInstruction(labelEnd)); // end if label
         return program;
     }
 
@@ -751,35 +1476,39 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
     public Program visitWhile(grammarTCLParser.WhileContext ctx) {
         // WHILE '(' expr ')' instr
         /* pseudo-assembler: while (i<10) { instr }
-         * loop: R1 := visit(cond)
-         *   XOR R2 R2 R2
-         *   JEQU R1 R2 end_loop
+         * loop: jump to end_loop if !cond
          *   instr
          *   JMP loop
          * end_loop: following code...
          */
 
+        Long condition = getConstant(ctx.getChild(2));
+        if (condition != null && condition == 0) // the loop is never entered
+            return new Program();
+
         Program program = new Program();
         String labelStartLoop = this.getLabel();
         String labelEndLoop = this.getLabel();
 
-        Program condLoopProgram = visit(ctx.getChild(2)); // loop condition
-        int condReturnRegister = this.nextRegister - 1; // return value of the condition
-        condLoopProgram.getInstructions().getFirst().setLabel(labelStartLoop); // set looping label
-        program.addInstructions(condLoopProgram);
+        if (condition != null) { // infinite loop, left by a return: no test
+            this.varRegisters.enterBlock(); // start of the loop {
+            Program bodyProgram = visit(ctx.getChild(4)); // instructions inside the loop
+            this.varRegisters.leaveBlock(); // } end of the loop
+            this.setFirstLabel(bodyProgram, labelStartLoop);
+            program.addInstructions(bodyProgram);
+            program.addInstruction(new JumpCall(JumpCall.Op.JMP, labelStartLoop)); // go back to the start of the loop
+            return program;
+        }
 
-        program.addInstruction(new UAL(UAL.Op.XOR, this.nextRegister, this.nextRegister, this.nextRegister)); // set new register to 0 for later test
-        this.nextRegister++;
-        program.addInstruction(new CondJump(CondJump.Op.JEQU, condReturnRegister, this.nextRegister-1, labelEndLoop)); // test if condition is false => stop looping
+        Program condLoopProgram = this.getBranchProgram(ctx.getChild(2), false, labelEndLoop); // loop condition, stop looping if false
+        this.setFirstLabel(condLoopProgram, labelStartLoop); // set looping label
+        program.addInstructions(condLoopProgram);
         this.varRegisters.enterBlock(); // start of the loop {
         program.addInstructions(visit(ctx.getChild(4))); // instructions inside the loop
         this.varRegisters.leaveBlock(); // } end of the loop
         program.addInstruction(new JumpCall(JumpCall.Op.JMP, labelStartLoop)); // go back to the start of the loop
 
-        Program endLoopProgram = new Program();
-        endLoopProgram.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister-1, this.nextRegister-1, 0)); // dummy instruction to set end loop label
-        endLoopProgram.getInstructions().getFirst().setLabel(labelEndLoop);
-        program.addInstructions(endLoopProgram);
+        program.addInstruction(this.getLabelInstruction(labelEndLoop)); // end loop label
 
         return program;
     }
@@ -794,13 +1523,19 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         // FOR '(' instr  expr ';' instr ')' instr
         /* pseudo-assembler: for (int i = 0; i < 10; i++;) { instr }
          *   ST R0 1
-         * loop: R1 := visit(cond)
-         *   XOR R2 R2 R2
-         *   JEQU R1 R2 end_loop
+         * loop: jump to end_loop if !cond
          *   instr
          *   ADDi R0 R0 1
          *   JMP loop
          * end_loop: following code...
+         *
+         * when LoopBoundsAnalysis finds accesses a[i] in range if n <= length(a), with n the bound of i < n:
+         *   R1 := n
+         *   LD R2 a
+         *   JSUP R1 R2 checked_loop // for each array a
+         * loop: the loop with the accesses a[i] compiled without bounds checks
+         * checked_loop: the loop as above
+         * end_loop: following code...
          */
 
         Program program = new Program();
@@ -810,26 +1545,61 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         this.varRegisters.enterBlock(); // needed because a FOR structure can declare variables locally (for (int i = 0;...)
         program.addInstructions(visit(ctx.getChild(2))); // initialization
 
-        Program condLoopProgram = visit(ctx.getChild(3)); // loop condition
-        int condReturnRegister = this.nextRegister - 1; // return value of the condition
-        condLoopProgram.getInstructions().getFirst().setLabel(labelStartLoop); // set looping label
-        program.addInstructions(condLoopProgram);
+        Long condition = getConstant(ctx.getChild(3));
+        if (condition != null && condition == 0) { // the loop is never entered
+            this.varRegisters.leaveBlock();
+            return program;
+        }
+        if (condition != null) { // infinite loop, left by a return: no test
+            this.varRegisters.enterBlock(); // start of the loop {
+            Program bodyProgram = visit(ctx.getChild(7)); // instructions inside the loop
+            this.varRegisters.leaveBlock(); // } end of the loop
+            bodyProgram.addInstructions(visit(ctx.getChild(5))); // iteration
+            this.setFirstLabel(bodyProgram, labelStartLoop);
+            program.addInstructions(bodyProgram);
+            program.addInstruction(new JumpCall(JumpCall.Op.JMP, labelStartLoop)); // go back to the start of the loop
+            this.varRegisters.leaveBlock();
+            return program;
+        }
 
-        program.addInstruction(new UAL(UAL.Op.XOR, this.nextRegister, this.nextRegister, this.nextRegister)); // set new register to 0 for later test
-        this.nextRegister++;
-        program.addInstruction(new CondJump(CondJump.Op.JEQU, condReturnRegister, this.nextRegister-1, labelEndLoop)); // test if condition is false => stop looping
+        LoopBoundsAnalysis bounds = this.boundsCheckElimination ? new LoopBoundsAnalysis(ctx) : null;
+        if (bounds != null && !bounds.getAccesses().isEmpty()) {
+            String labelCheckedLoop = this.getLabel();
+            program.addInstructions(visit(bounds.getBound()));
+            int boundRegister = this.nextRegister - 1;
+            for (String array : bounds.getAccesses().keySet()) { // the bound must not be greater than the length of each array
+                program.addInstruction(new Mem(Mem.Op.LD, this.nextRegister, this.varRegisters.getVar(array)));
+                program.addInstruction(new CondJump(CondJump.Op.JSUP, boundRegister, this.nextRegister, labelCheckedLoop));
+                this.nextRegister++;
+                this.uncheckedAccesses.addAll(bounds.getAccesses().get(array));
+            }
+            program.addInstructions(this.getLoopProgram(ctx, labelStartLoop, labelEndLoop));
+            this.uncheckedAccesses.clear();
+            labelStartLoop = labelCheckedLoop;
+        }
+        program.addInstructions(this.getLoopProgram(ctx, labelStartLoop, labelEndLoop));
+
+        program.addInstruction(this.getLabelInstruction(labelEndLoop)); // end loop label
+        this.varRegisters.leaveBlock();
+
+        return program;
+    }
+
+    /**
+     * Macro to create the test, the body and the iteration of a for loop, looping back to the test
+     * @param ctx the context of the for loop
+     * @param labelStartLoop the label of the test
+     * @param labelEndLoop the label where the loop ends
+     * @return a program containing the linear code
+     */
+    private Program getLoopProgram(grammarTCLParser.ForContext ctx, String labelStartLoop, String labelEndLoop) {
+        Program program = this.getBranchProgram(ctx.getChild(3), false, labelEndLoop); // loop condition, stop looping if false
+        this.setFirstLabel(program, labelStartLoop); // set looping label
         this.varRegisters.enterBlock(); // start of the loop {
         program.addInstructions(visit(ctx.getChild(7))); // instructions inside the loop
         this.varRegisters.leaveBlock(); // } end of the loop
         program.addInstructions(visit(ctx.getChild(5))); // iteration
         program.addInstruction(new JumpCall(JumpCall.Op.JMP, labelStartLoop)); // go back to the start of the loop
-
-        Program endLoopProgram = new Program();
-        endLoopProgram.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister-1, this.nextRegister-1, 0)); // dummy instruction to set end loop label
-        endLoopProgram.getInstructions().getFirst().setLabel(labelEndLoop);
-        program.addInstructions(endLoopProgram);
-        this.varRegisters.leaveBlock();
-
         return program;
     }
 
@@ -842,15 +1612,7 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
     public Program visitReturn(grammarTCLParser.ReturnContext ctx) {
         // RETURN expr SEMICOL
 
-        Program program = new Program();
-        String functionName = this.currentFunction;
-        int returnRegister = this.returnRegisters.getVar(functionName);
-
-        program.addInstructions(visit(ctx.expr())); // expr, return value will be in R(nextRegister-1)
-        program.addInstruction(new UALi(UALi.Op.ADD, returnRegister, this.nextRegister-1, 0)); // we return the value in the correct register
-        program.addInstruction(new Ret()); // return;
-
-        return program;
+        return this.getReturnProgram(ctx.expr());
     }
 
     /**
@@ -864,19 +1626,73 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
 
         Program program = new Program();
         int nbInstructions = ctx.getChildCount() - 5;
-        String functionName = this.currentFunction;
-        int returnRegister = this.returnRegisters.getVar(functionName);
 
         for (int i = 0; i < nbInstructions; i++) { // instr*
             program.addInstructions(visit(ctx.getChild(i + 1)));
         }
-        program.addInstructions(visit(ctx.expr())); // expr, return value will be in R(nextRegister-1)
+        program.addInstructions(this.getReturnProgram(ctx.expr())); // RETURN expr
+
+        return program;
+    }
+
+    /**
+     * Macro to return the value of an expression from the current function.
+     * If the expression is a call to the current function itself (a tail call), its arguments are moved
+     * into the parameter registers and the execution jumps back to the entry of the function: no CALL, RET or saved register,
+     * and the stack doesn't grow with the recursion
+     * @param expr the returned expression
+     * @return a program containing the linear code
+     */
+    private Program getReturnProgram(grammarTCLParser.ExprContext expr) {
+        Program program = new Program();
+        int returnRegister = this.returnRegisters.getVar(this.currentFunction);
+
+        grammarTCLParser.ExprContext returned = expr;
+        while (returned instanceof grammarTCLParser.BracketsContext brackets) returned = brackets.expr();
+        if (this.tailCalls && returned instanceof grammarTCLParser.CallContext call && call.VAR().getText().equals(this.currentFunction)
+                && !this.usesFrameArray(call)) {
+            List<Integer> parameters = this.parameterRegisters.get(this.currentFunction);
+            ArrayList<Integer> arguments = new ArrayList<>();
+            for (grammarTCLParser.ExprContext argument : call.expr()) {
+                program.addInstructions(visit(argument));
+                arguments.addLast(this.nextRegister - 1); // every argument is computed before the parameters change
+            }
+            program.addInstructions(this.getLeaveFrameProgram(-1)); // the frame is reserved again at the entry
+            for (int i = 0; i < arguments.size(); i++) {
+                program.addInstruction(new UALi(UALi.Op.ADD, parameters.get(i), arguments.get(i), 0));
+            }
+            program.addInstruction(new JumpCall(JumpCall.Op.JMP, this.currentFunction)); // the callee returns directly to our caller
+            return program;
+        }
+
+        program.addInstructions(visit(expr)); // expr, return value will be in R(nextRegister-1)
         program.addInstruction(new UALi(UALi.Op.ADD, returnRegister, this.nextRegister-1, 0)); // we return the value in the correct register
+        program.addInstructions(this.getLeaveFrameProgram(returned instanceof grammarTCLParser.VariableContext variable
+                ? this.varRegisters.getVar(variable.VAR().getText()) : -1));
         program.addInstruction(new Ret()); // return;
 
         return program;
     }
 
+    /**
+     * Tells if a tail call passes an array of the frame or an owned array, which are released before the jump (reading their cells is fine)
+     */
+    private boolean usesFrameArray(ParseTree tree) {
+        if (tree instanceof grammarTCLParser.VariableContext variable
+                && !(variable.getParent() instanceof grammarTCLParser.Tab_accessContext access && access.expr(0) == variable)) {
+            for (grammarTCLParser.DeclarationContext declaration : this.frameOffsets.keySet()) {
+                if (declaration.VAR().getText().equals(variable.getText())) return true;
+            }
+            for (grammarTCLParser.DeclarationContext declaration : this.ownedRegisters.keySet()) {
+                if (declaration.VAR().getText().equals(variable.getText())) return true;
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (this.usesFrameArray(tree.getChild(i))) return true;
+        }
+        return false;
+    }
+
     /**
      * Visit a node that declare a function and create the corresponding linear code
      * @param ctx the context within the parse tree
@@ -895,11 +1711,21 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         this.currentFunction = functionName;
         this.returnRegisters.assignVar(functionName, this.nextRegister); // set the register were the return value will be stocked
         nextRegister++;
-        for (int i = nbArguments - 1; i >= 0; i--) { // the arguments are stacked before the call so we un-stack them, in reverse order
-            program.addInstructions(this.unstackRegister(this.nextRegister));
+        this.returnDepths.put(functionName, getArrayDepth(this.types.get(new UnknownType(ctx.VAR(0)))));
+        List<Integer> parameters = new ArrayList<>();
+        for (int i = 0; i < nbArguments; i++) { // the caller moves the arguments in these registers
+            parameters.add(this.nextRegister);
+            this.nextRegister++;
+        }
+        for (int i = 0; i < nbArguments; i++) { // the variables are copies, so that a call never needs the parameters back (see CallerSaves)
+            program.addInstruction(new UALi(UALi.Op.ADD, this.nextRegister, parameters.get(i), 0));
+            this.varRegisters.assignVar(ctx.getChild((3 * i) + 4).getText(), this.nextRegister); // arguments counts as new definitions of variables
+            this.arrayDepths.put(this.nextRegister, getArrayDepth(this.types.get(new UnknownType(ctx.getChild((3 * i) + 4)))));
             this.nextRegister++;
-            this.varRegisters.assignVar(ctx.getChild((3 * i) + 4).getText(), this.nextRegister-1); // arguments counts as new definitions of variables
         }
+        this.parameterRegisters.put(functionName, parameters);
+        program.addInstructions(this.getEnterFrameProgram(ctx)); // arrays that don't escape
+        program.addInstructions(this.getEnterOwnersProgram(ctx)); // arrays that are released when their variable changes
         program.addInstructions(visit(ctx.core_fct())); // core_fct
         program.getInstructions().getFirst().setLabel(ctx.getChild(1).toString()); // function label
         this.varRegisters.leaveFunction();
@@ -918,13 +1744,17 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
 
         Program program = new Program();
         int childCount = ctx.getChildCount();
+        this.escapeAnalysis = new EscapeAnalysis(ctx, this.types, this.tailCalls);
 
         program.addInstructions(this.setRegisterTo(SP, 0)); // initialize SP
-        program.addInstructions(this.setRegisterTo(TP, 4096)); // initialize TP, arbitrarily chose 4096 as stack height
+        program.addInstructions(this.setRegisterTo(TP, FREE_LISTS + SIZE_CLASSES)); // initialize TP, arbitrarily chose 4096 as stack height
+        program.addInstructions(this.getClearFreeListsProgram()); // memory isn't initialized, the free lists start empty
         program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*main")); // call main
         program.addInstruction(new Stop()); // STOP
         program.addInstructions(this.getPrintProgram()); // a callable assembler function for printing arrays (used in visitPrint)
         program.addInstructions(this.getTabAccessProgram());
+        program.addInstructions(this.getAllocProgram()); // called by *tab_access when an array grows
+        program.addInstructions(this.getFreeProgram());
 
         for (int i = 0; i < childCount - 3; i++) { // decl_fct*
             program.addInstructions(visit(ctx.getChild(i)));
@@ -934,10 +1764,19 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         this.currentFunction = "*main";
         this.returnRegisters.assignVar(this.currentFunction, this.nextRegister); // set the register were the return value will be stocked
         nextRegister++;
-        Program mainCoreProgram = visit(ctx.core_fct()); // core_fct
+        Program mainCoreProgram = this.getEnterFrameProgram(ctx.core_fct()); // arrays that don't escape
+        mainCoreProgram.addInstructions(this.getEnterOwnersProgram(ctx.core_fct())); // arrays that are released when their variable changes
+        mainCoreProgram.addInstructions(visit(ctx.core_fct())); // core_fct
         mainCoreProgram.getInstructions().getFirst().setLabel("*main"); // main label
         program.addInstructions(mainCoreProgram);
         this.varRegisters.leaveFunction();
+        Map<String, List<Integer>> callRegisters = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> parameters : this.parameterRegisters.entrySet()) {
+            List<Integer> registers = new ArrayList<>(parameters.getValue());
+            registers.add(this.returnRegisters.getVar(parameters.getKey()));
+            callRegisters.put(parameters.getKey(), registers);
+        }
+        program.setCallRegisters(callRegisters); // the registers live across the calls are saved after the optimizations
 
         return program;
     }
@@ -954,7 +1793,7 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         final int SPACE = 32;
 
         int[] r = new int[12];
-        for (int i = 0; i < 12; i++) {
+        for (int i = 0; i < 12; i++) { // r[6], r[7] and r[10] are unused since the elements are contiguous
             r[i] = this.nextRegister;
             this.nextRegister++;
         }
@@ -965,6 +1804,8 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         program.addInstruction(new UALi(UALi.Op.SUB, this.SP, this.SP, 1));
         program.addInstruction(new Mem(Mem.Op.LD, r[2], this.SP));
         program.addInstruction(new Mem(Mem.Op.LD, r[3], r[2]));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[2], r[2], DATA));
+        program.addInstruction(new Mem(Mem.Op.LD, r[2], r[2]));
         program.addInstruction(new UAL(UAL.Op.XOR, r[4], r[4], r[4]));
         program.addInstruction(new UALi(UALi.Op.ADD, r[4], r[4], SQUARE_BRACKET_OPEN));
         program.addInstruction(new IO(IO.Op.OUT, r[4]));
@@ -972,17 +1813,10 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         program.addInstruction(new UALi(UALi.Op.ADD, r[4], r[4], SPACE));
         program.addInstruction(new IO(IO.Op.OUT, r[4]));
         program.addInstruction(new UAL(UAL.Op.XOR, r[5], r[5], r[5]));
-        program.addInstruction(new UALi(UALi.Op.ADD, r[2], r[2], 1));
         program.addInstruction(new UALi(UALi.Op.ADD, this.SP, this.SP, 2));
 
         program.addInstruction(new CondJump("*loop_start", CondJump.Op.JEQU, r[5], r[3], "*loop_end"));
-        program.addInstruction(new UAL(UAL.Op.XOR, r[6], r[6], r[6]));
-        program.addInstruction(new UALi(UALi.Op.MOD, r[7], r[5], 10));
-        program.addInstruction(new CondJump(CondJump.Op.JNEQ, r[7], r[6], "*skip_tab_end"));
-        program.addInstruction(new CondJump(CondJump.Op.JEQU, r[5], r[6], "*skip_tab_end"));
-        program.addInstruction(new Mem(Mem.Op.LD, r[2], r[2]));
-
-        program.addInstruction(new UAL("*skip_tab_end", UAL.Op.XOR, r[9], r[9], r[9]));
+        program.addInstruction(new UAL(UAL.Op.XOR, r[9], r[9], r[9]));
         program.addInstruction(new UALi(UALi.Op.ADD, r[9], r[9], 1));
         program.addInstruction(new CondJump(CondJump.Op.JEQU, r[1], r[9], "*print_elem"));
         program.addInstructions(this.stackRegister(r[5]));
@@ -1024,14 +1858,17 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
     }
 
     /**
-     * Creates the linear code of an assembler function that access an element of an array
+     * Creates the linear code of an assembler function that access an element of an array, in constant time if the index is below
+     * the length; otherwise the array grows up to the index (the elements are moved to a block twice bigger when the capacity is reached,
+     * the old block is freed unless it was allocated with the header by an initialization) and the new cells are set to 0,
+     * or to empty arrays if the depth is more than 1
      * @return the corresponding linear code
      */
     private Program getTabAccessProgram() {
         Program program = new Program();
 
-        int[] r = new int[10];
-        for (int i = 0; i < 10; i++) {
+        int[] r = new int[12];
+        for (int i = 0; i < 12; i++) {
             r[i] = this.nextRegister;
             this.nextRegister++;
         }
@@ -1042,51 +1879,176 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         program.addInstructions(this.unstackRegister(r[1]));
         program.addInstructions(this.unstackRegister(r[2]));
         program.addInstruction(new Mem(Mem.Op.LD, r[3], r[2]));
-        program.addInstruction(new UALi(UALi.Op.ADD, r[4], r[3], 0));
-        program.addInstruction(new CondJump(CondJump.Op.JINF, r[1], r[3], "*skip_resize"));
-        program.addInstruction(new UALi(UALi.Op.ADD, r[4], r[1], 1));
-
-        program.addInstruction(new Mem("*skip_resize", Mem.Op.ST, r[4], r[2]));
-        program.addInstruction(new UALi(UALi.Op.ADD, r[2], r[2], 1));
-        program.addInstruction(new UAL(UAL.Op.XOR, r[5], r[5], r[5]));
+        program.addInstruction(new CondJump(CondJump.Op.JINF, r[1], r[3], "*tab_access_found"));
+
+        program.addInstruction(new UALi(UALi.Op.ADD, r[7], r[2], CAPACITY));
+        program.addInstruction(new Mem(Mem.Op.LD, r[4], r[7]));
+        program.addInstruction(new CondJump(CondJump.Op.JINF, r[1], r[4], "*tab_access_fill"));
+        program.addInstruction(new UAL(UAL.Op.ADD, r[5], r[4], r[4]));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[6], r[1], 1));
+        program.addInstruction(new CondJump(CondJump.Op.JSEQ, r[5], r[6], "*skip_capacity"));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[5], r[6], 0));
+        program.addInstruction(new UAL("*skip_capacity", UAL.Op.XOR, r[10], r[10], r[10]));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[10], r[10], 1));
+        program.addInstruction(new CondJump("*round_capacity", CondJump.Op.JSEQ, r[10], r[5], "*capacity_rounded"));
+        program.addInstruction(new UALi(UALi.Op.SL, r[10], r[10], 1));
+        program.addInstruction(new JumpCall(JumpCall.Op.JMP, "*round_capacity"));
+        program.addInstruction(new Mem("*capacity_rounded", Mem.Op.ST, r[10], r[7]));
+        program.addInstructions(this.stackRegister(r[10]));
+        program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*alloc"));
+        program.addInstructions(this.unstackRegister(r[9]));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[7], r[2], DATA));
+        program.addInstruction(new Mem(Mem.Op.LD, r[8], r[7]));
+        program.addInstruction(new Mem(Mem.Op.ST, r[9], r[7]));
         program.addInstruction(new UAL(UAL.Op.XOR, r[6], r[6], r[6]));
+
+        program.addInstruction(new CondJump("*copy_loop", CondJump.Op.JEQU, r[6], r[3], "*copy_end"));
+        program.addInstruction(new UAL(UAL.Op.ADD, r[10], r[8], r[6]));
+        program.addInstruction(new Mem(Mem.Op.LD, r[10], r[10]));
+        program.addInstruction(new UAL(UAL.Op.ADD, r[11], r[9], r[6]));
+        program.addInstruction(new Mem(Mem.Op.ST, r[10], r[11]));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[6], r[6], 1));
+        program.addInstruction(new JumpCall(JumpCall.Op.JMP, "*copy_loop"));
+
+        program.addInstruction(new UAL("*copy_end", UAL.Op.XOR, r[6], r[6], r[6]));
+        program.addInstruction(new CondJump(CondJump.Op.JEQU, r[4], r[6], "*tab_access_fill"));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[10], r[2], HEADER_SIZE));
+        program.addInstruction(new CondJump(CondJump.Op.JEQU, r[8], r[10], "*tab_access_fill"));
+        program.addInstructions(this.stackRegister(r[8]));
+        program.addInstructions(this.stackRegister(r[4]));
+        program.addInstruction(new JumpCall(JumpCall.Op.CALL, "*free"));
+
+        program.addInstruction(new UALi("*tab_access_fill", UALi.Op.ADD, r[7], r[2], DATA));
+        program.addInstruction(new Mem(Mem.Op.LD, r[8], r[7]));
         program.addInstruction(new UAL(UAL.Op.XOR, r[9], r[9], r[9]));
-        program.addInstruction(new UALi(UALi.Op.ADD, r[9], r[9], 1));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[10], r[9], 1));
+
+        program.addInstruction(new CondJump("*fill_loop", CondJump.Op.JSUP, r[3], r[1], "*fill_end"));
+        program.addInstruction(new UAL(UAL.Op.ADD, r[11], r[8], r[3]));
+        program.addInstruction(new CondJump(CondJump.Op.JSUP, r[0], r[10], "*fill_array"));
+        program.addInstruction(new Mem(Mem.Op.ST, r[9], r[11]));
+        program.addInstruction(new JumpCall(JumpCall.Op.JMP, "*fill_next"));
+
+        program.addInstruction(new Mem("*fill_array", Mem.Op.ST, this.TP, r[11]));
+        program.addInstruction(new Mem(Mem.Op.ST, r[9], this.TP));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[11], this.TP, CAPACITY));
+        program.addInstruction(new Mem(Mem.Op.ST, r[9], r[11]));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[11], this.TP, DATA));
+        program.addInstruction(new UALi(UALi.Op.ADD, this.TP, this.TP, HEADER_SIZE));
+        program.addInstruction(new Mem(Mem.Op.ST, this.TP, r[11]));
+
+        program.addInstruction(new UALi("*fill_next", UALi.Op.ADD, r[3], r[3], 1));
+        program.addInstruction(new JumpCall(JumpCall.Op.JMP, "*fill_loop"));
+
+        program.addInstruction(new Mem("*fill_end", Mem.Op.ST, r[3], r[2]));
+
+        program.addInstruction(new UALi("*tab_access_found", UALi.Op.ADD, r[7], r[2], DATA));
+        program.addInstruction(new Mem(Mem.Op.LD, r[8], r[7]));
+        program.addInstruction(new UAL(UAL.Op.ADD, r[8], r[8], r[1]));
+        program.addInstructions(this.stackRegister(r[8]));
+        program.addInstruction(new Ret());
 
-        program.addInstruction(new UALi("*begin_loop", UALi.Op.MOD, r[7], r[5], 10));
-        program.addInstruction(new CondJump(CondJump.Op.JNEQ, r[7], r[6], "*skip_tab_access_end"));
-        program.addInstruction(new CondJump(CondJump.Op.JEQU, r[5], r[6], "*skip_tab_access_end"));
-        program.addInstruction(new CondJump(CondJump.Op.JIEQ, r[5], r[3], "*skip_alloc"));
-        program.addInstruction(new Mem(Mem.Op.ST, this.TP, r[2]));
-        program.addInstruction(new UALi(UALi.Op.ADD, this.TP, this.TP, 11));
+        return program;
+    }
 
-        program.addInstruction(new Mem("*skip_alloc", Mem.Op.LD, r[2], r[2]));
+    /**
+     * Creates the linear code that empties the free lists of *alloc, at the start of the program
+     * @return the corresponding linear code
+     */
+    private Program getClearFreeListsProgram() {
+        Program program = new Program();
+        int addressRegister = this.nextRegister;
+        this.nextRegister++;
+        int endRegister = this.nextRegister;
+        this.nextRegister++;
+        int zeroRegister = this.nextRegister;
+        this.nextRegister++;
 
-        program.addInstruction(new CondJump("*skip_tab_access_end", CondJump.Op.JINF, r[5], r[3], "*skip_fill"));
-        program.addInstruction(new CondJump(CondJump.Op.JNEQ, r[0], r[9], "*skip_simple_init"));
-        program.addInstruction(new Mem(Mem.Op.ST, r[6], r[2]));
-        program.addInstruction(new JumpCall(JumpCall.Op.JMP, "*skip_fill"));
+        program.addInstructions(this.setRegisterTo(addressRegister, FREE_LISTS));
+        program.addInstruction(new UALi(UALi.Op.ADD, endRegister, addressRegister, SIZE_CLASSES));
+        program.addInstruction(new UAL(UAL.Op.XOR, zeroRegister, zeroRegister, zeroRegister));
+        program.addInstruction(new Mem("*clear_free_lists", Mem.Op.ST, zeroRegister, addressRegister));
+        program.addInstruction(new UALi(UALi.Op.ADD, addressRegister, addressRegister, 1));
+        program.addInstruction(new CondJump(CondJump.Op.JINF, addressRegister, endRegister, "*clear_free_lists"));
+        return program;
+    }
 
-        program.addInstruction(new UALi("*skip_simple_init", UALi.Op.ADD, r[8], r[2], 0));
-        program.addInstruction(new Mem(Mem.Op.ST, this.TP, r[2]));
-        program.addInstruction(new UALi(UALi.Op.ADD, this.TP, this.TP, 12));
-        program.addInstruction(new Mem(Mem.Op.LD, r[2], r[2]));
-        program.addInstruction(new Mem(Mem.Op.ST, r[6], r[2]));
-        program.addInstruction(new UALi(UALi.Op.ADD, r[2], r[8], 0));
+    /**
+     * Creates the linear code of an assembler function that allocates a block of cells for the elements of an array:
+     * the size is rounded up to a power of two 2^k, the block is taken from the free list k, or at TP if this list is empty
+     * @return the corresponding linear code
+     */
+    private Program getAllocProgram() {
+        Program program = new Program();
 
-        program.addInstruction(new CondJump("*skip_fill", CondJump.Op.JNEQ, r[5], r[1], "*skip_return"));
-        program.addInstructions(this.stackRegister(r[2]));
+        int[] r = new int[6];
+        for (int i = 0; i < 6; i++) {
+            r[i] = this.nextRegister;
+            this.nextRegister++;
+        }
+
+        // inserting code from compilation/CodeGen/alloc.asm
+        program.addInstructions(this.unstackRegister(r[0]));
+        program.getInstructions().getFirst().setLabel("*alloc");
+        program.addInstruction(new UAL(UAL.Op.XOR, r[1], r[1], r[1]));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[2], r[1], 1));
+        program.addInstruction(new CondJump("*alloc_class", CondJump.Op.JSEQ, r[2], r[0], "*alloc_class_found"));
+        program.addInstruction(new UALi(UALi.Op.SL, r[2], r[2], 1));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[1], r[1], 1));
+        program.addInstruction(new JumpCall(JumpCall.Op.JMP, "*alloc_class"));
+
+        program.addInstruction(new UALi("*alloc_class_found", UALi.Op.ADD, r[3], r[1], FREE_LISTS));
+        program.addInstruction(new Mem(Mem.Op.LD, r[4], r[3]));
+        program.addInstruction(new UAL(UAL.Op.XOR, r[5], r[5], r[5]));
+        program.addInstruction(new CondJump(CondJump.Op.JEQU, r[4], r[5], "*alloc_bump"));
+        program.addInstruction(new Mem(Mem.Op.LD, r[5], r[4]));
+        program.addInstruction(new Mem(Mem.Op.ST, r[5], r[3]));
+        program.addInstructions(this.stackRegister(r[4]));
         program.addInstruction(new Ret());
 
-        program.addInstruction(new UALi("*skip_return", UALi.Op.ADD, r[2], r[2], 1));
-        program.addInstruction(new UALi(UALi.Op.ADD, r[5], r[5], 1));
-        program.addInstruction(new JumpCall(JumpCall.Op.JMP, "*begin_loop"));
+        program.addInstruction(new UALi("*alloc_bump", UALi.Op.ADD, r[4], this.TP, 0));
+        program.addInstruction(new UAL(UAL.Op.ADD, this.TP, this.TP, r[2]));
+        program.addInstructions(this.stackRegister(r[4]));
+        program.addInstruction(new Ret());
+
+        return program;
+    }
+
+    /**
+     * Creates the linear code of an assembler function that gives back a block allocated by *alloc (its first cell links the free list)
+     * @return the corresponding linear code
+     */
+    private Program getFreeProgram() {
+        Program program = new Program();
+
+        int[] r = new int[5];
+        for (int i = 0; i < 5; i++) {
+            r[i] = this.nextRegister;
+            this.nextRegister++;
+        }
+
+        // inserting code from compilation/CodeGen/alloc.asm
+        program.addInstructions(this.unstackRegister(r[0]));
+        program.getInstructions().getFirst().setLabel("*free");
+        program.addInstructions(this.unstackRegister(r[1]));
+        program.addInstruction(new UAL(UAL.Op.XOR, r[2], r[2], r[2]));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[3], r[2], 1));
+        program.addInstruction(new CondJump("*free_class", CondJump.Op.JSEQ, r[3], r[0], "*free_class_found"));
+        program.addInstruction(new UALi(UALi.Op.SL, r[3], r[3], 1));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[2], r[2], 1));
+        program.addInstruction(new JumpCall(JumpCall.Op.JMP, "*free_class"));
+
+        program.addInstruction(new UALi("*free_class_found", UALi.Op.ADD, r[3], r[2], FREE_LISTS));
+        program.addInstruction(new Mem(Mem.Op.LD, r[4], r[3]));
+        program.addInstruction(new Mem(Mem.Op.ST, r[4], r[1]));
+        program.addInstruction(new Mem(Mem.Op.ST, r[1], r[3]));
+        program.addInstruction(new Ret());
 
         return program;
     }
 
     /**
-     * Creates the linear code of an assembler function that dumps the memory (excluding the stack), for debugging purposes
+     * Creates the linear code of an assembler function that dumps the memory used by the arrays (from 4096 to TP, free lists included), for debugging purposes
      * @return the corresponding linear code
      */
     private Program getDumpMemory() {
@@ -1106,7 +2068,7 @@ public class CodeGenerator extends AbstractParseTreeVisitor<Program> implements
         program.getInstructions().getFirst().setLabel("*dump_memory");
         program.addInstructions(this.setRegisterTo(r[1], SPACE));
         program.addInstructions(this.setRegisterTo(r[2], NEW_LINE));
-        program.addInstructions(this.setRegisterTo(r[3], 4500));
+        program.addInstruction(new UALi(UALi.Op.ADD, r[3], this.TP, 0));
 
         program.addInstruction(new CondJump("*debut_jump", CondJump.Op.JEQU, r[0], r[3], "*fin_dump"));
         program.addInstruction(new Mem(Mem.Op.LD, r[4], r[0]));
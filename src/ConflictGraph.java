@@ -1,172 +1,235 @@
 package src;
 
-import src.Graph.UnorientedGraph;
+import src.Graph.InterferenceGraph;
 import src.Asm.Program;
-import src.Asm.Ret;
-import src.Asm.Stop;
-import src.Asm.UAL;
-import src.Asm.UALi;
 import src.Asm.CondJump;
-import src.Asm.IO;
 import src.Asm.Instruction;
 import src.Asm.JumpCall;
-import src.Asm.Mem;
-import java.util.Set;
+import src.Asm.UALi;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+
+public class ConflictGraph extends InterferenceGraph implements RegisterAllocation {
+    /**
+     * Nombre de registres physiques utilisables par l'allocation (R0 à R29, R30 et R31 servent aux registres en mémoire)
+     */
+    public static final int REGISTER_COUNT = 30;
+    /**
+     * Registres réservés qui ne sont pas alloués : le pointeur de pile et le pointeur des tableaux
+     */
+    public static final int RESERVED_REGISTERS = 2;
 
-public class ConflictGraph extends UnorientedGraph<String> {
-    private Map<Instruction, Set<String>> in;
-    private Map<Instruction, Set<String>> out;
+    private ControlGraph controlGraph;
+    private Liveness liveness;
+    private ArrayList<int[]> moves;
+    private double[] spillCosts;
 
     /**
-     * Constructeur
+     * Constructeur, les sommets sont les identifiants denses des registres dans le graphe de contrôle
      * @param controlGraph
      * @param program
      */
     public ConflictGraph(ControlGraph controlGraph, Program program) {
-        super();
-        this.in = new HashMap<>();
-        this.out = new HashMap<>();
-        computeLiveness(controlGraph, program);
+        super(controlGraph.getRegisterCount());
+        this.controlGraph = controlGraph;
+        this.liveness = new Liveness(controlGraph);
+        this.moves = new ArrayList<>();
+        this.spillCosts = new double[controlGraph.getRegisterCount()];
         buildConflictGraph(controlGraph, program);
-        }
+    }
 
-        private void computeLiveness(ControlGraph controlGraph, Program program) {
-        boolean changed;
-        do {
-            changed = false;
-            for (Instruction instruction : controlGraph.getAllVertices(program)) {
-            Set<String> oldIn = in.getOrDefault(instruction, new HashSet<>());
-            Set<String> oldOut = out.getOrDefault(instruction, new HashSet<>());
-
-            Set<String> newIn = new HashSet<>(oldOut);
-            newIn.addAll(getDef(instruction)); // Garde les variables définies par l'instruction
-            newIn.addAll(getUse(instruction));
-
-            Set<String> newOut = new HashSet<>();
-            for (Instruction succ : controlGraph.getOutNeighbors(instruction)) {
-                newOut.addAll(in.getOrDefault(succ, new HashSet<>()));
-            }
+    /**
+     * Construit le graphe de conflit : une variable définie par une instruction est en conflit avec toutes les variables
+     * vivantes en sortie de cette instruction, sauf avec la source d'une copie (ADDi Rx Ry 0), qui est seulement notée
+     * comme candidate à la fusion. Un CALL définit tous les registres que la fonction appelée peut modifier.
+     * Calcule aussi le coût de mise en mémoire de chaque variable, pondéré par la profondeur de boucle.
+     * @param controlGraph
+     * @param program
+     */
+    private void buildConflictGraph(ControlGraph controlGraph, Program program) {
+        int[] loopDepth = getLoopDepths(program);
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            long[] live = liveness.getBlockOut(block.getId()).clone();
+            for (int i = block.getInstructions().size() - 1; i >= 0; i--) {
+                Instruction instruction = block.getInstructions().get(i);
+                double weight = Math.pow(10, loopDepth[block.getStart() + i]);
+                int[] defs = Liveness.getDef(instruction);
+                int[] uses = Liveness.getUse(instruction);
 
-            if (!newIn.equals(oldIn) || !newOut.equals(oldOut)) {
-                in.put(instruction, newIn);
-                out.put(instruction, newOut);
-                changed = true;
-            }
-            }
-        } while (changed);
-        }
+                long[] callDefs = controlGraph.getCallDefs(instruction);
+                if (callDefs != null) {
+                    for (int id1 = Liveness.nextBit(callDefs, 0); id1 >= 0; id1 = Liveness.nextBit(callDefs, id1 + 1)) {
+                        for (int id2 = Liveness.nextBit(live, 0); id2 >= 0; id2 = Liveness.nextBit(live, id2 + 1)) {
+                            if (!Liveness.contains(callDefs, id2)) {
+                                addConflict(id1, id2);
+                            }
+                        }
+                    }
+                }
 
-        /**
-         * Construit le graphe de conflit à partir du graphe de contrôle et du programme
-         * @param controlGraph
-         * @param program
-         */
-        private void buildConflictGraph(ControlGraph controlGraph, Program program) {
-        for (Instruction instruction : controlGraph.getAllVertices(program)) {
-            Set<String> live = new HashSet<>(in.getOrDefault(instruction, new HashSet<>()));
-            live.addAll(out.getOrDefault(instruction, new HashSet<>()));
-
-            for (String var1 : live) {
-                for (String var2 : live) {
-                    if (!var1.equals(var2)) {
-                        this.addEdge(var1, var2);
+                int copySource = -1;
+                if (isCopy(instruction)) {
+                    copySource = controlGraph.getRegisterId(((UALi) instruction).getSr());
+                    moves.add(new int[] { controlGraph.getRegisterId(defs[0]), copySource });
+                }
+                for (int def : defs) {
+                    int defId = controlGraph.getRegisterId(def);
+                    addRegister(defId, weight);
+                    for (int id = Liveness.nextBit(live, 0); id >= 0; id = Liveness.nextBit(live, id + 1)) {
+                        if (id != copySource) {
+                            addConflict(defId, id);
+                        }
                     }
                 }
+                for (int use : uses) {
+                    addRegister(controlGraph.getRegisterId(use), weight);
+                }
+                liveness.transfer(instruction, live);
             }
         }
     }
 
     /**
-     * Retourne les variables utilisées par une instruction
+     * Ajoute un registre au graphe et augmente son coût de mise en mémoire
+     * @param id identifiant dense du registre
+     * @param weight coût d'un accès à cet endroit du programme
+     */
+    private void addRegister(int id, double weight) {
+        if (controlGraph.getRegister(id) < RESERVED_REGISTERS) return;
+        this.addVertex(id);
+        this.spillCosts[id] += weight;
+    }
+
+    private void addConflict(int id1, int id2) {
+        if (controlGraph.getRegister(id1) < RESERVED_REGISTERS || controlGraph.getRegister(id2) < RESERVED_REGISTERS) return;
+        this.addEdge(id1, id2);
+    }
+
+    /**
+     * Teste si une instruction est une copie d'un registre dans un autre
      * @param instruction
-     * @return
+     * @return boolean
      */
-    private Set<String> getUse(Instruction instruction) {
-        Set<String> use = new HashSet<>();
-        if (instruction instanceof IO){
-            IO ioInstr = (IO) instruction;
-            use.add("R" + ioInstr.getReg());
-            return use;
-        } else if (instruction instanceof UAL){
-            UAL ualInstr = (UAL) instruction;
-            use.add("R" + ualInstr.getSr1());
-            use.add("R" + ualInstr.getSr2());
-            return use;
-        } else if (instruction instanceof UALi) {
-            UALi ualiInstr = (UALi) instruction;
-            use.add("R" + ualiInstr.getSr());
-            return use;
-        } else if (instruction instanceof Mem) {
-            Mem memInstr = (Mem) instruction;
-            String op = memInstr.getName();
-            if (op.equals("LD")) { 
-                use.add("R" + memInstr.getAddress());
-            } else if (op.equals("ST")) { 
-                use.add("R" + memInstr.getDest());
-                use.add("R" + memInstr.getAddress());
+    public static boolean isCopy(Instruction instruction) {
+        return instruction instanceof UALi uali && uali.getName().equals("ADD") && uali.getImm() == 0
+                && uali.getDest() != uali.getSr()
+                && uali.getDest() >= RESERVED_REGISTERS && uali.getSr() >= RESERVED_REGISTERS;
+    }
+
+    /**
+     * Calcule la profondeur de boucle de chaque instruction : une boucle est l'intervalle entre un label
+     * et un saut vers ce label placé plus loin dans le programme
+     * @param program
+     * @return int[] profondeur de boucle de chaque instruction
+     */
+    private static int[] getLoopDepths(Program program) {
+        ArrayList<Instruction> instructions = program.getInstructions();
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!instructions.get(i).getLabel().isEmpty()) {
+                labels.put(instructions.get(i).getLabel(), i);
+            }
+        }
+        int[] delta = new int[instructions.size() + 1];
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            String target = null;
+            if (instruction instanceof CondJump condJump) {
+                target = condJump.getAddress();
+            } else if (instruction instanceof JumpCall jumpCall && jumpCall.getName().equals("JMP")) {
+                target = jumpCall.getAddress();
+            }
+            Integer start = target == null ? null : labels.get(target);
+            if (start != null && start <= i) {
+                delta[start]++;
+                delta[i + 1]--;
             }
-            return use;
-        } else if (instruction instanceof CondJump){
-            CondJump condJump = (CondJump) instruction;
-            use.add("R" + condJump.getSr1());
-            use.add("R" + condJump.getSr2());
-            return use;
-        } else if ((instruction instanceof Ret) || (instruction instanceof Stop) || (instruction instanceof JumpCall)){
-            return use;
-        }     
-        return use;
-    }    
+        }
+        int[] depths = new int[instructions.size()];
+        int depth = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            depth += delta[i];
+            depths[i] = depth;
+        }
+        return depths;
+    }
+
+    /**
+     * Getter des copies candidates à la fusion
+     * @return ArrayList<int[]> couples (destination, source) d'identifiants denses
+     */
+    public ArrayList<int[]> getMoves() {
+        return moves;
+    }
+
+    /**
+     * Getter du coût de mise en mémoire d'une variable
+     * @param u identifiant dense de la variable
+     * @return double somme des accès à la variable, pondérés par 10^profondeur de boucle
+     */
+    public double getSpillCost(int u) {
+        return spillCosts[u];
+    }
+
+    /**
+     * Getter du registre correspondant à un sommet
+     * @param u identifiant dense
+     * @return String le registre sous la forme "R"+n
+     */
+    public String getRegister(int u) {
+        return "R" + controlGraph.getRegister(u);
+    }
+
+    /**
+     * Retourne la couleur d'un registre
+     * @param register registre sous la forme "R"+n
+     * @return int couleur, -1 si le registre n'est pas dans le graphe
+     */
+    @Override
+    public int getColor(String register) {
+        int id = controlGraph.getRegisterId(Integer.parseInt(register.substring(1)));
+        return id < 0 ? -1 : getColor(id);
+    }
+
+    /**
+     * Alloue les registres avec l'algorithme de Chaitin-Briggs (voir RegisterAllocator).
+     * Les couleurs 2 à 29 sont des registres physiques, les couleurs à partir de 30 des emplacements mémoire.
+     * @return int nombre de couleurs utilisées
+     */
+    @Override
+    public int color() {
+        return new RegisterAllocator(this, REGISTER_COUNT - RESERVED_REGISTERS).allocate();
+    }
 
     /**
-     * Retourne les variables définies par une instruction
+     * Retourne les variables vivantes en entrée d'une instruction
      * @param instruction
      * @return
      */
-    private Set<String> getDef(Instruction instruction) {
-        Set<String> def = new HashSet<>();
-        if (instruction instanceof IO){
-            IO ioInstr = (IO) instruction;
-            def.add("R" + ioInstr.getReg());
-            return def;
-        } else if (instruction instanceof UAL){
-            UAL ualInstr = (UAL) instruction;
-            def.add("R" + ualInstr.getDest());
-            return def;
-        } else if (instruction instanceof UALi) {
-            UALi ualiInstr = (UALi) instruction;
-            def.add("R" + ualiInstr.getDest());
-            return def;
-        } else if (instruction instanceof Mem) {
-            Mem memInstr = (Mem) instruction;
-            String op = memInstr.getName();
-            if (op.equals("LD")) { 
-                def.add("R" + memInstr.getDest());
-            }
-            return def;
-        } else if (instruction instanceof CondJump){
-            CondJump condJump = (CondJump) instruction;
-            def.add("R" + condJump.getSr1());
-            def.add("R" + condJump.getSr2());
-            return def;
-        } else
-        if (instruction instanceof Ret) {
-            return def;
-        }    
-        return def;
-    }    
+    public Set<String> getIn(Instruction instruction) {
+        return liveness.getIn(instruction);
+    }
+
+    /**
+     * Retourne les variables vivantes en sortie d'une instruction
+     * @param instruction
+     * @return
+     */
+    public Set<String> getOut(Instruction instruction) {
+        return liveness.getOut(instruction);
+    }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (String u : this.vertices) {
-            sb.append(u).append(" -> ");
-            for (String v : this.adjList.get(u)) {
-                sb.append(v).append(", ");
+        for (int u : this.getVertices()) {
+            sb.append(getRegister(u)).append(" -> ");
+            for (int i = 0; i < getDegree(u); i++) {
+                sb.append(getRegister(getNeighbor(u, i))).append(", ");
             }
-            if (this.adjList.get(u).size() > 0) {
+            if (getDegree(u) > 0) {
                 sb.setLength(sb.length() - 2);
             }
             sb.append("\n");
@@ -174,4 +237,3 @@ public class ConflictGraph extends UnorientedGraph<String> {
         return sb.toString();
     }
 }
-
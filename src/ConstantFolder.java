@@ -0,0 +1,253 @@
+package src;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * A class that finds the integer and boolean expressions of a valid TCL program tree whose value is known at compile time,
+ * used like this: folder.visit(tree), then new CodeGenerator(types, folder).
+ * A variable is constant when it is declared with a constant initializer and never assigned afterwards;
+ * the walk over the tree only resolves each variable to its declaration, with the same scopes as CodeGenerator,
+ * and the values are computed on demand by getValue.
+ */
+public class ConstantFolder extends grammarTCLBaseVisitor<Void> {
+    /**
+     * A stack of maps that links each variable with the node that declares it (a declaration, or a function for its arguments)
+     */
+    private final VarStack<String, ParserRuleContext> declarations;
+    /**
+     * The declaration of each variable read in an expression
+     */
+    private final Map<grammarTCLParser.VariableContext, ParserRuleContext> resolved;
+    /**
+     * The declarations of the variables that are assigned after being declared
+     */
+    private final Set<ParserRuleContext> assigned;
+    /**
+     * The value of each expression already evaluated, NOT_CONSTANT if it is only known at run time
+     */
+    private final Map<ParseTree, Long> values;
+
+    private static final Long NOT_CONSTANT = Long.MIN_VALUE;
+
+    /**
+     * Constructor
+     */
+    public ConstantFolder() {
+        this.declarations = new VarStack<>();
+        this.resolved = new IdentityHashMap<>();
+        this.assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.values = new IdentityHashMap<>();
+    }
+
+    /**
+     * Returns the value of an expression if it is known at compile time
+     * @param expr an expression of the visited tree
+     * @return the value (0 or 1 for a boolean), null if it is only known at run time or does not fit in an immediate
+     */
+    public Long getValue(ParseTree expr) {
+        Long value = values.get(expr);
+        if (value == null) {
+            value = evaluate(expr);
+            if (value == null || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) value = NOT_CONSTANT;
+            values.put(expr, value);
+        }
+        return value.equals(NOT_CONSTANT) ? null : value;
+    }
+
+    /**
+     * Computes the value of an expression, with the semantics of the generated code (floored division and modulo)
+     * @param expr the expression
+     * @return the value, null if it is not constant
+     */
+    private Long evaluate(ParseTree expr) {
+        try {
+            if (expr instanceof grammarTCLParser.BracketsContext ctx) {
+                return getValue(ctx.expr());
+            } else if (expr instanceof grammarTCLParser.IntegerContext ctx) {
+                return Long.parseLong(ctx.INT().getText());
+            } else if (expr instanceof grammarTCLParser.BooleanContext ctx) {
+                return ctx.BOOL().getText().equals("true") ? 1L : 0L;
+            } else if (expr instanceof grammarTCLParser.VariableContext ctx) {
+                ParserRuleContext declaration = this.resolved.get(ctx);
+                if (declaration instanceof grammarTCLParser.DeclarationContext decl && decl.expr() != null && !this.assigned.contains(decl))
+                    return getValue(decl.expr());
+                return null;
+            } else if (expr instanceof grammarTCLParser.OppositeContext ctx) {
+                Long value = getValue(ctx.expr());
+                return value == null ? null : Math.negateExact(value);
+            } else if (expr instanceof grammarTCLParser.NegationContext ctx) {
+                Long value = getValue(ctx.expr());
+                return value == null ? null : value ^ 1;
+            } else if (expr instanceof grammarTCLParser.MultiplicationContext ctx) {
+                Long left = getValue(ctx.expr(0));
+                Long right = getValue(ctx.expr(1));
+                if (left == null || right == null) return null;
+                return switch (ctx.op.getText()) {
+                    case "*" -> Math.multiplyExact(left, right);
+                    case "/" -> right == 0 ? null : Math.floorDiv(left, right); // the division by zero is left to run time
+                    default -> right == 0 ? null : Math.floorMod(left, right);
+                };
+            } else if (expr instanceof grammarTCLParser.AdditionContext ctx) {
+                Long left = getValue(ctx.expr(0));
+                Long right = getValue(ctx.expr(1));
+                if (left == null || right == null) return null;
+                return ctx.op.getText().equals("+") ? Math.addExact(left, right) : Math.subtractExact(left, right);
+            } else if (expr instanceof grammarTCLParser.ComparisonContext ctx) {
+                Long left = getValue(ctx.expr(0));
+                Long right = getValue(ctx.expr(1));
+                if (left == null || right == null) return null;
+                boolean result = switch (ctx.op.getText()) {
+                    case ">" -> left > right;
+                    case "<" -> left < right;
+                    case ">=" -> left >= right;
+                    default -> left <= right;
+                };
+                return result ? 1L : 0L;
+            } else if (expr instanceof grammarTCLParser.EqualityContext ctx) {
+                Long left = getValue(ctx.expr(0));
+                Long right = getValue(ctx.expr(1));
+                if (left == null || right == null) return null;
+                return left.equals(right) == ctx.op.getText().equals("==") ? 1L : 0L;
+            } else if (expr instanceof grammarTCLParser.AndContext ctx) {
+                return evaluateLogical(ctx.expr(0), ctx.expr(1), 0L);
+            } else if (expr instanceof grammarTCLParser.OrContext ctx) {
+                return evaluateLogical(ctx.expr(0), ctx.expr(1), 1L);
+            }
+        }
+        catch (ArithmeticException e) { // overflow, computed at run time
+            return null;
+        }
+        return null; // calls, arrays
+    }
+
+    /**
+     * Computes the value of an AND (absorbing value 0) or an OR (absorbing value 1):
+     * an absorbing constant on one side gives the result if the other side can be skipped
+     */
+    private Long evaluateLogical(ParseTree leftExpr, ParseTree rightExpr, long absorbing) {
+        Long left = getValue(leftExpr);
+        Long right = getValue(rightExpr);
+        if (left != null && right != null) return absorbing == 0 ? left & right : left | right;
+        if (left != null && left == absorbing && isPure(rightExpr)) return absorbing;
+        if (right != null && right == absorbing && isPure(leftExpr)) return absorbing;
+        return null;
+    }
+
+    /**
+     * Tells if an expression can be left out of the generated code: no function call, no array allocation,
+     * no array access (a read past the end grows the array) and no division that could fail
+     * @param tree the expression
+     * @return true if evaluating the expression has no visible effect
+     */
+    public boolean isPure(ParseTree tree) {
+        if (tree instanceof grammarTCLParser.CallContext || tree instanceof grammarTCLParser.Tab_initializationContext
+                || tree instanceof grammarTCLParser.Tab_accessContext) return false;
+        if (tree instanceof grammarTCLParser.MultiplicationContext ctx && !ctx.op.getText().equals("*")) {
+            Long divisor = getValue(ctx.expr(1));
+            if (divisor == null || divisor == 0) return false;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (!isPure(tree.getChild(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Void visitVariable(grammarTCLParser.VariableContext ctx) {
+        // VAR
+        this.resolved.put(ctx, this.declarations.getVar(ctx.VAR().getText()));
+        return null;
+    }
+
+    @Override
+    public Void visitDeclaration(grammarTCLParser.DeclarationContext ctx) {
+        // type VAR (ASSIGN expr)? SEMICOL
+        if (ctx.expr() != null) visit(ctx.expr()); // the initializer can't see the variable it declares
+        this.declarations.assignVar(ctx.VAR().getText(), ctx);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignment(grammarTCLParser.AssignmentContext ctx) {
+        // VAR ('[' expr ']')* ASSIGN expr SEMICOL
+        if (ctx.expr().size() == 1) { // writing in an array cell doesn't change the variable
+            this.assigned.add(this.declarations.getVar(ctx.VAR().getText()));
+        }
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitBlock(grammarTCLParser.BlockContext ctx) {
+        // '{' instr+ '}'
+        this.declarations.enterBlock();
+        visitChildren(ctx);
+        this.declarations.leaveBlock();
+        return null;
+    }
+
+    @Override
+    public Void visitIf(grammarTCLParser.IfContext ctx) {
+        // IF '(' expr ')' instr (ELSE instr)?
+        visit(ctx.expr());
+        for (grammarTCLParser.InstrContext instr : ctx.instr()) {
+            this.declarations.enterBlock();
+            visit(instr);
+            this.declarations.leaveBlock();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(grammarTCLParser.WhileContext ctx) {
+        // WHILE '(' expr ')' instr
+        visit(ctx.expr());
+        this.declarations.enterBlock();
+        visit(ctx.instr());
+        this.declarations.leaveBlock();
+        return null;
+    }
+
+    @Override
+    public Void visitFor(grammarTCLParser.ForContext ctx) {
+        // FOR '(' instr  expr ';' instr ')' instr
+        this.declarations.enterBlock();
+        visit(ctx.instr(0)); // initialization
+        visit(ctx.expr());
+        this.declarations.enterBlock();
+        visit(ctx.instr(2)); // instructions inside the loop
+        this.declarations.leaveBlock();
+        visit(ctx.instr(1)); // iteration
+        this.declarations.leaveBlock();
+        return null;
+    }
+
+    @Override
+    public Void visitDecl_fct(grammarTCLParser.Decl_fctContext ctx) {
+        // type VAR '(' (type VAR (',' type VAR)*)? ')' core_fct
+        this.declarations.enterFunction();
+        for (int i = 1; i < ctx.VAR().size(); i++) { // the arguments are only known at run time
+            this.declarations.assignVar(ctx.VAR(i).getText(), ctx);
+        }
+        visit(ctx.core_fct());
+        this.declarations.leaveFunction();
+        return null;
+    }
+
+    @Override
+    public Void visitMain(grammarTCLParser.MainContext ctx) {
+        // decl_fct* 'int main()' core_fct EOF
+        for (grammarTCLParser.Decl_fctContext function : ctx.decl_fct()) {
+            visit(function);
+        }
+        this.declarations.enterFunction();
+        visit(ctx.core_fct());
+        this.declarations.leaveFunction();
+        return null;
+    }
+}
@@ -1,150 +1,377 @@
 package src;
 
-import src.Graph.OrientedGraph;
 import src.Asm.Program;
 import src.Asm.CondJump;
 import src.Asm.Instruction;
 import src.Asm.JumpCall;
 import src.Asm.Ret;
 import src.Asm.Stop;
-import src.Asm.Mem;
-import src.Asm.UAL;
-import src.Asm.UALi;
-import src.Asm.IO;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Stack;
 
-public class ControlGraph extends OrientedGraph<Instruction> {
-    private Map<String, Instruction> labelMap;
+public class ControlGraph {
+    private HashMap<String, Integer> labels;
+    private ArrayList<Instruction> instructions;
+    private IdentityHashMap<Instruction, Integer> indexes;
+    private ArrayList<BasicBlock> blocks;
+    private int[] blockOf;
+    private int[] registerIds;
+    private int[] registers;
+    private HashMap<String, long[]> clobbers;
+    private HashMap<String, long[]> callDefs;
+    private HashMap<String, ArrayList<Integer>> functions;
 
     /**
      * Constructeur
      * @param program le programme à partir duquel construire le graphe de contrôle
      */
     public ControlGraph(Program program) {
-        super();
-        this.labelMap = new HashMap<>();
-        buildControlGraph(program);
+        this.instructions = program.getInstructions();
+        this.indexes = new IdentityHashMap<>(instructions.size() * 2);
+        for (int i = 0; i < instructions.size(); i++) {
+            indexes.put(instructions.get(i), i);
+        }
+        buildBlocks();
+        numberRegisters();
+        buildSummaries();
+        buildCallSummaries(program.getCallRegisters());
     }
 
     /**
-     * Construit le graphe de contrôle à partir d'un programme
-     * @param program le programme à partir duquel construire le graphe de contrôle
+     * Découpe le programme en blocs de base et relie les blocs, directement sur la liste d'instructions.
+     * Un bloc commence à la première instruction, à une instruction qui a un label (les cibles des sauts en ont toutes un),
+     * ou à une instruction qui suit un saut, un appel, un retour ou un arrêt.
+     * Le graphe est intraprocédural : un CALL continue à l'instruction suivante, où reviendra la fonction appelée,
+     * et son effet est résumé par les registres que la fonction appelée peut modifier (voir getCallDefs).
+     * RET et STOP n'ont pas de successeur.
      */
-    private void buildControlGraph(Program program) {
-        Instruction prevInstruction = null;
-        for (Instruction instruction : program.getInstructions()) {
-            int index = program.getInstructions().indexOf(instruction);
-            this.addVertex(instruction);
+    private void buildBlocks() {
+        int size = instructions.size();
+        this.labels = new HashMap<>();
+        boolean[] leader = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            Instruction instruction = instructions.get(i);
             if (!instruction.getLabel().isEmpty()) {
-                labelMap.put(instruction.getLabel(), instruction);
-            }else{
-                labelMap.put(Integer.toString(index), instruction);
+                labels.put(instruction.getLabel(), i);
+                leader[i] = true;
             }
-            if (instruction instanceof Mem || instruction instanceof UAL || instruction instanceof UALi || instruction instanceof IO) {
-                labelMap.put(Integer.toString(index), instruction);
+            if (i == 0) leader[i] = true;
+            if (instruction instanceof CondJump || instruction instanceof JumpCall
+                    || instruction instanceof Ret || instruction instanceof Stop) {
+                if (i + 1 < size) leader[i + 1] = true;
             }
-            if (prevInstruction != null && !(prevInstruction instanceof Stop)
-                    && !(prevInstruction instanceof JumpCall) // Changement ici
-                    && !(prevInstruction instanceof Ret)) {
-                this.addEdge(prevInstruction, instruction);
-                    }
+        }
 
-            if (!(instruction instanceof Stop)) {
-                prevInstruction = instruction;
-            } else {
-                prevInstruction = null;
+        this.blocks = new ArrayList<>();
+        this.blockOf = new int[size];
+        int start = 0;
+        for (int i = 1; i <= size; i++) {
+            if (i == size || leader[i]) {
+                BasicBlock block = new BasicBlock(blocks.size(), start, i, instructions.subList(start, i));
+                Arrays.fill(blockOf, start, i, block.getId());
+                blocks.add(block);
+                start = i;
             }
         }
 
-        Stack<Instruction> callStack = new Stack<>();
-        for (Instruction instruction : program.getInstructions()) {
-            if (instruction instanceof CondJump) {
-                CondJump condJump = (CondJump) instruction;
-                connectJump(instruction, condJump.getAddress());
-            } else if (instruction instanceof JumpCall) {
-                JumpCall jumpCall = (JumpCall) instruction;
-                connectJump(instruction, jumpCall.getAddress());
-                if (jumpCall.getName().equals("CALL")) { // Changement ici
-                    int index = program.getInstructions().indexOf(instruction);
-                    Instruction nextInstruction = null;
-                    if (index < program.getInstructions().size() - 1) {
-                        nextInstruction = program.getInstructions().get(index + 1);
-                    }
-                    callStack.push(nextInstruction);
+        // les successeurs d'un bloc sont ceux de sa dernière instruction : la suivante, sauf après JMP, RET et STOP, puis la cible du saut
+        int[] predecessorCount = new int[blocks.size()];
+        for (BasicBlock block : blocks) {
+            Instruction last = block.getLast();
+            int[] successors = new int[2];
+            int count = 0;
+            boolean jump = last instanceof JumpCall && last.getName().equals("JMP");
+            if (!(last instanceof Stop || last instanceof Ret || jump) && block.getEnd() < size) {
+                successors[count++] = blockOf[block.getEnd()];
+            }
+            String target = last instanceof CondJump condJump ? condJump.getAddress() : jump ? ((JumpCall) last).getAddress() : null;
+            if (target != null) {
+                Integer index = labels.get(target);
+                if (index != null) {
+                    successors[count++] = blockOf[index];
+                } else {
+                    System.err.println("Label non trouvé : " + target + " depuis " + last.getLabel());
                 }
-            } else if (instruction instanceof Ret) {
-                if (!callStack.isEmpty()) {
-                    Instruction returnTo = callStack.pop();
-                    if (returnTo != null) {
-                        this.addEdge(instruction, returnTo);
+            }
+            successors = Arrays.copyOf(successors, count);
+            for (int s : successors) predecessorCount[s]++;
+            block.setSuccessors(successors);
+        }
+        int[][] predecessors = new int[blocks.size()][];
+        for (int b = 0; b < blocks.size(); b++) {
+            predecessors[b] = new int[predecessorCount[b]];
+            predecessorCount[b] = 0;
+        }
+        for (BasicBlock block : blocks) {
+            for (int s : block.getSuccessors()) {
+                predecessors[s][predecessorCount[s]++] = block.getId();
+            }
+        }
+        for (BasicBlock block : blocks) {
+            block.setPredecessors(predecessors[block.getId()]);
+        }
+    }
+
+    /**
+     * Numérote les registres du programme de façon dense, dans l'ordre d'apparition
+     */
+    private void numberRegisters() {
+        int maxRegister = -1;
+        for (Instruction instruction : instructions) {
+            for (int register : Liveness.getUse(instruction)) maxRegister = Math.max(maxRegister, register);
+            for (int register : Liveness.getDef(instruction)) maxRegister = Math.max(maxRegister, register);
+        }
+        this.registerIds = new int[maxRegister + 1];
+        Arrays.fill(registerIds, -1);
+        int[] order = new int[maxRegister + 1];
+        int count = 0;
+        for (Instruction instruction : instructions) {
+            for (int register : Liveness.getUse(instruction)) {
+                if (registerIds[register] == -1) { registerIds[register] = count; order[count++] = register; }
+            }
+            for (int register : Liveness.getDef(instruction)) {
+                if (registerIds[register] == -1) { registerIds[register] = count; order[count++] = register; }
+            }
+        }
+        this.registers = Arrays.copyOf(order, count);
+    }
+
+    /**
+     * Calcule pour chaque bloc les registres lus avant d'être définis et les registres définis
+     */
+    private void buildSummaries() {
+        int words = getWordCount();
+        for (BasicBlock block : blocks) {
+            long[] use = new long[words];
+            long[] def = new long[words];
+            for (Instruction instruction : block.getInstructions()) {
+                for (int register : Liveness.getUse(instruction)) {
+                    int id = registerIds[register];
+                    if ((def[id >>> 6] & (1L << (id & 63))) == 0) use[id >>> 6] |= 1L << (id & 63);
+                }
+                for (int register : Liveness.getDef(instruction)) {
+                    int id = registerIds[register];
+                    def[id >>> 6] |= 1L << (id & 63);
+                }
+            }
+            block.setUse(use);
+            block.setDef(def);
+        }
+    }
+
+    /**
+     * Calcule pour chaque fonction appelée l'ensemble des registres qu'elle peut modifier,
+     * y compris à travers les fonctions qu'elle appelle elle-même, puis l'ajoute aux définitions des blocs qui l'appellent.
+     * Tant que les sauvegardes autour des CALL ne sont pas insérées, seuls les registres par lesquels passe l'appel d'une fonction TCL,
+     * SP et TP sont ajoutés : les autres seront sauvegardés s'ils sont vivants après le CALL (voir CallerSaves)
+     * @param callRegisters registres des paramètres et de retour de chaque fonction, null si les sauvegardes sont insérées
+     */
+    private void buildCallSummaries(Map<String, List<Integer>> callRegisters) {
+        int words = getWordCount();
+        this.clobbers = new HashMap<>();
+        this.functions = new HashMap<>();
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof JumpCall && instruction.getName().equals("CALL")) {
+                String target = ((JumpCall) instruction).getAddress();
+                if (!functions.containsKey(target) && labels.containsKey(target)) {
+                    functions.put(target, getReachableBlocks(blockOf[labels.get(target)]));
+                    clobbers.put(target, new long[words]);
+                }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String, ArrayList<Integer>> body : functions.entrySet()) {
+                long[] clobber = clobbers.get(body.getKey());
+                for (int b : body.getValue()) {
+                    BasicBlock block = blocks.get(b);
+                    long[] callDefs = getCallClobbers(block.getLast());
+                    for (int w = 0; w < words; w++) {
+                        long value = clobber[w] | block.getDef()[w] | (callDefs == null ? 0 : callDefs[w]);
+                        if (value != clobber[w]) {
+                            clobber[w] = value;
+                            changed = true;
+                        }
                     }
                 }
             }
         }
+
+        this.callDefs = clobbers;
+        if (callRegisters != null) {
+            this.callDefs = new HashMap<>();
+            for (Map.Entry<String, long[]> clobber : clobbers.entrySet()) {
+                if (!callRegisters.containsKey(clobber.getKey())) { // fonctions de CodeGen, arguments passés sur la pile
+                    callDefs.put(clobber.getKey(), clobber.getValue());
+                    continue;
+                }
+                long[] passed = new long[words];
+                List<Integer> registers = new ArrayList<>(callRegisters.get(clobber.getKey()));
+                registers.add(0); // SP
+                registers.add(1); // TP
+                for (int register : registers) {
+                    int id = getRegisterId(register);
+                    if (id >= 0) passed[id >>> 6] |= clobber.getValue()[id >>> 6] & (1L << (id & 63));
+                }
+                callDefs.put(clobber.getKey(), passed);
+            }
+        }
+
+        for (BasicBlock block : blocks) {
+            long[] callDefs = getCallDefs(block.getLast());
+            if (callDefs != null) {
+                for (int w = 0; w < words; w++) {
+                    block.getDef()[w] |= callDefs[w];
+                }
+            }
+        }
     }
 
     /**
-     * Connecte un saut à une instruction
-     * @param from
-     * @param targetLabel
+     * Retourne les blocs atteignables depuis un bloc sans passer par les appels de fonction
+     * @param entry numéro du bloc de départ
+     * @return ArrayList<Integer> numéros des blocs atteints, dont entry
      */
-    private void connectJump(Instruction from, String targetLabel) {
-        if (labelMap.containsKey(targetLabel)) {
-            this.addEdge(from, labelMap.get(targetLabel));
-        } else {
-            System.err.println("Label non trouvé : " + targetLabel + " depuis " + from.getLabel());
+    public ArrayList<Integer> getReachableBlocks(int entry) {
+        ArrayList<Integer> reached = new ArrayList<>();
+        boolean[] visited = new boolean[blocks.size()];
+        visited[entry] = true;
+        reached.add(entry);
+        for (int i = 0; i < reached.size(); i++) {
+            for (int s : blocks.get(reached.get(i)).getSuccessors()) {
+                if (!visited[s]) {
+                    visited[s] = true;
+                    reached.add(s);
+                }
+            }
         }
+        return reached;
     }
 
     /**
-     * Retourne l'ensemble des sommets du graphe 
+     * Retourne les registres qu'un appel de fonction modifie pour les analyses, tous ceux que la fonction appelée peut modifier
+     * une fois les sauvegardes insérées, sinon seulement ceux par lesquels passe l'appel (voir buildCallSummaries)
+     * @param instruction une instruction du programme
+     * @return long[] vecteur de bits des registres modifiés par l'appel, null si l'instruction n'est pas un CALL
      */
-    public Set<Instruction> getVertices(Program program) {
-        Set<Instruction> vertices = new HashSet<>();
-        for (Instruction instruction : program.getInstructions()) {
-            vertices.add(instruction);
+    public long[] getCallDefs(Instruction instruction) {
+        if (!(instruction instanceof JumpCall) || !instruction.getName().equals("CALL")) {
+            return null;
         }
-        return vertices;
+        long[] callDef = callDefs.get(((JumpCall) instruction).getAddress());
+        return callDef == null ? new long[getWordCount()] : callDef;
     }
 
     /**
-     * Retourne l'ensemble des sommets du graphe
-     * @param program
-     * @return
+     * Retourne les registres qu'un appel de fonction peut modifier
+     * @param instruction une instruction du programme
+     * @return long[] vecteur de bits des registres modifiés par la fonction appelée, null si l'instruction n'est pas un CALL
      */
-    public Set<Instruction> getAllVertices(Program program) {
-        Set<Instruction> vertices = new HashSet<>();
-        for (Instruction instruction : program.getInstructions()) {
-            vertices.add(instruction);
+    public long[] getCallClobbers(Instruction instruction) {
+        if (!(instruction instanceof JumpCall) || !instruction.getName().equals("CALL")) {
+            return null;
         }
-        return vertices;
+        long[] clobber = clobbers.get(((JumpCall) instruction).getAddress());
+        return clobber == null ? new long[getWordCount()] : clobber;
+    }
+
+    /**
+     * Retourne les fonctions appelées par un CALL du programme
+     * @return Map<String, ArrayList<Integer>> label de la fonction vers les blocs atteignables depuis son entrée
+     */
+    public Map<String, ArrayList<Integer>> getFunctions() {
+        return functions;
+    }
+
+    /**
+     * Retourne les blocs de base, dans l'ordre du programme (le bloc 0 est le point d'entrée)
+     * @return ArrayList<BasicBlock> les blocs
+     */
+    public ArrayList<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Retourne un bloc à partir de son numéro
+     * @param id numéro du bloc
+     * @return BasicBlock le bloc
+     */
+    public BasicBlock getBlock(int id) {
+        return blocks.get(id);
+    }
+
+    /**
+     * Retourne le nombre de blocs
+     * @return int nombre de blocs
+     */
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Retourne le numéro du bloc qui contient une instruction
+     * @param index indice de l'instruction dans le programme
+     * @return int numéro du bloc
+     */
+    public int getBlockOf(int index) {
+        return blockOf[index];
+    }
+
+    /**
+     * Retourne l'indice d'une instruction dans le programme
+     * @param instruction l'instruction
+     * @return son indice, ou -1 si elle n'est pas dans le programme
+     */
+    public int indexOf(Instruction instruction) {
+        Integer index = indexes.get(instruction);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Retourne le nombre de registres distincts du programme
+     * @return int nombre de registres
+     */
+    public int getRegisterCount() {
+        return registers.length;
+    }
+
+    /**
+     * Retourne le nombre de mots de 64 bits des vecteurs de bits de registres
+     * @return int nombre de mots
+     */
+    public int getWordCount() {
+        return (registers.length + 63) >>> 6;
+    }
+
+    /**
+     * Retourne l'identifiant dense d'un registre
+     * @param register numéro du registre
+     * @return int identifiant dense, -1 si le registre n'apparaît pas dans le programme
+     */
+    public int getRegisterId(int register) {
+        return register < registerIds.length ? registerIds[register] : -1;
+    }
+
+    /**
+     * Retourne le numéro de registre correspondant à un identifiant dense
+     * @param id identifiant dense
+     * @return int numéro du registre
+     */
+    public int getRegister(int id) {
+        return registers[id];
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Instruction u : this.vertices) {
-            int index = vertices.indexOf(u);
-            if (u.getLabel().isEmpty()) {
-                sb.append(index + 1).append("-> ");
-            } else {
-                sb.append(u.getLabel()).append("-> ");
-            }
-            for (Instruction v : this.adjList.get(u)) {
-                if (v.getLabel().isEmpty()) {
-                    sb.append(vertices.indexOf(v) + 1).append(", ");
-                } else {
-                    sb.append(v.getLabel()).append(", ");
-                }
-            }
-            if (this.adjList.get(u).size() > 0) {
-                sb.setLength(sb.length() - 2);
-            }
-            sb.append("\n");
+        for (BasicBlock block : blocks) {
+            sb.append(block).append("\n");
         }
         return sb.toString();
     }
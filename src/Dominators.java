@@ -0,0 +1,133 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Arbre des dominateurs des blocs d'un graphe de contrôle : un bloc A domine un bloc B si tout chemin
+ * depuis une entrée jusqu'à B passe par A. Les entrées sont le bloc 0, l'entrée de chaque fonction appelée
+ * (les CALL ne sont pas des arcs du graphe) et les blocs sans prédécesseur ; elles sont rattachées à une racine virtuelle.
+ * Les dominateurs immédiats sont calculés par l'algorithme itératif de Cooper, Harvey et Kennedy,
+ * sur l'ordre postfixe inverse d'un parcours en profondeur depuis les entrées.
+ */
+public class Dominators {
+    private final ControlGraph controlGraph;
+    /**
+     * Dominateur immédiat de chaque bloc, root pour les entrées, -1 pour les blocs qu'aucune entrée n'atteint
+     */
+    private final int[] idom;
+    private final int[] postNumber;
+    private final int root;
+
+    /**
+     * Constructeur, calcule directement les dominateurs
+     * @param controlGraph le graphe de contrôle du programme
+     */
+    public Dominators(ControlGraph controlGraph) {
+        this.controlGraph = controlGraph;
+        int size = controlGraph.getBlockCount();
+        this.root = size;
+        this.idom = new int[size + 1];
+        this.postNumber = new int[size + 1];
+        Arrays.fill(idom, -1);
+
+        boolean[] entry = new boolean[size];
+        if (size > 0) entry[0] = true;
+        for (ArrayList<Integer> body : controlGraph.getFunctions().values()) entry[body.get(0)] = true;
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            if (block.getPredecessors().length == 0) entry[block.getId()] = true;
+        }
+        int[] order = postOrder(entry);
+        for (int k = 0; k < order.length; k++) postNumber[order[k]] = k;
+        postNumber[root] = size;
+        idom[root] = root;
+        for (int b = 0; b < size; b++) {
+            if (entry[b]) idom[b] = root;
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = order.length - 1; k >= 0; k--) {
+                int b = order[k];
+                if (entry[b]) continue;
+                int newIdom = -1;
+                for (int p : controlGraph.getBlock(b).getPredecessors()) {
+                    if (idom[p] == -1) continue;
+                    newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+                }
+                if (newIdom != idom[b]) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parcours en profondeur itératif depuis les entrées
+     * @return les numéros des blocs atteints dans l'ordre postfixe
+     */
+    private int[] postOrder(boolean[] entry) {
+        int size = controlGraph.getBlockCount();
+        int[] result = new int[size];
+        int count = 0;
+        boolean[] visited = new boolean[size];
+        int[] stack = new int[size];
+        int[] next = new int[size];
+        for (int start = 0; start < size; start++) {
+            if (!entry[start] || visited[start]) continue;
+            int top = 0;
+            stack[0] = start;
+            next[0] = 0;
+            visited[start] = true;
+            while (top >= 0) {
+                int[] successors = controlGraph.getBlock(stack[top]).getSuccessors();
+                if (next[top] < successors.length) {
+                    int s = successors[next[top]++];
+                    if (!visited[s]) {
+                        visited[s] = true;
+                        top++;
+                        stack[top] = s;
+                        next[top] = 0;
+                    }
+                } else {
+                    result[count++] = stack[top];
+                    top--;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (postNumber[a] < postNumber[b]) a = idom[a];
+            while (postNumber[b] < postNumber[a]) b = idom[b];
+        }
+        return a;
+    }
+
+    /**
+     * Retourne le dominateur immédiat d'un bloc
+     * @param block numéro du bloc
+     * @return int numéro du dominateur immédiat, -1 pour une entrée ou un bloc inatteignable
+     */
+    public int getImmediateDominator(int block) {
+        return idom[block] == root ? -1 : idom[block];
+    }
+
+    /**
+     * Indique si un bloc domine un autre bloc (un bloc se domine lui-même)
+     * @param dominator numéro du bloc dominant
+     * @param block numéro du bloc dominé
+     * @return true si tout chemin depuis une entrée jusqu'à block passe par dominator
+     */
+    public boolean dominates(int dominator, int block) {
+        if (idom[block] == -1) return false;
+        for (int b = block; b != root; b = idom[b]) {
+            if (b == dominator) return true;
+        }
+        return false;
+    }
+}
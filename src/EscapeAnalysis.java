@@ -0,0 +1,385 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import src.Type.ArrayType;
+import src.Type.FunctionType;
+import src.Type.PrimitiveType;
+import src.Type.Type;
+import src.Type.UnknownType;
+
+/**
+ * A class that finds the arrays that can live in the frame of the function that creates them.
+ * An array declared as int[] a = {...} (one dimension) doesn't escape if a is only indexed, printed,
+ * or passed to a parameter that doesn't escape either: no other array, variable or caller can hold it
+ * when the function returns, nor when the declaration runs again.
+ * CodeGenerator reserves these arrays in a frame at the entry of the function instead of at TP, and releases them on RET:
+ * below SP, unless the function is recursive (its frames could overflow the stack into the arrays) or --sans-echappement,
+ * in a block from *alloc otherwise.
+ * The other arrays come from *alloc. A variable owns its array when it is only given new arrays (literals, or calls to functions
+ * that return arrays that they own) and is only indexed, printed, passed to parameters that don't escape, or returned:
+ * CodeGenerator gives its array back to *free when the variable is assigned again, when its declaration runs again, and on RET
+ * unless it is returned.
+ */
+public class EscapeAnalysis {
+    private final Map<UnknownType, Type> types;
+    /**
+     * For each function, the parameters that may escape (the caller's arrays passed there escape too)
+     */
+    private final Map<String, boolean[]> escapingParameters;
+    /**
+     * For each function (Decl_fctContext, or Core_fctContext of main), its declarations of arrays that don't escape
+     */
+    private final Map<ParserRuleContext, List<grammarTCLParser.DeclarationContext>> frameArrays;
+    private final Set<grammarTCLParser.DeclarationContext> frameDeclarations;
+    /**
+     * For each function (Decl_fctContext, or Core_fctContext of main), its declarations of variables that own their array
+     */
+    private final Map<ParserRuleContext, List<grammarTCLParser.DeclarationContext>> ownedArrays;
+    /**
+     * The functions that always return an array that no other variable holds
+     */
+    private final Set<String> freshFunctions;
+    /**
+     * The functions on a cycle of the call graph, that can have several frames at the same time
+     * (a tail call of a function to itself is a jump that releases the frame first, see CodeGenerator)
+     */
+    private final Set<String> recursiveFunctions;
+
+    /**
+     * Analyses a whole program
+     * @param tree the program
+     * @param types types of each variable of the program, given by TyperVisitor
+     * @param tailCalls true if CodeGenerator compiles the tail calls of a function to itself as jumps
+     */
+    public EscapeAnalysis(grammarTCLParser.MainContext tree, Map<UnknownType, Type> types, boolean tailCalls) {
+        this.types = types;
+        this.escapingParameters = new HashMap<>();
+        this.frameArrays = new IdentityHashMap<>();
+        this.frameDeclarations = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.ownedArrays = new IdentityHashMap<>();
+        this.freshFunctions = new HashSet<>();
+        this.recursiveFunctions = new HashSet<>();
+
+        for (grammarTCLParser.Decl_fctContext function : tree.decl_fct()) {
+            this.escapingParameters.put(function.VAR(0).getText(), new boolean[function.VAR().size() - 1]);
+        }
+        boolean changed = true;
+        while (changed) { // a parameter escapes if it is passed to a parameter that escapes, until nothing changes
+            changed = false;
+            for (grammarTCLParser.Decl_fctContext function : tree.decl_fct()) {
+                boolean[] escaping = this.escapingParameters.get(function.VAR(0).getText());
+                for (int i = 0; i < escaping.length; i++) {
+                    if (!escaping[i] && escapes(function.core_fct(), function.VAR(i + 1).getText(), false)) {
+                        escaping[i] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for (grammarTCLParser.Decl_fctContext function : tree.decl_fct()) {
+            List<String> parameters = new ArrayList<>();
+            for (int i = 1; i < function.VAR().size(); i++) parameters.add(function.VAR(i).getText());
+            this.frameArrays.put(function, findFrameArrays(function.core_fct(), parameters, false));
+        }
+        this.frameArrays.put(tree.core_fct(), findFrameArrays(tree.core_fct(), List.of(), true));
+
+        for (grammarTCLParser.Decl_fctContext function : tree.decl_fct()) {
+            if (isArray(this.types.get(new UnknownType(function.VAR(0))))) this.freshFunctions.add(function.VAR(0).getText());
+        }
+        changed = true;
+        while (changed) { // the owners and the functions returning new arrays depend on each other: remove the ones that fail until nothing changes
+            changed = false;
+            for (grammarTCLParser.Decl_fctContext function : tree.decl_fct()) {
+                List<String> parameters = new ArrayList<>();
+                for (int i = 1; i < function.VAR().size(); i++) parameters.add(function.VAR(i).getText());
+                this.ownedArrays.put(function, findOwnedArrays(function.core_fct(), parameters, false));
+            }
+            this.ownedArrays.put(tree.core_fct(), findOwnedArrays(tree.core_fct(), List.of(), true));
+            for (grammarTCLParser.Decl_fctContext function : tree.decl_fct()) {
+                if (this.freshFunctions.contains(function.VAR(0).getText()) && !returnsOwnedArrays(function)) {
+                    this.freshFunctions.remove(function.VAR(0).getText());
+                    changed = true;
+                }
+            }
+        }
+
+        Map<String, Set<String>> callees = new HashMap<>();
+        for (grammarTCLParser.Decl_fctContext function : tree.decl_fct()) {
+            Set<String> called = new HashSet<>();
+            collectCalls(function.core_fct(), function, tailCalls, called);
+            callees.put(function.VAR(0).getText(), called);
+        }
+        for (String function : callees.keySet()) { // a function is recursive if it can be reached from its callees
+            Set<String> reached = new HashSet<>();
+            Deque<String> pending = new ArrayDeque<>(callees.get(function));
+            while (!pending.isEmpty()) {
+                String callee = pending.pop();
+                if (!reached.add(callee) || !callees.containsKey(callee)) continue;
+                pending.addAll(callees.get(callee));
+            }
+            if (reached.contains(function)) this.recursiveFunctions.add(function);
+        }
+    }
+
+    /**
+     * Getter of the arrays allocated in the frame of a function
+     * @param function a Decl_fctContext, or the Core_fctContext of main
+     * @return the declarations of these arrays, in the order of the source
+     */
+    public List<grammarTCLParser.DeclarationContext> getFrameArrays(ParserRuleContext function) {
+        return this.frameArrays.getOrDefault(function, List.of());
+    }
+
+    /**
+     * Tells if the array of a declaration is allocated in the frame of its function
+     * @param declaration a declaration of the program
+     * @return true if the array doesn't escape
+     */
+    public boolean isFrameAllocated(grammarTCLParser.DeclarationContext declaration) {
+        return this.frameDeclarations.contains(declaration);
+    }
+
+    /**
+     * Getter of the variables of a function that own their array
+     * @param function a Decl_fctContext, or the Core_fctContext of main
+     * @return the declarations of these variables, in the order of the source
+     */
+    public List<grammarTCLParser.DeclarationContext> getOwnedArrays(ParserRuleContext function) {
+        return this.ownedArrays.getOrDefault(function, List.of());
+    }
+
+    /**
+     * Tells if a function is on a cycle of calls, its frames can then pile up on the stack
+     * @param function a Decl_fctContext, or the Core_fctContext of main
+     * @return true if the function may call itself, directly or not
+     */
+    public boolean isRecursive(ParserRuleContext function) {
+        return function instanceof grammarTCLParser.Decl_fctContext declaration
+                && this.recursiveFunctions.contains(declaration.VAR(0).getText());
+    }
+
+    /**
+     * Tells if a declaration may run several times in the same frame, inside a loop of its function
+     * @param declaration a declaration of the program
+     * @return true if a while or a for contains the declaration
+     */
+    public static boolean isInLoop(grammarTCLParser.DeclarationContext declaration) {
+        for (ParseTree tree = declaration.getParent(); tree != null; tree = tree.getParent()) {
+            if (tree instanceof grammarTCLParser.WhileContext || tree instanceof grammarTCLParser.ForContext) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the arrays of a function that don't escape
+     * @param once true for main, that runs once: an array declared out of a loop is allocated once at TP anyway,
+     * a frame would only cost its setup
+     */
+    private List<grammarTCLParser.DeclarationContext> findFrameArrays(grammarTCLParser.Core_fctContext body, List<String> parameters, boolean once) {
+        List<grammarTCLParser.DeclarationContext> declarations = new ArrayList<>();
+        collectDeclarations(body, declarations);
+        Map<String, Integer> declarationCount = new HashMap<>();
+        for (String parameter : parameters) declarationCount.merge(parameter, 1, Integer::sum);
+        for (grammarTCLParser.DeclarationContext declaration : declarations) declarationCount.merge(declaration.VAR().getText(), 1, Integer::sum);
+
+        List<grammarTCLParser.DeclarationContext> result = new ArrayList<>();
+        for (grammarTCLParser.DeclarationContext declaration : declarations) {
+            String name = declaration.VAR().getText();
+            Type type = this.types.get(new UnknownType(declaration.VAR()));
+            if (declaration.expr() instanceof grammarTCLParser.Tab_initializationContext
+                    && type instanceof ArrayType array && array.getTabType() instanceof PrimitiveType
+                    && declarationCount.get(name) == 1 // a single variable of this name in the function, all its uses are this array
+                    && (!once || isInLoop(declaration))
+                    && !escapes(body, name, true)) {
+                result.add(declaration);
+                this.frameDeclarations.add(declaration);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the variables of a function that own their array, knowing the functions that return new arrays
+     * @param main true for main, whose variables are never returned
+     */
+    private List<grammarTCLParser.DeclarationContext> findOwnedArrays(grammarTCLParser.Core_fctContext body, List<String> parameters, boolean main) {
+        List<grammarTCLParser.DeclarationContext> declarations = new ArrayList<>();
+        collectDeclarations(body, declarations);
+        Map<String, Integer> declarationCount = new HashMap<>();
+        for (String parameter : parameters) declarationCount.merge(parameter, 1, Integer::sum);
+        for (grammarTCLParser.DeclarationContext declaration : declarations) declarationCount.merge(declaration.VAR().getText(), 1, Integer::sum);
+
+        List<grammarTCLParser.DeclarationContext> result = new ArrayList<>();
+        for (grammarTCLParser.DeclarationContext declaration : declarations) {
+            String name = declaration.VAR().getText();
+            if (isArray(this.types.get(new UnknownType(declaration.VAR())))
+                    && !this.frameDeclarations.contains(declaration)
+                    && declarationCount.get(name) == 1
+                    && (declaration.expr() == null || isFresh(declaration.expr()))
+                    && isOwned(body, name, main)) {
+                result.add(declaration);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tells if every use of a variable keeps it the only holder of its array
+     * @param tree the subtree where the variable is used
+     * @param name the name of the variable
+     * @param main true in main, whose variables are never returned
+     */
+    private boolean isOwned(ParseTree tree, String name, boolean main) {
+        if (tree instanceof grammarTCLParser.VariableContext variable && variable.getText().equals(name)
+                && isEscapingUse(variable) && (main || !isReturned(variable))) return false;
+        if (tree instanceof grammarTCLParser.AssignmentContext assignment && assignment.expr().size() == 1
+                && assignment.VAR().getText().equals(name) && !isFresh(assignment.expr(0))) return false;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (!isOwned(tree.getChild(i), name, main)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tells if an expression gives an array that nothing else holds: a literal, or a call to a function that returns such arrays
+     */
+    private boolean isFresh(grammarTCLParser.ExprContext expr) {
+        if (expr instanceof grammarTCLParser.BracketsContext brackets) return isFresh(brackets.expr());
+        if (expr instanceof grammarTCLParser.CallContext call) return this.freshFunctions.contains(call.VAR().getText());
+        return expr instanceof grammarTCLParser.Tab_initializationContext;
+    }
+
+    /**
+     * Tells if every value returned by a function is a new array, or the array of a variable that owns it
+     */
+    private boolean returnsOwnedArrays(grammarTCLParser.Decl_fctContext function) {
+        List<grammarTCLParser.ExprContext> returned = new ArrayList<>();
+        returned.add(function.core_fct().expr());
+        collectReturns(function.core_fct(), returned);
+        for (grammarTCLParser.ExprContext expr : returned) {
+            while (expr instanceof grammarTCLParser.BracketsContext brackets) expr = brackets.expr();
+            if (isFresh(expr)) continue;
+            if (!(expr instanceof grammarTCLParser.VariableContext variable)) return false;
+            boolean owned = false;
+            for (grammarTCLParser.DeclarationContext declaration : this.ownedArrays.get(function)) {
+                if (declaration.VAR().getText().equals(variable.getText())) owned = true;
+            }
+            if (!owned) return false;
+        }
+        return true;
+    }
+
+    private static void collectReturns(ParseTree tree, List<grammarTCLParser.ExprContext> returned) {
+        if (tree instanceof grammarTCLParser.ReturnContext ret) returned.add(ret.expr());
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectReturns(tree.getChild(i), returned);
+        }
+    }
+
+    /**
+     * Tells if an expression is the value returned by its function
+     */
+    private static boolean isReturned(grammarTCLParser.ExprContext expr) {
+        ParseTree parent = expr.getParent();
+        while (parent instanceof grammarTCLParser.BracketsContext) parent = parent.getParent();
+        return parent instanceof grammarTCLParser.ReturnContext || parent instanceof grammarTCLParser.Core_fctContext;
+    }
+
+    /**
+     * Tells if a type, given by TyperVisitor, is an array type once its type variables are replaced
+     */
+    private boolean isArray(Type type) {
+        if (type instanceof FunctionType function) return isArray(function.getReturnType());
+        if (type instanceof UnknownType variable && this.types.get(variable) != null && !variable.equals(this.types.get(variable)))
+            return isArray(this.types.get(variable));
+        return type instanceof ArrayType;
+    }
+
+    private static void collectDeclarations(ParseTree tree, List<grammarTCLParser.DeclarationContext> declarations) {
+        if (tree instanceof grammarTCLParser.DeclarationContext declaration) declarations.add(declaration);
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectDeclarations(tree.getChild(i), declarations);
+        }
+    }
+
+    private void collectCalls(ParseTree tree, grammarTCLParser.Decl_fctContext function, boolean tailCalls, Set<String> called) {
+        if (tree instanceof grammarTCLParser.CallContext call && !(tailCalls && isTailJump(call, function))) called.add(call.VAR().getText());
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectCalls(tree.getChild(i), function, tailCalls, called);
+        }
+    }
+
+    /**
+     * Tells if a call is compiled as a jump to the entry of its function: a returned call to the function itself
+     * that doesn't pass an array of the frame, which is released before the jump
+     */
+    private boolean isTailJump(grammarTCLParser.CallContext call, grammarTCLParser.Decl_fctContext function) {
+        if (!call.VAR().getText().equals(function.VAR(0).getText())) return false;
+        ParseTree parent = call.getParent();
+        while (parent instanceof grammarTCLParser.BracketsContext) parent = parent.getParent();
+        if (!(parent instanceof grammarTCLParser.ReturnContext || parent instanceof grammarTCLParser.Core_fctContext)) return false;
+        for (grammarTCLParser.DeclarationContext declaration : this.frameArrays.get(function)) {
+            if (passesArray(call, declaration.VAR().getText())) return false;
+        }
+        for (grammarTCLParser.DeclarationContext declaration : this.ownedArrays.get(function)) {
+            if (passesArray(call, declaration.VAR().getText())) return false;
+        }
+        return true;
+    }
+
+    private static boolean passesArray(ParseTree tree, String name) {
+        if (tree instanceof grammarTCLParser.VariableContext variable && variable.getText().equals(name)
+                && !(variable.getParent() instanceof grammarTCLParser.Tab_accessContext access && access.expr(0) == variable)) return true;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (passesArray(tree.getChild(i), name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells if the array held by a variable may be kept after the function returns
+     * @param tree the subtree where the variable is used
+     * @param name the name of the variable
+     * @param local true for a local array, which must not be replaced either (it would be released in place of the other array)
+     */
+    private boolean escapes(ParseTree tree, String name, boolean local) {
+        if (tree instanceof grammarTCLParser.VariableContext variable && variable.getText().equals(name)
+                && isEscapingUse(variable)) return true;
+        if (local && tree instanceof grammarTCLParser.AssignmentContext assignment
+                && assignment.expr().size() == 1 && assignment.VAR().getText().equals(name)) return true;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (escapes(tree.getChild(i), name, local)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells if a use of an array variable may copy its pointer somewhere else:
+     * anything but a[...] and an argument for a parameter that doesn't escape
+     */
+    private boolean isEscapingUse(grammarTCLParser.ExprContext use) {
+        ParseTree parent = use.getParent();
+        if (parent instanceof grammarTCLParser.BracketsContext brackets) return isEscapingUse(brackets);
+        if (parent instanceof grammarTCLParser.Tab_accessContext access) return access.expr(0) != use;
+        if (parent instanceof grammarTCLParser.CallContext call) {
+            boolean[] escaping = this.escapingParameters.get(call.VAR().getText());
+            int argument = call.expr().indexOf(use);
+            return escaping == null || argument >= escaping.length || escaping[argument];
+        }
+        return true;
+    }
+}
@@ -38,7 +38,7 @@ public abstract class Graph<T> {
      * @param u sommet
      */
     public void addVertex(T u) {
-        if (this.vertices.contains(u)) return;
+        if (this.adjList.containsKey(u)) return;
         this.vertices.add(u);
         this.adjList.put(u, new ArrayList<T>());
     }   
@@ -0,0 +1,199 @@
+package src.Graph;
+import java.util.Arrays;
+
+/**
+ * Graphe non orienté sur les sommets 0 à n-1, sans objets : les arêtes sont dans une matrice de bits triangulaire
+ * pour les tests d'appartenance en temps constant, et dans des tableaux d'entiers pour parcourir les voisins.
+ * La matrice occupe n(n-1)/2 bits.
+ */
+public class InterferenceGraph {
+    private final int size;
+    private final long[] matrix;
+    private final boolean[] isVertex;
+    private final int[][] adjList;
+    private final int[] degree;
+    private final int[] colors;
+    private int vertexCount;
+
+    /**
+     * Constructeur
+     * @param size nombre de sommets possibles
+     */
+    public InterferenceGraph(int size) {
+        this.size = size;
+        this.matrix = new long[(int) ((((long) size * (size - 1) / 2) + 63) >>> 6)];
+        this.isVertex = new boolean[size];
+        this.adjList = new int[size][];
+        this.degree = new int[size];
+        this.colors = new int[size];
+        Arrays.fill(adjList, new int[0]);
+        Arrays.fill(colors, -1);
+    }
+
+    /**
+     * Constructeur par copie (sommets et arêtes, sans les couleurs)
+     * @param graph le graphe à copier
+     */
+    public InterferenceGraph(InterferenceGraph graph) {
+        this.size = graph.size;
+        this.matrix = graph.matrix.clone();
+        this.isVertex = graph.isVertex.clone();
+        this.adjList = new int[size][];
+        for (int u = 0; u < size; u++) {
+            adjList[u] = Arrays.copyOf(graph.adjList[u], graph.degree[u]);
+        }
+        this.degree = graph.degree.clone();
+        this.colors = new int[size];
+        Arrays.fill(colors, -1);
+        this.vertexCount = graph.vertexCount;
+    }
+
+    private static long index(int u, int v) {
+        return u > v ? (long) u * (u - 1) / 2 + v : (long) v * (v - 1) / 2 + u;
+    }
+
+    /**
+     * Retourne le nombre de sommets possibles
+     * @return int n
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Teste si u est un sommet
+     * @param u un sommet
+     * @return boolean
+     */
+    public boolean hasVertex(int u) {
+        return isVertex[u];
+    }
+
+    /**
+     * Ajout d'un sommet
+     * @param u sommet
+     */
+    public void addVertex(int u) {
+        if (isVertex[u]) return;
+        isVertex[u] = true;
+        vertexCount++;
+    }
+
+    /**
+     * Teste si uv est une arête
+     * @param u sommet
+     * @param v sommet
+     * @return boolean uv est une arête
+     */
+    public boolean hasEdge(int u, int v) {
+        if (u == v) return false;
+        long i = index(u, v);
+        return (matrix[(int) (i >>> 6)] & (1L << i)) != 0;
+    }
+
+    /**
+     * Ajout d'une arête (les boucles sont ignorées)
+     * @param u sommet
+     * @param v sommet
+     * @return boolean vrai si l'arête n'existait pas
+     */
+    public boolean addEdge(int u, int v) {
+        if (u == v || hasEdge(u, v)) return false;
+        long i = index(u, v);
+        matrix[(int) (i >>> 6)] |= 1L << i;
+        addVertex(u);
+        addVertex(v);
+        append(u, v);
+        append(v, u);
+        return true;
+    }
+
+    private void append(int u, int v) {
+        if (degree[u] == adjList[u].length) {
+            adjList[u] = Arrays.copyOf(adjList[u], Math.max(4, 2 * degree[u]));
+        }
+        adjList[u][degree[u]++] = v;
+    }
+
+    /**
+     * Getter des sommets du graphe
+     * @return int[] sommets, par ordre croissant
+     */
+    public int[] getVertices() {
+        int[] vertices = new int[vertexCount];
+        int count = 0;
+        for (int u = 0; u < size; u++) {
+            if (isVertex[u]) vertices[count++] = u;
+        }
+        return vertices;
+    }
+
+    /**
+     * Getter des voisins d'un sommet
+     * @param u sommet
+     * @return int[] les voisins de u (copie)
+     */
+    public int[] getNeighbors(int u) {
+        return Arrays.copyOf(adjList[u], degree[u]);
+    }
+
+    /**
+     * Getter du degré d'un sommet
+     * @param u sommet
+     * @return int nombre de voisins
+     */
+    public int getDegree(int u) {
+        return degree[u];
+    }
+
+    /**
+     * Getter d'un voisin, pour parcourir les voisins sans copie
+     * @param u sommet
+     * @param i indice du voisin, entre 0 et getDegree(u)
+     * @return int le i-ème voisin de u
+     */
+    public int getNeighbor(int u, int i) {
+        return adjList[u][i];
+    }
+
+    /**
+     * Getter de la couleur d'un sommet
+     * @param u sommet
+     * @return int couleur, -1 si le sommet n'est pas colorié
+     */
+    public int getColor(int u) {
+        return colors[u];
+    }
+
+    /**
+     * Setter de la couleur d'un sommet
+     * @param u sommet
+     * @param color couleur
+     */
+    public void setColor(int u, int color) {
+        colors[u] = color;
+    }
+
+    /**
+     * Algorithme glouton de coloration
+     * @return int nombre de couleurs utilisées
+     */
+    public int color() {
+        int maxCol = 0;
+        boolean[] usedColors = new boolean[size + 1];
+        for (int u = 0; u < size; u++) {
+            if (!isVertex[u]) continue;
+            for (int i = 0; i < degree[u]; i++) {
+                if (colors[adjList[u][i]] != -1) usedColors[colors[adjList[u][i]]] = true;
+            }
+            int c = 0;
+            while (usedColors[c]) c++;
+            colors[u] = c;
+            maxCol = Math.max(maxCol, c);
+            for (int i = 0; i < degree[u]; i++) {
+                if (colors[adjList[u][i]] != -1) usedColors[colors[adjList[u][i]]] = false;
+            }
+        }
+        return maxCol + 1;
+    }
+}
@@ -0,0 +1,210 @@
+package src;
+
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Allocation de registres par balayage linéaire (Poletto et Sarkar) : chaque registre virtuel est résumé
+ * par un intervalle de vie sur le programme linéaire, et les intervalles sont parcourus dans l'ordre de leur début.
+ * Aucun graphe de conflit n'est construit, la mémoire utilisée reste linéaire en le nombre de registres.
+ * Un intervalle vivant à travers un CALL ne partage pas sa couleur avec les registres que la fonction appelée modifie.
+ */
+public class LinearScanAllocator implements RegisterAllocation {
+    private final ControlGraph controlGraph;
+    private final Liveness liveness;
+    private final int[] start;
+    private final int[] end;
+    private final int[] color;
+    private final int[] hint;
+    private final ArrayList<ArrayList<Integer>> crossedCalls;
+    private final ArrayList<ArrayList<Integer>> calledBy;
+    private final ArrayList<BitSet> clobberColors;
+    private final ArrayList<BitSet> crossColors;
+
+    /**
+     * Constructeur
+     * @param controlGraph le graphe de contrôle du programme
+     */
+    public LinearScanAllocator(ControlGraph controlGraph) {
+        this.controlGraph = controlGraph;
+        this.liveness = new Liveness(controlGraph);
+        int n = controlGraph.getRegisterCount();
+        this.start = new int[n];
+        this.end = new int[n];
+        this.color = new int[n];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+        Arrays.fill(color, -1);
+        this.hint = new int[n];
+        Arrays.fill(hint, -1);
+        this.crossedCalls = new ArrayList<>(n);
+        this.calledBy = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            crossedCalls.add(new ArrayList<>());
+            calledBy.add(new ArrayList<>());
+        }
+        this.clobberColors = new ArrayList<>();
+        this.crossColors = new ArrayList<>();
+        buildIntervals();
+    }
+
+    /**
+     * Calcule les intervalles de vie : l'utilisation d'un registre par l'instruction k est à la position 2k,
+     * sa définition à la position 2k+1. Note aussi, pour chaque registre, les fonctions appelées pendant qu'il est vivant.
+     */
+    private void buildIntervals() {
+        HashMap<String, Integer> functions = new HashMap<>();
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            long[] in = liveness.getBlockIn(block.getId());
+            for (int id = Liveness.nextBit(in, 0); id >= 0; id = Liveness.nextBit(in, id + 1)) {
+                extend(id, 2 * block.getStart());
+            }
+            long[] live = liveness.getBlockOut(block.getId()).clone();
+            for (int id = Liveness.nextBit(live, 0); id >= 0; id = Liveness.nextBit(live, id + 1)) {
+                extend(id, 2 * block.getEnd() - 1);
+            }
+            for (int k = block.getEnd() - 1; k >= block.getStart(); k--) {
+                Instruction instruction = block.getInstructions().get(k - block.getStart());
+                long[] callDefs = controlGraph.getCallDefs(instruction);
+                if (callDefs != null) {
+                    int function = getFunction(functions, ((JumpCall) instruction).getAddress(), callDefs);
+                    for (int id = Liveness.nextBit(live, 0); id >= 0; id = Liveness.nextBit(live, id + 1)) {
+                        if (Liveness.contains(callDefs, id)) {
+                            extend(id, 2 * k + 1);
+                        } else if (!crossedCalls.get(id).contains(function)) {
+                            crossedCalls.get(id).add(function);
+                        }
+                    }
+                }
+                for (int register : Liveness.getDef(instruction)) {
+                    extend(controlGraph.getRegisterId(register), 2 * k + 1);
+                }
+                if (ConflictGraph.isCopy(instruction)) {
+                    UALi copy = (UALi) instruction;
+                    hint[controlGraph.getRegisterId(copy.getDest())] = controlGraph.getRegisterId(copy.getSr());
+                }
+                for (int register : Liveness.getUse(instruction)) {
+                    extend(controlGraph.getRegisterId(register), 2 * k);
+                }
+                long[] calleeIn = liveness.getCalleeIn(instruction);
+                if (calleeIn != null) { // les paramètres de la fonction appelée sont lus par le CALL
+                    for (int id = Liveness.nextBit(calleeIn, 0); id >= 0; id = Liveness.nextBit(calleeIn, id + 1)) {
+                        extend(id, 2 * k);
+                    }
+                }
+                liveness.transfer(instruction, live);
+            }
+        }
+    }
+
+    /**
+     * Retourne le numéro d'une fonction appelée, en notant à la première rencontre les registres qu'elle modifie
+     */
+    private int getFunction(HashMap<String, Integer> functions, String label, long[] callDefs) {
+        Integer function = functions.get(label);
+        if (function == null) {
+            function = functions.size();
+            functions.put(label, function);
+            clobberColors.add(new BitSet());
+            crossColors.add(new BitSet());
+            for (int id = Liveness.nextBit(callDefs, 0); id >= 0; id = Liveness.nextBit(callDefs, id + 1)) {
+                calledBy.get(id).add(function);
+            }
+        }
+        return function;
+    }
+
+    private void extend(int id, int position) {
+        start[id] = Math.min(start[id], position);
+        end[id] = Math.max(end[id], position);
+    }
+
+    /**
+     * Alloue les registres en parcourant les intervalles par début croissant. Quand aucun registre n'est libre,
+     * l'intervalle actif qui finit le plus tard part en mémoire s'il finit après l'intervalle courant.
+     * @return int nombre de couleurs utilisées (registres réservés compris)
+     */
+    public int allocate() {
+        int n = controlGraph.getRegisterCount();
+        ArrayList<Integer> intervals = new ArrayList<>();
+        for (int id = 0; id < n; id++) {
+            if (controlGraph.getRegister(id) < ConflictGraph.RESERVED_REGISTERS || end[id] < 0) continue;
+            intervals.add(id);
+        }
+        intervals.sort((a, b) -> start[a] != start[b] ? Integer.compare(start[a], start[b]) : Integer.compare(a, b));
+
+        TreeSet<Integer> active = new TreeSet<>((a, b) -> end[a] != end[b] ? Integer.compare(end[a], end[b]) : Integer.compare(a, b));
+        BitSet activeColors = new BitSet();
+        int maxColor = ConflictGraph.RESERVED_REGISTERS - 1;
+        for (int id : intervals) {
+            while (!active.isEmpty() && end[active.first()] < start[id]) {
+                activeColors.clear(color[active.pollFirst()]);
+            }
+
+            BitSet forbidden = getForbidden(id);
+            int c = getFreeColor(activeColors, forbidden, ConflictGraph.RESERVED_REGISTERS);
+            // une copie dont la source vient de mourir reprend son registre, AssemblerGenerator la supprime
+            if (hint[id] >= 0 && color[hint[id]] >= 0 && color[hint[id]] < ConflictGraph.REGISTER_COUNT
+                    && !activeColors.get(color[hint[id]]) && !forbidden.get(color[hint[id]])) {
+                c = color[hint[id]];
+            }
+            if (c >= ConflictGraph.REGISTER_COUNT) {
+                Integer last = active.descendingSet().stream()
+                        .filter(other -> color[other] < ConflictGraph.REGISTER_COUNT).findFirst().orElse(null);
+                if (last != null && end[last] > end[id] && !forbidden.get(color[last])) {
+                    c = color[last];
+                    setColor(last, getFreeColor(activeColors, getForbidden(last), ConflictGraph.REGISTER_COUNT));
+                    activeColors.set(color[last]);
+                    maxColor = Math.max(maxColor, color[last]);
+                }
+            }
+            setColor(id, c);
+            activeColors.set(c);
+            active.add(id);
+            maxColor = Math.max(maxColor, c);
+        }
+        return maxColor + 1;
+    }
+
+    /**
+     * Couleurs interdites pour un registre : celles des registres modifiés par les fonctions appelées pendant
+     * qu'il est vivant, et celles des registres vivants pendant un appel à une fonction qui le modifie
+     */
+    private BitSet getForbidden(int id) {
+        BitSet forbidden = new BitSet();
+        for (int function : crossedCalls.get(id)) forbidden.or(clobberColors.get(function));
+        for (int function : calledBy.get(id)) forbidden.or(crossColors.get(function));
+        return forbidden;
+    }
+
+    private int getFreeColor(BitSet activeColors, BitSet forbidden, int from) {
+        BitSet used = (BitSet) forbidden.clone();
+        used.or(activeColors);
+        return used.nextClearBit(from);
+    }
+
+    private void setColor(int id, int c) {
+        color[id] = c;
+        for (int function : crossedCalls.get(id)) crossColors.get(function).set(c);
+        for (int function : calledBy.get(id)) clobberColors.get(function).set(c);
+    }
+
+    /**
+     * Retourne la couleur d'un registre virtuel
+     * @param register registre sous la forme "R"+n
+     * @return int couleur, -1 si le registre n'a pas été alloué
+     */
+    @Override
+    public int getColor(String register) {
+        int number = Integer.parseInt(register.substring(1));
+        if (number < ConflictGraph.RESERVED_REGISTERS) return number;
+        int id = controlGraph.getRegisterId(number);
+        return id < 0 ? -1 : color[id];
+    }
+}
@@ -0,0 +1,385 @@
+package src;
+
+import src.Asm.CondJump;
+import src.Asm.IO;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Ret;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analyse de vivacité des registres virtuels d'un programme linéaire : in = use ∪ (out \ def), out = ∪ in(succ).
+ * Le point fixe est calculé sur les blocs de base du graphe de contrôle avec des vecteurs de bits
+ * indexés par les identifiants denses des registres ; les ensembles d'une instruction sont retrouvés
+ * en remontant son bloc depuis la sortie.
+ * Le graphe étant intraprocédural, un RET a pour sortie les registres que les appelants lisent au retour
+ * de la fonction : ceux qui sont vivants après un CALL de la fonction et qu'elle modifie (sa valeur de retour).
+ * Réciproquement, un CALL lit les registres vivants à l'entrée de la fonction appelée (ses paramètres).
+ */
+public class Liveness {
+    private final ControlGraph controlGraph;
+    private final int words;
+    private final long[][] in;
+    private final long[][] out;
+    /**
+     * Pour chaque bloc terminé par un CALL, les registres lus par la fonction appelée et non définis plus haut dans le bloc
+     */
+    private final long[][] callUses;
+    private final long[][] defBeforeCall;
+
+    /**
+     * Constructeur, calcule directement la vivacité
+     * @param controlGraph le graphe de contrôle du programme
+     */
+    public Liveness(ControlGraph controlGraph) {
+        this.controlGraph = controlGraph;
+        this.words = controlGraph.getWordCount();
+        int blockCount = controlGraph.getBlockCount();
+
+        this.in = new long[blockCount][words];
+        this.out = new long[blockCount][words];
+        this.callUses = new long[blockCount][];
+        this.defBeforeCall = new long[blockCount][];
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            if (controlGraph.getCallDefs(block.getLast()) == null) continue;
+            long[] def = new long[words];
+            for (int i = 0; i < block.getInstructions().size() - 1; i++) {
+                for (int register : getDef(block.getInstructions().get(i))) add(def, controlGraph.getRegisterId(register));
+            }
+            callUses[block.getId()] = new long[words];
+            defBeforeCall[block.getId()] = def;
+        }
+        compute();
+        while (addReturnValues() | addArguments()) {
+            compute();
+        }
+    }
+
+    /**
+     * Calcule le point fixe avec une liste de travail.
+     * Le problème étant arrière, les blocs sont traités dans l'ordre postfixe,
+     * c'est-à-dire en remontant l'ordre postfixe inverse du graphe de contrôle.
+     */
+    private void compute() {
+        int blockCount = controlGraph.getBlockCount();
+        int[] postOrder = postOrder(controlGraph);
+        boolean[] dirty = new boolean[blockCount];
+        Arrays.fill(dirty, true);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b : postOrder) {
+                if (!dirty[b]) continue;
+                dirty[b] = false;
+                BasicBlock block = controlGraph.getBlock(b);
+                long[] newOut = out[b];
+                for (int s : block.getSuccessors()) {
+                    or(newOut, in[s]);
+                }
+                long[] newIn = in[b];
+                long[] use = block.getUse();
+                long[] def = block.getDef();
+                long[] callUse = callUses[b];
+                boolean inChanged = false;
+                for (int w = 0; w < words; w++) {
+                    long value = use[w] | (callUse == null ? 0 : callUse[w]) | (newOut[w] & ~def[w]);
+                    if (value != newIn[w]) {
+                        newIn[w] = value;
+                        inChanged = true;
+                    }
+                }
+                if (inChanged) {
+                    for (int p : block.getPredecessors()) {
+                        dirty[p] = true;
+                    }
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ajoute à la sortie des blocs terminés par RET les registres lus au retour de la fonction
+     * @return boolean vrai si une sortie a grandi, le point fixe est alors à recalculer
+     */
+    private boolean addReturnValues() {
+        boolean changed = false;
+        for (Map.Entry<String, ArrayList<Integer>> function : controlGraph.getFunctions().entrySet()) {
+            long[] returned = new long[words];
+            for (BasicBlock block : controlGraph.getBlocks()) {
+                if (block.getLast() instanceof JumpCall call && call.getName().equals("CALL") && call.getAddress().equals(function.getKey())) {
+                    long[] clobber = controlGraph.getCallDefs(call);
+                    for (int w = 0; w < words; w++) {
+                        returned[w] |= out[block.getId()][w] & clobber[w];
+                    }
+                }
+            }
+            for (int b : function.getValue()) {
+                if (!(controlGraph.getBlock(b).getLast() instanceof Ret)) continue;
+                for (int w = 0; w < words; w++) {
+                    if ((returned[w] & ~out[b][w]) != 0) {
+                        out[b][w] |= returned[w];
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Ajoute aux blocs terminés par un CALL les registres vivants à l'entrée de la fonction appelée
+     * @return boolean vrai si un bloc lit de nouveaux registres, le point fixe est alors à recalculer
+     */
+    private boolean addArguments() {
+        boolean changed = false;
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            long[] callUse = callUses[block.getId()];
+            if (callUse == null) continue;
+            long[] entry = getCalleeIn(block.getLast());
+            if (entry == null) continue;
+            for (int w = 0; w < words; w++) {
+                long value = callUse[w] | (entry[w] & ~defBeforeCall[block.getId()][w]);
+                if (value != callUse[w]) {
+                    callUse[w] = value;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Retourne les registres vivants à l'entrée de la fonction appelée par un CALL (ne pas modifier)
+     * @param instruction une instruction du programme
+     * @return long[] vecteur de bits, null si l'instruction n'est pas un CALL d'une fonction du programme
+     */
+    public final long[] getCalleeIn(Instruction instruction) {
+        if (!(instruction instanceof JumpCall call) || !call.getName().equals("CALL")) return null;
+        ArrayList<Integer> body = controlGraph.getFunctions().get(call.getAddress());
+        return body == null ? null : in[body.get(0)];
+    }
+
+    /**
+     * Parcours en profondeur itératif des blocs depuis le bloc d'entrée, puis depuis les blocs non atteints
+     * @param controlGraph le graphe de contrôle
+     * @return les numéros des blocs dans l'ordre postfixe
+     */
+    public static int[] postOrder(ControlGraph controlGraph) {
+        int size = controlGraph.getBlockCount();
+        int[] result = new int[size];
+        int count = 0;
+        boolean[] visited = new boolean[size];
+        int[] stack = new int[size];
+        int[] next = new int[size];
+        for (int root = 0; root < size; root++) {
+            if (visited[root]) continue;
+            int top = 0;
+            stack[0] = root;
+            next[0] = 0;
+            visited[root] = true;
+            while (top >= 0) {
+                int[] successors = controlGraph.getBlock(stack[top]).getSuccessors();
+                if (next[top] < successors.length) {
+                    int s = successors[next[top]++];
+                    if (!visited[s]) {
+                        visited[s] = true;
+                        top++;
+                        stack[top] = s;
+                        next[top] = 0;
+                    }
+                } else {
+                    result[count++] = stack[top];
+                    top--;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retourne le vecteur de bits des registres vivants en entrée d'un bloc (ne pas modifier)
+     * @param block numéro du bloc
+     * @return long[] vecteur de bits indexé par les identifiants denses
+     */
+    public long[] getBlockIn(int block) {
+        return in[block];
+    }
+
+    /**
+     * Retourne le vecteur de bits des registres vivants en sortie d'un bloc (ne pas modifier)
+     * @param block numéro du bloc
+     * @return long[] vecteur de bits indexé par les identifiants denses
+     */
+    public long[] getBlockOut(int block) {
+        return out[block];
+    }
+
+    /**
+     * Remonte un bloc depuis sa sortie jusqu'à une instruction : live contient en entrée
+     * les registres vivants en sortie du bloc, et en retour ceux vivants en sortie de l'instruction
+     * @param block le bloc
+     * @param index indice de l'instruction dans le programme
+     * @param live vecteur de bits modifié en place
+     */
+    private void walkBack(BasicBlock block, int index, long[] live) {
+        for (int i = block.getEnd() - 1; i > index; i--) {
+            transfer(block.getInstructions().get(i - block.getStart()), live);
+        }
+    }
+
+    /**
+     * Applique la fonction de transfert d'une instruction : live passe de la sortie à l'entrée de l'instruction
+     * @param instruction l'instruction
+     * @param live vecteur de bits modifié en place
+     */
+    public void transfer(Instruction instruction, long[] live) {
+        long[] callDefs = controlGraph.getCallDefs(instruction);
+        if (callDefs != null) {
+            for (int w = 0; w < live.length; w++) {
+                live[w] &= ~callDefs[w];
+            }
+        }
+        long[] calleeIn = getCalleeIn(instruction);
+        if (calleeIn != null) or(live, calleeIn);
+        for (int register : getDef(instruction)) remove(live, controlGraph.getRegisterId(register));
+        for (int register : getUse(instruction)) add(live, controlGraph.getRegisterId(register));
+    }
+
+    /**
+     * Retourne les registres vivants en entrée d'une instruction, sous la forme "R"+n
+     * @param instruction l'instruction
+     * @return Set<String> ensemble des registres vivants
+     */
+    public Set<String> getIn(Instruction instruction) {
+        int index = controlGraph.indexOf(instruction);
+        if (index == -1) return new HashSet<>();
+        long[] live = getOutBits(index);
+        transfer(instruction, live);
+        return toNames(live);
+    }
+
+    /**
+     * Retourne les registres vivants en sortie d'une instruction, sous la forme "R"+n
+     * @param instruction l'instruction
+     * @return Set<String> ensemble des registres vivants
+     */
+    public Set<String> getOut(Instruction instruction) {
+        int index = controlGraph.indexOf(instruction);
+        return index == -1 ? new HashSet<>() : toNames(getOutBits(index));
+    }
+
+    /**
+     * Retourne une copie du vecteur de bits des registres vivants en sortie d'une instruction
+     * @param index indice de l'instruction dans le programme
+     * @return long[] vecteur de bits indexé par les identifiants denses
+     */
+    public long[] getOutBits(int index) {
+        BasicBlock block = controlGraph.getBlock(controlGraph.getBlockOf(index));
+        long[] live = out[block.getId()].clone();
+        walkBack(block, index, live);
+        return live;
+    }
+
+    private Set<String> toNames(long[] set) {
+        Set<String> names = new HashSet<>();
+        for (int id = nextBit(set, 0); id >= 0; id = nextBit(set, id + 1)) {
+            names.add("R" + controlGraph.getRegister(id));
+        }
+        return names;
+    }
+
+    /**
+     * Retourne l'indice du premier bit à 1 à partir de from
+     * @param set vecteur de bits
+     * @param from indice de départ
+     * @return l'indice trouvé, -1 s'il n'y en a pas
+     */
+    public static int nextBit(long[] set, int from) {
+        int w = from >>> 6;
+        if (w >= set.length) return -1;
+        long word = set[w] & (-1L << (from & 63));
+        while (true) {
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == set.length) return -1;
+            word = set[w];
+        }
+    }
+
+    static void add(long[] set, int id) {
+        set[id >>> 6] |= 1L << (id & 63);
+    }
+
+    static void remove(long[] set, int id) {
+        set[id >>> 6] &= ~(1L << (id & 63));
+    }
+
+    static boolean contains(long[] set, int id) {
+        return (set[id >>> 6] & (1L << (id & 63))) != 0;
+    }
+
+    static void or(long[] target, long[] source) {
+        for (int w = 0; w < target.length; w++) {
+            target[w] |= source[w];
+        }
+    }
+
+    /**
+     * Retourne les registres utilisés par une instruction.
+     * XOR et SUB d'un registre avec lui-même valent toujours 0 et ne lisent donc rien.
+     * @param instruction
+     * @return int[] numéros des registres
+     */
+    public static int[] getUse(Instruction instruction) {
+        if (instruction instanceof IO io) {
+            if (io.getName().equals("OUT") || io.getName().equals("PRINT")) {
+                return new int[] { io.getReg() };
+            }
+        } else if (instruction instanceof UAL ual) {
+            if (ual.getSr1() == ual.getSr2() && (ual.getName().equals("XOR") || ual.getName().equals("SUB"))) {
+                return new int[0];
+            }
+            return new int[] { ual.getSr1(), ual.getSr2() };
+        } else if (instruction instanceof UALi uali) {
+            return new int[] { uali.getSr() };
+        } else if (instruction instanceof Mem mem) {
+            if (mem.getName().equals("LD")) {
+                return new int[] { mem.getAddress() };
+            } else if (mem.getName().equals("ST")) {
+                return new int[] { mem.getDest(), mem.getAddress() };
+            }
+        } else if (instruction instanceof CondJump condJump) {
+            return new int[] { condJump.getSr1(), condJump.getSr2() };
+        }
+        return new int[0];
+    }
+
+    /**
+     * Retourne les registres définis par une instruction (sans compter les registres modifiés par un appel de fonction)
+     * @param instruction
+     * @return int[] numéros des registres
+     */
+    public static int[] getDef(Instruction instruction) {
+        if (instruction instanceof IO io) {
+            if (io.getName().equals("IN") || io.getName().equals("READ")) {
+                return new int[] { io.getReg() };
+            }
+        } else if (instruction instanceof UAL ual) {
+            return new int[] { ual.getDest() };
+        } else if (instruction instanceof UALi uali) {
+            return new int[] { uali.getDest() };
+        } else if (instruction instanceof Mem mem) {
+            if (mem.getName().equals("LD")) {
+                return new int[] { mem.getDest() };
+            }
+        }
+        return new int[0];
+    }
+}
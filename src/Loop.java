@@ -0,0 +1,63 @@
+package src;
+
+import java.util.ArrayList;
+
+/**
+ * Boucle naturelle du graphe de contrôle : un bloc d'en-tête qui domine tous les blocs de la boucle,
+ * et les blocs qui peuvent revenir à l'en-tête sans passer par lui. On n'entre dans la boucle que par l'en-tête.
+ */
+public class Loop {
+    private final int header;
+    private final boolean[] body;
+    private final ArrayList<Integer> blocks;
+    private final ArrayList<Integer> latches;
+
+    /**
+     * Constructeur
+     * @param header numéro du bloc d'en-tête
+     * @param body pour chaque bloc du graphe, true s'il est dans la boucle
+     * @param latches les blocs de la boucle qui ont un arc vers l'en-tête
+     */
+    public Loop(int header, boolean[] body, ArrayList<Integer> latches) {
+        this.header = header;
+        this.body = body;
+        this.blocks = new ArrayList<>();
+        for (int b = 0; b < body.length; b++) {
+            if (body[b]) blocks.add(b);
+        }
+        this.latches = latches;
+    }
+
+    /**
+     * Getter de l'en-tête
+     * @return int numéro du bloc d'en-tête
+     */
+    public int getHeader() {
+        return header;
+    }
+
+    /**
+     * Getter des blocs de la boucle
+     * @return ArrayList<Integer> numéros des blocs, dans l'ordre du programme, en-tête compris
+     */
+    public ArrayList<Integer> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Getter des blocs qui reviennent à l'en-tête
+     * @return ArrayList<Integer> numéros des blocs
+     */
+    public ArrayList<Integer> getLatches() {
+        return latches;
+    }
+
+    /**
+     * Indique si un bloc est dans la boucle
+     * @param block numéro du bloc
+     * @return true si le bloc est dans la boucle
+     */
+    public boolean contains(int block) {
+        return body[block];
+    }
+}
@@ -0,0 +1,125 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * A class that finds the array accesses of a for loop whose index is always below the length of the array,
+ * provided the loop bound is not greater than that length when the loop starts.
+ * In for (...; i < n; ...) { ... a[i] ... a[i - 1] ... }, if the body assigns neither i, n nor a,
+ * every access happens with i < n, and an array never shrinks: n <= length(a) at the start of the loop is enough.
+ * CodeGenerator checks this once before the loop and then runs a copy of the loop without the bounds checks.
+ */
+public class LoopBoundsAnalysis {
+    private final String index;
+    private final ParseTree bound;
+    private final Map<String, List<ParserRuleContext>> accesses;
+
+    /**
+     * Analyses a for loop
+     * @param ctx the loop
+     */
+    public LoopBoundsAnalysis(grammarTCLParser.ForContext ctx) {
+        this.accesses = new LinkedHashMap<>();
+        ParseTree body = ctx.instr(2);
+        ParseTree iteration = ctx.instr(1);
+
+        // the condition must be i < n or n > i
+        String index = null;
+        ParseTree bound = null;
+        if (ctx.expr() instanceof grammarTCLParser.ComparisonContext comparison) {
+            String op = comparison.op.getText();
+            if (op.equals("<") && comparison.expr(0) instanceof grammarTCLParser.VariableContext variable) {
+                index = variable.getText();
+                bound = comparison.expr(1);
+            } else if (op.equals(">") && comparison.expr(1) instanceof grammarTCLParser.VariableContext variable) {
+                index = variable.getText();
+                bound = comparison.expr(0);
+            }
+        }
+        if (bound instanceof grammarTCLParser.VariableContext variable
+                && (isAssigned(body, variable.getText()) || isAssigned(iteration, variable.getText()))) {
+            bound = null; // the bound changes during the loop
+        }
+        if (!(bound instanceof grammarTCLParser.VariableContext) && !(bound instanceof grammarTCLParser.IntegerContext)) {
+            bound = null;
+        }
+        if (index != null && (isAssigned(body, index) || containsLoop(body))) {
+            index = null; // the index must only change in the iteration, and only innermost loops are copied
+        }
+        this.index = index;
+        this.bound = bound;
+        if (index != null && bound != null) {
+            collect(body);
+            this.accesses.keySet().removeIf(array -> array.equals(this.index) || array.equals(this.bound.getText())
+                    || isAssigned(body, array) || isAssigned(iteration, array));
+        }
+    }
+
+    /**
+     * Getter of the loop bound, n in i < n
+     * @return the expression of the bound, a variable or an integer
+     */
+    public ParseTree getBound() {
+        return bound;
+    }
+
+    /**
+     * Getter of the accesses that need no bounds check if the bound is not greater than the length of their array
+     * @return a map from the name of each array to its accesses (Tab_accessContext or AssignmentContext for its first bracket),
+     *         empty if the loop doesn't fit the analysis
+     */
+    public Map<String, List<ParserRuleContext>> getAccesses() {
+        return accesses;
+    }
+
+    private void collect(ParseTree tree) {
+        if (tree instanceof grammarTCLParser.Tab_accessContext access
+                && access.expr(0) instanceof grammarTCLParser.VariableContext array && isBelowIndex(access.expr(1))) {
+            this.accesses.computeIfAbsent(array.getText(), name -> new ArrayList<>()).add(access);
+        } else if (tree instanceof grammarTCLParser.AssignmentContext assignment
+                && assignment.expr().size() > 1 && isBelowIndex(assignment.expr(0))) {
+            this.accesses.computeIfAbsent(assignment.VAR().getText(), name -> new ArrayList<>()).add(assignment);
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collect(tree.getChild(i));
+        }
+    }
+
+    /**
+     * Tells if an index expression is i or i - k with k a non negative integer
+     */
+    private boolean isBelowIndex(ParseTree expr) {
+        if (expr instanceof grammarTCLParser.BracketsContext brackets) return isBelowIndex(brackets.expr());
+        if (expr instanceof grammarTCLParser.VariableContext variable) return variable.getText().equals(this.index);
+        return expr instanceof grammarTCLParser.AdditionContext addition && addition.op.getText().equals("-")
+                && addition.expr(0) instanceof grammarTCLParser.VariableContext variable && variable.getText().equals(this.index)
+                && addition.expr(1) instanceof grammarTCLParser.IntegerContext integer && Integer.parseInt(integer.getText()) >= 0;
+    }
+
+    /**
+     * Tells if a variable is assigned or declared again (which would hide it) in a subtree
+     */
+    private static boolean isAssigned(ParseTree tree, String name) {
+        if (tree instanceof grammarTCLParser.AssignmentContext assignment
+                && assignment.expr().size() == 1 && assignment.VAR().getText().equals(name)) return true;
+        if (tree instanceof grammarTCLParser.DeclarationContext declaration && declaration.VAR().getText().equals(name)) return true;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (isAssigned(tree.getChild(i), name)) return true;
+        }
+        return false;
+    }
+
+    private static boolean containsLoop(ParseTree tree) {
+        if (tree instanceof grammarTCLParser.ForContext || tree instanceof grammarTCLParser.WhileContext) return true;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (containsLoop(tree.getChild(i))) return true;
+        }
+        return false;
+    }
+}
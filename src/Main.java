@@ -1,14 +1,26 @@
 package src;
 
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import src.Asm.Program;
+import src.Simulator.JitCompiler;
+import src.Simulator.ProgramDecoder;
+import src.Simulator.Simulator;
 
 import java.io.*;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
 
 public class Main {
 	public static void main(String[] args) {
 		String fichier ="input.txt";
+		boolean execute = false; // --executer : exécute le programme obtenu sans passer par prog.asm
+		boolean jit = false; // --jit : comme --executer, en traduisant d'abord le programme en bytecode
+		Set<String> options = new HashSet<>(); // les options de compilation, voir Pipeline
+		for (String arg : args) {
+			if (arg.equals("--executer")) execute = true;
+			if (arg.equals("--jit")) execute = jit = true;
+			options.add(arg);
+		}
 		StringBuilder input = new StringBuilder();
 
 		//lecture du fichier texte
@@ -26,16 +38,8 @@ public class Main {
 			System.out.println(e.getMessage());
 		}
 
-		grammarTCLLexer lexer = new grammarTCLLexer(CharStreams.fromString(input.toString())); // analyse lexicale de la String s
-		CommonTokenStream tokens = new CommonTokenStream(lexer); // récupération des terminaux
-		grammarTCLParser parser = new grammarTCLParser(tokens); // constructeur de l'analyseur syntaxique
-		grammarTCLParser.MainContext tree = parser.main(); // création de l'AST
-
-		TyperVisitor visitor = new TyperVisitor();
-		visitor.visit(tree); // unification des types
-
-		CodeGenerator codeGenerator = new CodeGenerator(visitor.getTypes());
-		Program program = codeGenerator.visit(tree); // génération du code linéaire
+		Pipeline pipeline = new Pipeline(options);
+		Program program = pipeline.generateLinearCode(input.toString()); // code linéaire optimisé
 
 		try {
 			FileWriter fileWriter = new FileWriter("prog_lineaire.asm"); // écrit le programme dans prog.asm
@@ -47,12 +51,21 @@ public class Main {
 			System.out.println(e.getMessage());
 		}
 
-		ControlGraph controlGraph = new ControlGraph(program);
-		ConflictGraph conflictGraph = new ConflictGraph(controlGraph, program);
-
-		AssemblerGenerator generator = new AssemblerGenerator(program, conflictGraph);
+		Program assembly = pipeline.allocate(program); // allocation des registres
+		if (execute) {
+			try {
+				long cycles = jit
+						? JitCompiler.compile(assembly, Simulator.REGISTER_COUNT).run("entrees.txt", "sorties.txt", new Random())
+						: ProgramDecoder.decode(assembly, Simulator.REGISTER_COUNT, new Random()).run("entrees.txt", "sorties.txt");
+				System.out.println("Execution : " + cycles + " cycles");
+			}
+			catch (Exception e) {
+				System.out.println(e.getMessage());
+			}
+			return;
+		}
 
-		String assemblyCode = generator.generateAssembly();
+		String assemblyCode = assembly.toString();
 		System.out.println(assemblyCode);
 
 		try {
@@ -65,4 +78,4 @@ public class Main {
 			System.out.println(e.getMessage());
 		}
 	}
-}
\ No newline at end of file
+}
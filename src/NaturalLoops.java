@@ -0,0 +1,72 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Détection des boucles naturelles d'un graphe de contrôle : un arc B -> H est un arc retour quand H domine B,
+ * et la boucle de H est formée de H et des blocs qui atteignent un de ses arcs retour sans passer par H.
+ * Les arcs retour vers le même en-tête donnent une seule boucle.
+ */
+public class NaturalLoops {
+    private final Dominators dominators;
+    private final ArrayList<Loop> loops;
+
+    /**
+     * Constructeur, calcule directement les dominateurs et les boucles
+     * @param controlGraph le graphe de contrôle du programme
+     */
+    public NaturalLoops(ControlGraph controlGraph) {
+        this.dominators = new Dominators(controlGraph);
+        this.loops = new ArrayList<>();
+        int size = controlGraph.getBlockCount();
+
+        Map<Integer, ArrayList<Integer>> latches = new LinkedHashMap<>();
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            for (int s : block.getSuccessors()) {
+                if (dominators.dominates(s, block.getId())) latches.computeIfAbsent(s, k -> new ArrayList<>()).add(block.getId());
+            }
+        }
+        for (Map.Entry<Integer, ArrayList<Integer>> entry : latches.entrySet()) {
+            int header = entry.getKey();
+            boolean[] body = new boolean[size];
+            body[header] = true;
+            ArrayList<Integer> work = new ArrayList<>();
+            for (int latch : entry.getValue()) {
+                if (!body[latch]) {
+                    body[latch] = true;
+                    work.add(latch);
+                }
+            }
+            while (!work.isEmpty()) { // remontée des prédécesseurs, arrêtée par l'en-tête
+                int b = work.remove(work.size() - 1);
+                for (int p : controlGraph.getBlock(b).getPredecessors()) {
+                    if (!body[p]) {
+                        body[p] = true;
+                        work.add(p);
+                    }
+                }
+            }
+            loops.add(new Loop(header, body, entry.getValue()));
+        }
+        loops.sort(Comparator.comparingInt(loop -> loop.getBlocks().size()));
+    }
+
+    /**
+     * Getter des boucles
+     * @return ArrayList<Loop> les boucles, des plus petites aux plus grandes : une boucle interne avant celles qui la contiennent
+     */
+    public ArrayList<Loop> getLoops() {
+        return loops;
+    }
+
+    /**
+     * Getter des dominateurs, calculés pour trouver les arcs retour
+     * @return Dominators
+     */
+    public Dominators getDominators() {
+        return dominators;
+    }
+}
@@ -0,0 +1,76 @@
+package src.Optimizer;
+
+import src.ControlGraph;
+import src.Liveness;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sauvegarde sur la pile, autour de chaque CALL d'une fonction TCL, les registres vivants après l'appel que la fonction appelée peut modifier,
+ * elle-même ou à travers les fonctions qu'elle appelle. Chaque fonction a ses propres registres : seuls les appels
+ * récursifs sauvegardent quelque chose, les registres de l'appelant dont il a encore besoin.
+ * Passe faite après les optimisations du code linéaire, qui ont considéré qu'un CALL ne modifie que ses paramètres,
+ * son registre de retour, SP et TP (voir Program.getCallRegisters) : la vivacité est celle du code optimisé,
+ * et les appels intégrés par Inliner n'ont plus rien à sauvegarder.
+ * Les registres sont empilés juste avant le CALL et dépilés juste après, dans l'ordre inverse.
+ */
+public class CallerSaves {
+    private static final int SP = 0;
+    private static final int TP = 1;
+
+    /**
+     * Insère les sauvegardes, la liste d'instructions du programme est modifiée
+     * @param program le code linéaire, dont les registres des appels sont donnés par getCallRegisters
+     * @return int nombre de registres sauvegardés, en comptant chaque appel
+     */
+    public int insert(Program program) {
+        Map<String, List<Integer>> callRegisters = program.getCallRegisters();
+        ControlGraph controlGraph = new ControlGraph(program);
+        Liveness liveness = new Liveness(controlGraph);
+        ArrayList<Instruction> instructions = program.getInstructions();
+        ArrayList<Instruction> result = new ArrayList<>();
+        int saved = 0;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            long[] clobber = controlGraph.getCallClobbers(instruction);
+            List<Integer> passed = clobber == null ? null : callRegisters.get(((JumpCall) instruction).getAddress());
+            if (passed == null) { // les fonctions de CodeGen lisent leurs arguments sur la pile et sauvegardent elles-mêmes
+                result.add(instruction);
+                continue;
+            }
+            long[] live = liveness.getOutBits(i);
+            List<Integer> registers = new ArrayList<>();
+            for (int id = Liveness.nextBit(live, 0); id >= 0; id = Liveness.nextBit(live, id + 1)) {
+                int register = controlGraph.getRegister(id);
+                if ((clobber[id >>> 6] & (1L << (id & 63))) != 0 && !passed.contains(register) && register != SP && register != TP) {
+                    registers.add(register);
+                }
+            }
+
+            String label = instruction.getLabel(); // les sauts vers l'appel passent par les sauvegardes
+            for (int register : registers) {
+                result.add(new Mem(label, Mem.Op.ST, register, SP));
+                result.add(new UALi(UALi.Op.ADD, SP, SP, 1));
+                label = "";
+            }
+            if (!registers.isEmpty()) instruction.setLabel("");
+            result.add(instruction);
+            for (int k = registers.size() - 1; k >= 0; k--) {
+                result.add(new UALi(UALi.Op.SUB, SP, SP, 1));
+                result.add(new Mem(Mem.Op.LD, registers.get(k), SP));
+            }
+            saved += registers.size();
+        }
+        instructions.clear();
+        instructions.addAll(result);
+        program.setCallRegisters(null);
+        return saved;
+    }
+}
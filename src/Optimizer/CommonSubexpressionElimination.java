@@ -0,0 +1,217 @@
+package src.Optimizer;
+
+import src.BasicBlock;
+import src.ConflictGraph;
+import src.ControlGraph;
+import src.Liveness;
+import src.Asm.Instruction;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Élimination des sous-expressions communes sur le code linéaire, au sein des blocs et entre blocs.
+ * Une expression est l'opérateur et les registres lus d'un UAL, UALi ou LD (les opérandes des opérations
+ * commutatives sont triés) ; le fait « l'expression E est dans le registre t » est disponible en un point si tout chemin
+ * qui y mène calcule E dans t sans redéfinir ensuite t ni un registre lu par E (expressions disponibles, intersection
+ * sur les prédécesseurs). Un calcul dont l'expression est disponible devient une copie de t, que CopyPropagation
+ * et DeadCodeElimination font ensuite disparaître avec son registre.
+ * Un ST rend indisponibles les LD ; un CALL rend tout indisponible, un registre vivant à travers l'appel
+ * étant sauvé et restauré, ce qui coûte plus que refaire le calcul.
+ */
+public class CommonSubexpressionElimination {
+    private ArrayList<Instruction> code;
+    private ControlGraph controlGraph;
+    /**
+     * Faits numérotés : expression et registre qui la contient
+     */
+    private ArrayList<String> factExpressions;
+    private ArrayList<Integer> factRegisters;
+    private Map<String, Integer> factIds;
+    /**
+     * Pour chaque registre, les faits qu'une définition du registre rend indisponibles
+     */
+    private Map<Integer, long[]> killedBy;
+    private long[] loads;
+    private int words;
+
+    /**
+     * Remplace les calculs déjà disponibles par des copies, la liste d'instructions du programme est modifiée
+     * @param program
+     * @return int nombre de calculs remplacés
+     */
+    public int optimize(Program program) {
+        this.code = program.getInstructions();
+        this.controlGraph = new ControlGraph(program);
+        this.factExpressions = new ArrayList<>();
+        this.factRegisters = new ArrayList<>();
+        this.factIds = new HashMap<>();
+        for (Instruction instruction : code) {
+            String expression = expression(instruction);
+            if (expression == null) continue;
+            String fact = expression + " -> R" + Liveness.getDef(instruction)[0];
+            if (factIds.containsKey(fact)) continue;
+            factIds.put(fact, factExpressions.size());
+            factExpressions.add(expression);
+            factRegisters.add(Liveness.getDef(instruction)[0]);
+        }
+        if (factExpressions.isEmpty()) return 0;
+        this.words = (factExpressions.size() + 63) >>> 6;
+        this.killedBy = new HashMap<>();
+        this.loads = new long[words];
+        for (int f = 0; f < factExpressions.size(); f++) {
+            mark(factRegisters.get(f), f);
+            for (int register : operands(factExpressions.get(f))) mark(register, f);
+            if (factExpressions.get(f).startsWith("LD ")) loads[f >>> 6] |= 1L << (f & 63);
+        }
+
+        // les entrées (bloc 0, fonctions, blocs sans prédécesseur) ne disposent d'aucune expression
+        int size = controlGraph.getBlockCount();
+        boolean[] entry = new boolean[size];
+        if (size > 0) entry[0] = true;
+        for (ArrayList<Integer> body : controlGraph.getFunctions().values()) entry[body.get(0)] = true;
+        long[][] out = new long[size][];
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            if (block.getPredecessors().length == 0) entry[block.getId()] = true;
+            out[block.getId()] = new long[words];
+            if (!entry[block.getId()]) fillAll(out[block.getId()]);
+        }
+        int[] order = Liveness.postOrder(controlGraph);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = order.length - 1; k >= 0; k--) {
+                int b = order[k];
+                long[] available = in(b, entry, out);
+                BasicBlock block = controlGraph.getBlock(b);
+                for (int i = block.getStart(); i < block.getEnd(); i++) transfer(code.get(i), available);
+                if (!Arrays.equals(available, out[b])) {
+                    out[b] = available;
+                    changed = true;
+                }
+            }
+        }
+
+        int replaced = 0;
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            long[] available = in(block.getId(), entry, out);
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                Instruction instruction = code.get(i);
+                String expression = expression(instruction);
+                if (expression != null) {
+                    int holder = holder(expression, available);
+                    int dest = Liveness.getDef(instruction)[0];
+                    if (holder >= 0 && holder != dest) {
+                        code.set(i, new UALi(instruction.getLabel(), UALi.Op.ADD, dest, holder, 0));
+                        replaced++;
+                    }
+                }
+                transfer(instruction, available); // la copie rend disponible la même expression dans dest
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * Retourne l'expression calculée par une instruction, null si elle n'en calcule pas une qu'on peut réutiliser
+     */
+    private static String expression(Instruction instruction) {
+        int[] def = Liveness.getDef(instruction);
+        if (def.length != 1 || def[0] < ConflictGraph.RESERVED_REGISTERS) return null;
+        for (int register : Liveness.getUse(instruction)) {
+            if (register == def[0]) return null; // le calcul écrase son propre opérande
+        }
+        if (instruction instanceof UAL ual) {
+            if (Liveness.getUse(ual).length == 0) return "ZERO";
+            int first = ual.getSr1();
+            int second = ual.getSr2();
+            boolean commutative = ual.getName().equals("ADD") || ual.getName().equals("MUL") || ual.getName().equals("AND")
+                    || ual.getName().equals("OR") || ual.getName().equals("XOR");
+            if (commutative && first > second) {
+                first = ual.getSr2();
+                second = ual.getSr1();
+            }
+            return ual.getName() + " R" + first + " R" + second;
+        } else if (instruction instanceof UALi uali) {
+            if (ConflictGraph.isCopy(uali)) return null; // laissées à CopyPropagation
+            return uali.getName() + "i R" + uali.getSr() + " " + uali.getImm();
+        } else if (instruction instanceof Mem mem && mem.getName().equals("LD")) {
+            return "LD R" + mem.getAddress();
+        }
+        return null;
+    }
+
+    /**
+     * Retourne les registres lus par une expression
+     */
+    private static ArrayList<Integer> operands(String expression) {
+        ArrayList<Integer> registers = new ArrayList<>();
+        for (String part : expression.split(" ")) {
+            if (part.startsWith("R")) registers.add(Integer.parseInt(part.substring(1)));
+        }
+        return registers;
+    }
+
+    private void mark(int register, int fact) {
+        killedBy.computeIfAbsent(register, r -> new long[words])[fact >>> 6] |= 1L << (fact & 63);
+    }
+
+    /**
+     * Retourne un registre qui contient une expression disponible, -1 si aucun
+     */
+    private int holder(String expression, long[] available) {
+        for (int f = Liveness.nextBit(available, 0); f >= 0; f = Liveness.nextBit(available, f + 1)) {
+            if (factExpressions.get(f).equals(expression)) return factRegisters.get(f);
+        }
+        return -1;
+    }
+
+    private long[] in(int block, boolean[] entry, long[][] out) {
+        long[] available = new long[words];
+        if (entry[block]) return available;
+        fillAll(available);
+        for (int p : controlGraph.getBlock(block).getPredecessors()) {
+            for (int w = 0; w < words; w++) available[w] &= out[p][w];
+        }
+        return available;
+    }
+
+    /**
+     * Rend disponibles tous les faits, sans les bits du dernier mot qui ne correspondent à aucun fait
+     * @param available vecteur de bits modifié en place
+     */
+    private void fillAll(long[] available) {
+        Arrays.fill(available, -1L);
+        int tail = factExpressions.size() & 63;
+        if (tail != 0) available[words - 1] = (1L << tail) - 1;
+    }
+
+    /**
+     * Applique une instruction aux faits disponibles
+     * @param available vecteur de bits modifié en place
+     */
+    private void transfer(Instruction instruction, long[] available) {
+        if (instruction.getName().equals("CALL")) {
+            Arrays.fill(available, 0L);
+            return;
+        }
+        if (instruction.getName().equals("ST")) {
+            for (int w = 0; w < words; w++) available[w] &= ~loads[w];
+        }
+        for (int register : Liveness.getDef(instruction)) {
+            long[] killed = killedBy.get(register);
+            if (killed == null) continue;
+            for (int w = 0; w < words; w++) available[w] &= ~killed[w];
+        }
+        String expression = expression(instruction);
+        if (expression != null) {
+            int f = factIds.get(expression + " -> R" + Liveness.getDef(instruction)[0]);
+            available[f >>> 6] |= 1L << (f & 63);
+        }
+    }
+}
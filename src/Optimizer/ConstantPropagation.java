@@ -0,0 +1,235 @@
+package src.Optimizer;
+
+import src.BasicBlock;
+import src.ConflictGraph;
+import src.ControlGraph;
+import src.Liveness;
+import src.Asm.CondJump;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Program;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Propagation des constantes sur le code linéaire, après Inliner : les arguments constants d'un appel intégré
+ * deviennent des constantes dans la copie de la fonction, ce que ConstantFolder ne voit pas sur l'arbre.
+ * Les valeurs connues des registres sont un problème en avant, résolu sur les blocs du ControlGraph :
+ * une valeur n'est connue à l'entrée d'un bloc que si tous ses prédécesseurs déjà atteints la donnent,
+ * rien n'est connu à l'entrée du programme et des fonctions (un CALL redéfinit les registres que la fonction appelée peut modifier).
+ * Un calcul dont le résultat est connu devient XOR Rd Rd Rd (zéro) ou ADDi Rd Rs k sur un registre lu de valeur connue,
+ * un saut conditionnel sur deux valeurs connues devient un JMP ou disparaît, et les blocs qui ne sont plus atteints sont supprimés.
+ * Les divisions par zéro et les décalages négatifs ne sont pas évalués, l'erreur reste à l'exécution.
+ */
+public class ConstantPropagation {
+    private ControlGraph controlGraph;
+    private int branches;
+
+    /**
+     * Getter du nombre de sauts conditionnels résolus par le dernier appel à optimize
+     * @return int sauts remplacés par un JMP ou supprimés
+     */
+    public int getBranches() {
+        return branches;
+    }
+
+    /**
+     * Propage les constantes, la liste d'instructions du programme est modifiée.
+     * Un saut résolu peut rendre un bloc inaccessible, et un bloc supprimé donner de nouvelles constantes à ses successeurs :
+     * la propagation est refaite tant qu'elle change le programme.
+     * @param program
+     * @return int nombre d'instructions simplifiées ou supprimées
+     */
+    public int optimize(Program program) {
+        this.branches = 0;
+        int changed = 0;
+        for (int count = propagate(program); count > 0; count = propagate(program)) changed += count;
+        return changed;
+    }
+
+    /**
+     * Propage les constantes une fois
+     * @return int nombre d'instructions simplifiées ou supprimées
+     */
+    private int propagate(Program program) {
+        this.controlGraph = new ControlGraph(program);
+        int blockCount = controlGraph.getBlockCount();
+        boolean[] entry = new boolean[blockCount];
+        entry[0] = true;
+        for (ArrayList<Integer> body : controlGraph.getFunctions().values()) entry[body.get(0)] = true;
+
+        // null : bloc pas encore atteint, ses valeurs ne comptent pas dans celles de ses successeurs
+        ArrayList<Map<Integer, Long>> in = new ArrayList<>();
+        ArrayList<Map<Integer, Long>> out = new ArrayList<>();
+        for (int b = 0; b < blockCount; b++) {
+            in.add(null);
+            out.add(null);
+        }
+        int[] postOrder = Liveness.postOrder(controlGraph);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = postOrder.length - 1; k >= 0; k--) {
+                int b = postOrder[k];
+                Map<Integer, Long> values = entry[b] ? new HashMap<>() : null;
+                if (!entry[b]) {
+                    for (int p : controlGraph.getBlock(b).getPredecessors()) {
+                        if (out.get(p) == null) continue;
+                        if (values == null) values = new HashMap<>(out.get(p));
+                        else values.entrySet().removeIf(value -> !value.getValue().equals(out.get(p).get(value.getKey())));
+                    }
+                }
+                if (values == null) continue;
+                in.set(b, new HashMap<>(values));
+                for (Instruction instruction : controlGraph.getBlock(b).getInstructions()) transfer(instruction, values);
+                if (!values.equals(out.get(b))) {
+                    out.set(b, values);
+                    changed = true;
+                }
+            }
+        }
+
+        ArrayList<Instruction> instructions = program.getInstructions();
+        boolean[] dead = new boolean[instructions.size()];
+        int count = 0;
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            Map<Integer, Long> values = in.get(block.getId());
+            if (values == null) { // bloc inaccessible
+                for (int i = block.getStart(); i < block.getEnd(); i++) dead[i] = true;
+                count += block.getEnd() - block.getStart();
+                continue;
+            }
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                Instruction instruction = instructions.get(i);
+                if (instruction instanceof CondJump jump) {
+                    Boolean taken = evaluate(jump, values);
+                    if (taken != null) {
+                        if (taken) instructions.set(i, new JumpCall(jump.getLabel(), JumpCall.Op.JMP, jump.getAddress()));
+                        else dead[i] = true;
+                        branches++;
+                        count++;
+                    }
+                } else {
+                    Instruction folded = fold(instruction, values);
+                    if (folded != null) {
+                        instructions.set(i, folded);
+                        count++;
+                    }
+                }
+                transfer(instruction, values);
+            }
+        }
+        if (count > 0) DeadCodeElimination.remove(program, dead);
+        return count;
+    }
+
+    /**
+     * Applique l'effet d'une instruction sur les valeurs connues des registres
+     * @param instruction
+     * @param values valeurs connues, modifié en place
+     */
+    private void transfer(Instruction instruction, Map<Integer, Long> values) {
+        Long value = evaluate(instruction, values);
+        long[] callDefs = controlGraph.getCallDefs(instruction);
+        if (callDefs != null) {
+            for (int id = Liveness.nextBit(callDefs, 0); id >= 0; id = Liveness.nextBit(callDefs, id + 1)) {
+                values.remove(controlGraph.getRegister(id));
+            }
+        }
+        for (int register : Liveness.getDef(instruction)) values.remove(register);
+        if (value != null) values.put(Liveness.getDef(instruction)[0], value);
+    }
+
+    /**
+     * Retourne la valeur calculée par une instruction, si ses registres lus sont connus
+     * @return Long la valeur du registre résultat, null si elle n'est pas connue (ou si c'est SP ou TP)
+     */
+    private static Long evaluate(Instruction instruction, Map<Integer, Long> values) {
+        if (instruction instanceof UAL ual) {
+            if (ual.getDest() < ConflictGraph.RESERVED_REGISTERS) return null;
+            if (Liveness.getUse(ual).length == 0) return 0L; // XOR R R R, SUB R R R
+            Long a = values.get(ual.getSr1());
+            Long b = values.get(ual.getSr2());
+            return a == null || b == null ? null : compute(ual.getName(), a, b);
+        } else if (instruction instanceof UALi uali) {
+            if (uali.getDest() < ConflictGraph.RESERVED_REGISTERS) return null;
+            Long a = values.get(uali.getSr());
+            return a == null ? null : compute(uali.getName(), a, uali.getImm());
+        }
+        return null;
+    }
+
+    /**
+     * Calcule une opération comme le simulateur, l'opérande b étant le registre ou la valeur immédiate
+     * @return Long le résultat, null pour une division par zéro ou un décalage négatif
+     */
+    private static Long compute(String op, long a, long b) {
+        switch (op) {
+            case "ADD": return a + b;
+            case "SUB": return a - b;
+            case "MUL": return a * b;
+            case "DIV": return b == 0 ? null : Math.floorDiv(a, b);
+            case "MOD": return b == 0 ? null : Math.floorMod(a, b);
+            case "AND": return a & b;
+            case "OR": return a | b;
+            case "XOR": return a ^ b;
+            case "SL": return b < 0 ? null : b >= 64 ? 0 : a << b;
+            case "SR": return b < 0 ? null : a >> Math.min(b, 63);
+            default: return null;
+        }
+    }
+
+    /**
+     * Indique si un saut conditionnel est pris, si ses deux registres sont connus ou sont le même registre
+     * @return Boolean null si le saut dépend de l'exécution
+     */
+    private static Boolean evaluate(CondJump jump, Map<Integer, Long> values) {
+        Long a = values.get(jump.getSr1());
+        Long b = values.get(jump.getSr2());
+        if (jump.getSr1() == jump.getSr2()) a = b = 0L;
+        if (a == null || b == null) return null;
+        switch (jump.getName()) {
+            case "JEQU": return a.longValue() == b.longValue();
+            case "JNEQ": return a.longValue() != b.longValue();
+            case "JSUP": return a > b;
+            case "JINF": return a < b;
+            case "JIEQ": return a <= b;
+            case "JSEQ": return a >= b;
+            default: return null;
+        }
+    }
+
+    /**
+     * Remplace un calcul dont le résultat est connu par XOR Rd Rd Rd s'il vaut zéro, sinon par ADDi Rd Rs k
+     * sur un des registres lus, de valeur connue. Les ADDi et SUBi, déjà une instruction sur un registre, sont gardés.
+     * @return Instruction la nouvelle instruction, null si l'instruction est gardée
+     */
+    private static Instruction fold(Instruction instruction, Map<Integer, Long> values) {
+        Long value = evaluate(instruction, values);
+        if (value == null) return null;
+        int dest;
+        int[] sources;
+        if (instruction instanceof UAL ual) {
+            if (Liveness.getUse(ual).length == 0) return null;
+            dest = ual.getDest();
+            sources = new int[] { ual.getSr1(), ual.getSr2() };
+        } else {
+            UALi uali = (UALi) instruction;
+            if (uali.getName().equals("ADD") || uali.getName().equals("SUB")) return null;
+            dest = uali.getDest();
+            sources = new int[] { uali.getSr() };
+        }
+        if (value == 0) return new UAL(instruction.getLabel(), UAL.Op.XOR, dest, dest, dest);
+        int best = -1;
+        for (int source : sources) { // une copie de la valeur, que CopyPropagation supprimera, plutôt qu'un décalage
+            long delta = value - values.get(source);
+            if (delta != (int) delta) continue;
+            if (best == -1 || delta == 0) best = source;
+        }
+        if (best == -1) return null;
+        return new UALi(instruction.getLabel(), UALi.Op.ADD, dest, best, (int) (value - values.get(best)));
+    }
+}
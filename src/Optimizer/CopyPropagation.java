@@ -0,0 +1,220 @@
+package src.Optimizer;
+
+import src.BasicBlock;
+import src.ConflictGraph;
+import src.ControlGraph;
+import src.Liveness;
+import src.Asm.CondJump;
+import src.Asm.IO;
+import src.Asm.Instruction;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Propagation des copies sur le code linéaire : une lecture de Rd est remplacée par une lecture de Rs
+ * quand la copie ADDi Rd Rs 0 est disponible, c'est-à-dire exécutée sur tous les chemins qui y mènent
+ * sans que Rd ni Rs aient été redéfinis depuis (un CALL redéfinit les registres que la fonction peut modifier).
+ * Les copies disponibles sont un problème en avant, résolu sur les blocs du ControlGraph avec des vecteurs de bits
+ * indexés par les paires (Rd, Rs) ; les copies devenues inutiles sont ensuite supprimées par DeadCodeElimination.
+ */
+public class CopyPropagation {
+    private ControlGraph controlGraph;
+    private int words;
+    private int[][] pairs;
+    private ArrayList<ArrayList<Integer>> pairsOf;
+    private ArrayList<ArrayList<Integer>> pairsTo;
+
+    /**
+     * Propage les copies, les instructions du programme sont modifiées.
+     * Une lecture remplacée peut rendre disponible une copie de la copie (ADDi R2 R1 0 ; ADDi R3 R2 0 ; ... R3) :
+     * la propagation est refaite tant qu'elle remplace des registres.
+     * @param program
+     * @return int nombre de registres lus remplacés
+     */
+    public int optimize(Program program) {
+        int replaced = 0;
+        for (int count = propagate(program); count > 0; count = propagate(program)) replaced += count;
+        return replaced;
+    }
+
+    /**
+     * Propage les copies une fois
+     * @return int nombre de registres lus remplacés
+     */
+    private int propagate(Program program) {
+        this.controlGraph = new ControlGraph(program);
+        numberPairs(program);
+        if (pairs.length == 0) return 0;
+
+        int blockCount = controlGraph.getBlockCount();
+        long[][] in = new long[blockCount][];
+        long[][] out = new long[blockCount][];
+        long[][] gen = new long[blockCount][];
+        long[][] kill = new long[blockCount][];
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            int b = block.getId();
+            gen[b] = new long[words];
+            kill[b] = new long[words];
+            for (Instruction instruction : block.getInstructions()) {
+                transfer(instruction, gen[b], kill[b]);
+            }
+            out[b] = new long[words];
+            Arrays.fill(out[b], -1L);
+        }
+
+        // point fixe dans l'ordre postfixe inverse, en partant de « toutes les copies » sauf aux entrées :
+        // le début du programme et l'entrée des fonctions, atteinte par des CALL qui ne sont pas des arcs du graphe
+        boolean[] entry = new boolean[blockCount];
+        entry[0] = true;
+        for (ArrayList<Integer> body : controlGraph.getFunctions().values()) entry[body.get(0)] = true;
+        int[] postOrder = Liveness.postOrder(controlGraph);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = postOrder.length - 1; k >= 0; k--) {
+                int b = postOrder[k];
+                BasicBlock block = controlGraph.getBlock(b);
+                long[] newIn = new long[words];
+                if (!entry[b] && block.getPredecessors().length > 0) {
+                    Arrays.fill(newIn, -1L);
+                    for (int p : block.getPredecessors()) {
+                        for (int w = 0; w < words; w++) newIn[w] &= out[p][w];
+                    }
+                }
+                in[b] = newIn;
+                for (int w = 0; w < words; w++) {
+                    long value = gen[b][w] | (newIn[w] & ~kill[b][w]);
+                    if (value != out[b][w]) {
+                        out[b][w] = value;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        int replaced = 0;
+        for (BasicBlock block : controlGraph.getBlocks()) {
+            long[] available = in[block.getId()].clone();
+            for (Instruction instruction : block.getInstructions()) {
+                replaced += replaceUses(instruction, available);
+                transfer(instruction, available, null);
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * Numérote les paires (Rd, Rs) des copies du programme
+     */
+    private void numberPairs(Program program) {
+        HashMap<Long, Integer> ids = new HashMap<>();
+        ArrayList<int[]> list = new ArrayList<>();
+        this.pairsOf = new ArrayList<>();
+        this.pairsTo = new ArrayList<>();
+        for (Instruction instruction : program.getInstructions()) {
+            if (!ConflictGraph.isCopy(instruction)) continue;
+            UALi copy = (UALi) instruction;
+            long key = ((long) copy.getDest() << 32) | copy.getSr();
+            if (ids.containsKey(key)) continue;
+            ids.put(key, list.size());
+            list.add(new int[] { copy.getDest(), copy.getSr() });
+            listFor(pairsOf, copy.getDest()).add(list.size() - 1);
+            listFor(pairsOf, copy.getSr()).add(list.size() - 1);
+            listFor(pairsTo, copy.getDest()).add(list.size() - 1);
+        }
+        this.pairs = list.toArray(new int[0][]);
+        this.words = (pairs.length + 63) >>> 6;
+    }
+
+    private static ArrayList<Integer> listFor(ArrayList<ArrayList<Integer>> lists, int register) {
+        while (lists.size() <= register) lists.add(new ArrayList<>());
+        return lists.get(register);
+    }
+
+    /**
+     * Applique l'effet d'une instruction sur les copies disponibles
+     * @param instruction
+     * @param available copies disponibles, modifié en place
+     * @param kill si non null, reçoit les copies supprimées (pour le résumé d'un bloc)
+     */
+    private void transfer(Instruction instruction, long[] available, long[] kill) {
+        long[] callDefs = controlGraph.getCallDefs(instruction);
+        if (callDefs != null) {
+            for (int id = Liveness.nextBit(callDefs, 0); id >= 0; id = Liveness.nextBit(callDefs, id + 1)) {
+                killRegister(controlGraph.getRegister(id), available, kill);
+            }
+        }
+        for (int register : Liveness.getDef(instruction)) {
+            killRegister(register, available, kill);
+        }
+        if (ConflictGraph.isCopy(instruction)) {
+            UALi copy = (UALi) instruction;
+            for (int p : pairsTo.get(copy.getDest())) {
+                if (pairs[p][1] == copy.getSr()) {
+                    available[p >>> 6] |= 1L << (p & 63);
+                    if (kill != null) kill[p >>> 6] &= ~(1L << (p & 63));
+                }
+            }
+        }
+    }
+
+    private void killRegister(int register, long[] available, long[] kill) {
+        if (register >= pairsOf.size()) return;
+        for (int p : pairsOf.get(register)) {
+            available[p >>> 6] &= ~(1L << (p & 63));
+            if (kill != null) kill[p >>> 6] |= 1L << (p & 63);
+        }
+    }
+
+    /**
+     * Retourne le registre source d'une copie disponible vers register, ou register lui-même
+     */
+    private int source(int register, long[] available) {
+        if (register >= pairsTo.size()) return register;
+        for (int p : pairsTo.get(register)) {
+            if ((available[p >>> 6] & (1L << (p & 63))) != 0) return pairs[p][1];
+        }
+        return register;
+    }
+
+    /**
+     * Remplace les registres lus par une instruction par la source de leur copie disponible
+     * @return int nombre de registres remplacés
+     */
+    private int replaceUses(Instruction instruction, long[] available) {
+        int replaced = 0;
+        if (instruction instanceof UAL ual) {
+            if (Liveness.getUse(ual).length == 0) return 0;
+            int sr1 = source(ual.getSr1(), available);
+            int sr2 = source(ual.getSr2(), available);
+            if (sr1 != ual.getSr1()) { ual.setSr1(sr1); replaced++; }
+            if (sr2 != ual.getSr2()) { ual.setSr2(sr2); replaced++; }
+        } else if (instruction instanceof UALi uali) {
+            int sr = source(uali.getSr(), available);
+            if (sr != uali.getSr()) { uali.setSr(sr); replaced++; }
+        } else if (instruction instanceof Mem mem) {
+            if (mem.getName().equals("ST")) {
+                int value = source(mem.getDest(), available);
+                if (value != mem.getDest()) { mem.setDest(value); replaced++; }
+            }
+            int address = source(mem.getAddress(), available);
+            if (address != mem.getAddress()) { mem.setAddress(address); replaced++; }
+        } else if (instruction instanceof CondJump condJump) {
+            int sr1 = source(condJump.getSr1(), available);
+            int sr2 = source(condJump.getSr2(), available);
+            if (sr1 != condJump.getSr1()) { condJump.setSr1(sr1); replaced++; }
+            if (sr2 != condJump.getSr2()) { condJump.setSr2(sr2); replaced++; }
+        } else if (instruction instanceof IO io) {
+            if (io.getName().equals("OUT") || io.getName().equals("PRINT")) {
+                int reg = source(io.getReg(), available);
+                if (reg != io.getReg()) { io.setReg(reg); replaced++; }
+            }
+        }
+        return replaced;
+    }
+}
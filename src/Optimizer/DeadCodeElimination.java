@@ -0,0 +1,110 @@
+package src.Optimizer;
+
+import src.BasicBlock;
+import src.ConflictGraph;
+import src.ControlGraph;
+import src.Liveness;
+import src.Asm.CondJump;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Suppression du code mort sur le code linéaire : un calcul (UAL, UALi ou LD) dont le registre résultat n'est pas vivant
+ * après lui est supprimé. La vivacité est recalculée sur le ControlGraph jusqu'à ce que plus rien ne disparaisse,
+ * une suppression pouvant rendre morts les calculs dont elle lisait le résultat.
+ * Le pointeur de pile et le pointeur des tableaux ne sont jamais considérés comme morts.
+ */
+public class DeadCodeElimination {
+    /**
+     * Supprime le code mort, la liste d'instructions du programme est modifiée
+     * @param program
+     * @return int nombre d'instructions supprimées
+     */
+    public int optimize(Program program) {
+        int removed = 0;
+        while (true) {
+            ControlGraph controlGraph = new ControlGraph(program);
+            Liveness liveness = new Liveness(controlGraph);
+            ArrayList<Instruction> instructions = program.getInstructions();
+            boolean[] dead = new boolean[instructions.size()];
+            int count = 0;
+            for (BasicBlock block : controlGraph.getBlocks()) {
+                long[] live = liveness.getBlockOut(block.getId()).clone();
+                for (int i = block.getEnd() - 1; i >= block.getStart(); i--) {
+                    Instruction instruction = instructions.get(i);
+                    if (isDead(instruction, controlGraph, live)) {
+                        dead[i] = true;
+                        count++;
+                    } else {
+                        liveness.transfer(instruction, live);
+                    }
+                }
+            }
+            // un label doit rester sur une instruction : les instructions mortes de la fin du programme sont gardées
+            for (int i = instructions.size() - 1; i >= 0 && dead[i]; i--) {
+                if (!instructions.get(i).getLabel().isEmpty()) {
+                    dead[i] = false;
+                    count--;
+                }
+            }
+            if (count == 0) return removed;
+            remove(program, dead);
+            removed += count;
+        }
+    }
+
+    private static boolean isDead(Instruction instruction, ControlGraph controlGraph, long[] live) {
+        int register;
+        if (instruction instanceof UAL ual) {
+            register = ual.getDest();
+        } else if (instruction instanceof UALi uali) {
+            register = uali.getDest();
+        } else if (instruction instanceof Mem mem && mem.getName().equals("LD")) {
+            register = mem.getDest();
+        } else {
+            return false;
+        }
+        if (register < ConflictGraph.RESERVED_REGISTERS) return false;
+        int id = controlGraph.getRegisterId(register);
+        return (live[id >>> 6] & (1L << (id & 63))) == 0;
+    }
+
+    /**
+     * Retire les instructions mortes ; le label d'une instruction retirée passe sur la suivante,
+     * ou, si elle a déjà un label, les sauts vers l'ancien label sont redirigés vers le sien
+     */
+    static void remove(Program program, boolean[] dead) {
+        ArrayList<Instruction> instructions = program.getInstructions();
+        ArrayList<Instruction> kept = new ArrayList<>();
+        HashMap<String, String> aliases = new HashMap<>();
+        ArrayList<String> pending = new ArrayList<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (dead[i]) {
+                if (!instruction.getLabel().isEmpty()) pending.add(instruction.getLabel());
+                continue;
+            }
+            if (!pending.isEmpty()) {
+                if (instruction.getLabel().isEmpty()) instruction.setLabel(pending.remove(0));
+                for (String label : pending) aliases.put(label, instruction.getLabel());
+                pending.clear();
+            }
+            kept.add(instruction);
+        }
+        for (Instruction instruction : kept) {
+            if (instruction instanceof CondJump condJump && aliases.containsKey(condJump.getAddress())) {
+                condJump.setAddress(aliases.get(condJump.getAddress()));
+            } else if (instruction instanceof JumpCall jumpCall && aliases.containsKey(jumpCall.getAddress())) {
+                jumpCall.setAddress(aliases.get(jumpCall.getAddress()));
+            }
+        }
+        instructions.clear();
+        instructions.addAll(kept);
+    }
+}
@@ -0,0 +1,33 @@
+package src.Optimizer;
+
+import src.Asm.Instruction;
+import src.Asm.UALi;
+import java.util.List;
+
+/**
+ * Supprime une opération avec constante qui ne change pas son registre : ADDi R R 0, MULi R R 1, SLi R R 0...
+ * CodeGenerator en produit en chargeant la constante 0 (XOR R R R puis ADDi R R 0).
+ */
+public class IdentityRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "identite";
+    }
+
+    @Override
+    public int getWindowSize() {
+        return 1;
+    }
+
+    @Override
+    public List<Instruction> rewrite(List<Instruction> window, Instruction next, PeepholeOptimizer optimizer) {
+        if (!(window.get(0) instanceof UALi uali) || uali.getDest() != uali.getSr()) return null;
+        boolean identity = switch (uali.getName()) {
+            case "ADD", "SUB", "OR", "XOR", "SL", "SR" -> uali.getImm() == 0;
+            case "MUL", "DIV" -> uali.getImm() == 1;
+            case "AND" -> uali.getImm() == -1;
+            default -> false;
+        };
+        return identity ? List.of() : null;
+    }
+}
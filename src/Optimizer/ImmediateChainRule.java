@@ -0,0 +1,44 @@
+package src.Optimizer;
+
+import src.Asm.Instruction;
+import src.Asm.UALi;
+import java.util.List;
+
+/**
+ * Regroupe deux additions ou soustractions de constantes sur le même registre : ADDi R R a ; SUBi R R b devient ADDi R R (a - b).
+ * Les pointeurs de pile de stackRegister et unstackRegister s'annulent ainsi souvent.
+ */
+public class ImmediateChainRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "cumul-constantes";
+    }
+
+    @Override
+    public int getWindowSize() {
+        return 2;
+    }
+
+    @Override
+    public List<Instruction> rewrite(List<Instruction> window, Instruction next, PeepholeOptimizer optimizer) {
+        if (!(window.get(0) instanceof UALi first) || !(window.get(1) instanceof UALi second)) return null;
+        int register = first.getDest();
+        if (first.getSr() != register || second.getDest() != register || second.getSr() != register) return null;
+        if (offset(first) == Long.MIN_VALUE || offset(second) == Long.MIN_VALUE) return null;
+        long total = offset(first) + offset(second);
+        if (total < -Integer.MAX_VALUE || total > Integer.MAX_VALUE) return null;
+        UALi.Op op = total < 0 ? UALi.Op.SUB : UALi.Op.ADD;
+        return List.of(new UALi(op, register, register, (int) Math.abs(total)));
+    }
+
+    /**
+     * Retourne la constante ajoutée par une instruction, Long.MIN_VALUE si ce n'est ni ADDi ni SUBi
+     */
+    private static long offset(UALi uali) {
+        return switch (uali.getName()) {
+            case "ADD" -> uali.getImm();
+            case "SUB" -> -(long) uali.getImm();
+            default -> Long.MIN_VALUE;
+        };
+    }
+}
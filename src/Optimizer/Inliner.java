@@ -0,0 +1,296 @@
+package src.Optimizer;
+
+import src.ConflictGraph;
+import src.Asm.CondJump;
+import src.Asm.IO;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.Ret;
+import src.Asm.Stop;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Intégration des fonctions sur le code linéaire, entre CodeGenerator et PeepholeOptimizer : un CALL vers une fonction
+ * du programme qui n'est pas récursive est remplacé par une copie de son code, ses RET devenant des sauts vers
+ * l'instruction qui suit le CALL. Les arguments sont déjà passés dans les registres des paramètres et le résultat
+ * dans le registre de retour, qui sont gardés ; les autres registres et les labels de la copie sont renommés.
+ * Une fonction est intégrée si elle ne dépasse pas le seuil en nombre d'instructions, ou si elle n'est appelée qu'une fois
+ * (sa copie remplace alors l'original, supprimé avec les fonctions qui ne sont plus appelées).
+ * Les fonctions sont traitées des appelées vers les appelantes : la taille d'une fonction compte ce qu'on y a déjà intégré.
+ * Les fonctions de l'exécution (*tab_access, *alloc...) reçoivent leurs arguments sur la pile et ne sont jamais intégrées.
+ */
+public class Inliner {
+    /**
+     * Seuil par défaut : une fonction de quelques tests et calculs, pas une boucle sur un tableau
+     */
+    public static final int DEFAULT_THRESHOLD = 24;
+
+    private final int threshold;
+    private final List<String> decisions;
+    private ArrayList<Instruction> code;
+    private Set<String> entries;
+    private int nextRegister;
+    private int copies;
+
+    /**
+     * Constructeur
+     * @param threshold taille maximale, en instructions, d'une fonction intégrée à chacun de ses appels
+     */
+    public Inliner(int threshold) {
+        this.threshold = threshold;
+        this.decisions = new ArrayList<>();
+    }
+
+    /**
+     * Getter des décisions prises, une ligne par appel examiné
+     * @return List<String> les décisions, dans l'ordre où elles ont été prises
+     */
+    public List<String> getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * Intègre les fonctions, la liste d'instructions du programme est modifiée
+     * @param program
+     * @return int nombre d'appels remplacés
+     */
+    public int optimize(Program program) {
+        this.code = program.getInstructions();
+        this.entries = new HashSet<>();
+        Map<String, Set<String>> callees = new LinkedHashMap<>();
+        for (Instruction instruction : code) {
+            if (instruction instanceof JumpCall call && call.getName().equals("CALL")) entries.add(call.getAddress());
+            for (int register : mentioned(instruction)) nextRegister = Math.max(nextRegister, register + 1);
+        }
+        for (String function : entries) {
+            int start = findEntry(function);
+            if (start < 0) continue;
+            Set<String> targets = new HashSet<>();
+            for (int i = start; i < findEnd(start); i++) {
+                if (code.get(i) instanceof JumpCall jump && entries.contains(jump.getAddress())) targets.add(jump.getAddress());
+            }
+            callees.put(function, targets);
+        }
+
+        // ordre postfixe du graphe d'appel : chaque fonction après celles qu'elle appelle
+        List<String> order = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        for (String function : callees.keySet()) postOrder(function, callees, visited, order);
+
+        int inlined = 0;
+        for (String function : order) {
+            if (function.startsWith("*")) continue;
+            List<Integer> calls = findCalls(function);
+            if (calls.isEmpty()) continue;
+            int start = findEntry(function);
+            int size = findEnd(start) - start;
+            String refusal = null;
+            if (reaches(function, function, callees, new HashSet<>())) refusal = "récursive";
+            else if (size > threshold && calls.size() > 1) refusal = size + " instructions > seuil " + threshold + ", " + calls.size() + " appels";
+            else if (!isClosed(start)) refusal = "saut hors de la fonction";
+
+            for (int k = calls.size() - 1; k >= 0; k--) { // de la fin vers le début, les positions des appels précédents restent valables
+                int call = calls.get(k);
+                String site = function + " dans " + findFunction(call);
+                if (refusal != null) {
+                    decisions.add(site + " : gardée (" + refusal + ")");
+                    continue;
+                }
+                decisions.add(site + " : intégrée (" + size + " instructions" + (calls.size() == 1 ? ", seul appel" : "") + ")");
+                inline(call, findEntry(function));
+                inlined++;
+            }
+            if (refusal == null) removeFunction(function);
+        }
+        return inlined;
+    }
+
+    private static void postOrder(String function, Map<String, Set<String>> callees, Set<String> visited, List<String> order) {
+        if (!visited.add(function)) return;
+        for (String callee : callees.getOrDefault(function, Set.of())) postOrder(callee, callees, visited, order);
+        order.add(function);
+    }
+
+    /**
+     * Indique si target est atteignable depuis function par des appels (ou des sauts vers une entrée de fonction)
+     */
+    private static boolean reaches(String function, String target, Map<String, Set<String>> callees, Set<String> visited) {
+        for (String callee : callees.getOrDefault(function, Set.of())) {
+            if (callee.equals(target)) return true;
+            if (visited.add(callee) && reaches(callee, target, callees, visited)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Retourne la position de l'instruction qui porte le label d'une fonction, -1 si elle n'existe pas
+     */
+    private int findEntry(String function) {
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).getLabel().equals(function)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Retourne la position qui suit la dernière instruction d'une fonction : l'entrée de la fonction suivante ou la fin du programme
+     */
+    private int findEnd(int start) {
+        for (int i = start + 1; i < code.size(); i++) {
+            if (entries.contains(code.get(i).getLabel())) return i;
+        }
+        return code.size();
+    }
+
+    /**
+     * Retourne le nom de la fonction qui contient une instruction
+     */
+    private String findFunction(int position) {
+        for (int i = position; i >= 0; i--) {
+            if (entries.contains(code.get(i).getLabel())) return code.get(i).getLabel();
+        }
+        return "";
+    }
+
+    private List<Integer> findCalls(String function) {
+        List<Integer> calls = new ArrayList<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i) instanceof JumpCall call && call.getName().equals("CALL") && call.getAddress().equals(function)) calls.add(i);
+        }
+        return calls;
+    }
+
+    /**
+     * Indique si les sauts d'une fonction restent dans son code, et si elle ne s'arrête que par RET
+     */
+    private boolean isClosed(int start) {
+        int end = findEnd(start);
+        Set<String> labels = new HashSet<>();
+        for (int i = start; i < end; i++) labels.add(code.get(i).getLabel());
+        for (int i = start; i < end; i++) {
+            Instruction instruction = code.get(i);
+            if (instruction instanceof Stop) return false;
+            if (instruction instanceof CondJump jump && !labels.contains(jump.getAddress())) return false;
+            if (instruction instanceof JumpCall jump && jump.getName().equals("JMP") && !labels.contains(jump.getAddress())) return false;
+        }
+        Instruction last = code.get(end - 1);
+        return last instanceof Ret || last.getName().equals("JMP"); // pas de chute dans la fonction suivante
+    }
+
+    /**
+     * Remplace un CALL par une copie de la fonction appelée
+     * @param call position du CALL
+     * @param start position de l'entrée de la fonction
+     */
+    private void inline(int call, int start) {
+        int end = findEnd(start);
+        copies++;
+
+        // registres renommés : ceux qu'on ne trouve que dans la fonction (ni paramètres, ni retour, ni SP et TP)
+        Map<Integer, Integer> mentions = new HashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (i >= start && i < end) continue;
+            for (int register : mentioned(code.get(i))) mentions.merge(register, 1, Integer::sum);
+        }
+        Map<Integer, Integer> registers = new HashMap<>();
+        for (int i = start; i < end; i++) {
+            for (int register : mentioned(code.get(i))) {
+                if (register >= ConflictGraph.RESERVED_REGISTERS && !mentions.containsKey(register) && !registers.containsKey(register)) {
+                    registers.put(register, nextRegister++);
+                }
+            }
+        }
+
+        // labels gardés : ceux qui sont la cible d'un saut de la fonction, un saut vers un RET allant directement à la suite de l'appel
+        Instruction next = code.get(call + 1);
+        String returnLabel = next.getLabel().isEmpty() ? "*inline" + copies + "_end" : next.getLabel();
+        Set<String> targets = new HashSet<>();
+        for (int i = start; i < end; i++) {
+            if (code.get(i) instanceof CondJump jump) targets.add(jump.getAddress());
+            if (code.get(i) instanceof JumpCall jump && jump.getName().equals("JMP")) targets.add(jump.getAddress());
+        }
+        Map<String, String> labels = new HashMap<>();
+        for (int i = start; i < end; i++) {
+            String label = code.get(i).getLabel();
+            if (!targets.contains(label)) continue;
+            if (code.get(i) instanceof Ret) labels.put(label, returnLabel);
+            else labels.put(label, (label.startsWith("*") ? "" : "*") + label + "_inline" + copies);
+        }
+        String callLabel = code.get(call).getLabel();
+        if (!callLabel.isEmpty() && !(code.get(start) instanceof Ret)) labels.put(code.get(start).getLabel(), callLabel);
+
+        List<Instruction> copy = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            Instruction instruction = code.get(i);
+            String label = labels.getOrDefault(instruction.getLabel(), "");
+            if (instruction instanceof Ret) {
+                if (i == end - 1 && (!copy.isEmpty() || callLabel.isEmpty())) break; // le dernier RET continue simplement après l'appel
+                label = i == start ? callLabel : "";
+            }
+            copy.add(copy(instruction, label, registers, labels, returnLabel));
+        }
+        if (copy.stream().anyMatch(instruction -> instruction instanceof JumpCall jump && jump.getAddress().equals(returnLabel))) {
+            next.setLabel(returnLabel);
+        }
+        code.remove(call);
+        code.addAll(call, copy);
+    }
+
+    /**
+     * Retourne une copie d'une instruction de la fonction intégrée, RET devenant un saut vers la suite de l'appel
+     */
+    private static Instruction copy(Instruction instruction, String label, Map<Integer, Integer> registers, Map<String, String> labels, String returnLabel) {
+        if (instruction instanceof UAL ual) {
+            return new UAL(label, UAL.Op.valueOf(ual.getName()), rename(ual.getDest(), registers), rename(ual.getSr1(), registers), rename(ual.getSr2(), registers));
+        } else if (instruction instanceof UALi uali) {
+            return new UALi(label, UALi.Op.valueOf(uali.getName()), rename(uali.getDest(), registers), rename(uali.getSr(), registers), uali.getImm());
+        } else if (instruction instanceof Mem mem) {
+            return new Mem(label, Mem.Op.valueOf(mem.getName()), rename(mem.getDest(), registers), rename(mem.getAddress(), registers));
+        } else if (instruction instanceof CondJump jump) {
+            return new CondJump(label, CondJump.Op.valueOf(jump.getName()), rename(jump.getSr1(), registers), rename(jump.getSr2(), registers), labels.get(jump.getAddress()));
+        } else if (instruction instanceof IO io) {
+            return new IO(label, IO.Op.valueOf(io.getName()), rename(io.getReg(), registers));
+        } else if (instruction instanceof JumpCall jump) {
+            String address = jump.getName().equals("JMP") ? labels.get(jump.getAddress()) : jump.getAddress();
+            return new JumpCall(label, JumpCall.Op.valueOf(jump.getName()), address);
+        } else if (instruction instanceof Ret) {
+            return new JumpCall(label, JumpCall.Op.JMP, returnLabel);
+        }
+        throw new IllegalArgumentException("Instruction impossible à intégrer : " + instruction);
+    }
+
+    private static int rename(int register, Map<Integer, Integer> registers) {
+        return registers.getOrDefault(register, register);
+    }
+
+    /**
+     * Retourne les registres écrits dans une instruction, lus ou non (XOR R R R ne lit pas R mais le nomme)
+     */
+    private static int[] mentioned(Instruction instruction) {
+        if (instruction instanceof UAL ual) return new int[] { ual.getDest(), ual.getSr1(), ual.getSr2() };
+        if (instruction instanceof UALi uali) return new int[] { uali.getDest(), uali.getSr() };
+        if (instruction instanceof Mem mem) return new int[] { mem.getDest(), mem.getAddress() };
+        if (instruction instanceof CondJump jump) return new int[] { jump.getSr1(), jump.getSr2() };
+        if (instruction instanceof IO io) return new int[] { io.getReg() };
+        return new int[0];
+    }
+
+    /**
+     * Supprime le code d'une fonction qui n'est plus appelée
+     */
+    private void removeFunction(String function) {
+        if (!findCalls(function).isEmpty()) return;
+        int start = findEntry(function);
+        code.subList(start, findEnd(start)).clear();
+    }
+}
@@ -0,0 +1,45 @@
+package src.Optimizer;
+
+import src.Asm.CondJump;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import java.util.List;
+
+/**
+ * Inverse un saut conditionnel qui ne fait qu'éviter un JMP : JEQU Ra Rb L1 ; JMP L2 ; L1: devient JNEQ Ra Rb L2 ; L1:
+ */
+public class InvertedBranchRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "saut-inverse";
+    }
+
+    @Override
+    public int getWindowSize() {
+        return 2;
+    }
+
+    @Override
+    public List<Instruction> rewrite(List<Instruction> window, Instruction next, PeepholeOptimizer optimizer) {
+        if (!(window.get(0) instanceof CondJump condJump)) return null;
+        if (!(window.get(1) instanceof JumpCall jump) || !jump.getName().equals("JMP")) return null;
+        if (next == null || !condJump.getAddress().equals(next.getLabel())) return null;
+        return List.of(new CondJump(inverse(condJump.getName()), condJump.getSr1(), condJump.getSr2(), jump.getAddress()));
+    }
+
+    /**
+     * Retourne la condition contraire
+     * @param name nom du saut conditionnel
+     * @return CondJump.Op
+     */
+    static CondJump.Op inverse(String name) {
+        return switch (name) {
+            case "JEQU" -> CondJump.Op.JNEQ;
+            case "JNEQ" -> CondJump.Op.JEQU;
+            case "JINF" -> CondJump.Op.JSEQ;
+            case "JSEQ" -> CondJump.Op.JINF;
+            case "JSUP" -> CondJump.Op.JIEQ;
+            default -> CondJump.Op.JSUP;
+        };
+    }
+}
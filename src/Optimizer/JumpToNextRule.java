@@ -0,0 +1,35 @@
+package src.Optimizer;
+
+import src.Asm.CondJump;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import java.util.List;
+
+/**
+ * Supprime un saut, conditionnel ou non, vers l'instruction qui le suit
+ */
+public class JumpToNextRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "saut-suivant";
+    }
+
+    @Override
+    public int getWindowSize() {
+        return 1;
+    }
+
+    @Override
+    public List<Instruction> rewrite(List<Instruction> window, Instruction next, PeepholeOptimizer optimizer) {
+        if (next == null || next.getLabel().isEmpty()) return null;
+        String target;
+        if (window.get(0) instanceof CondJump condJump) {
+            target = condJump.getAddress();
+        } else if (window.get(0) instanceof JumpCall jump && jump.getName().equals("JMP")) {
+            target = jump.getAddress();
+        } else {
+            return null;
+        }
+        return target.equals(next.getLabel()) ? List.of() : null;
+    }
+}
@@ -0,0 +1,31 @@
+package src.Optimizer;
+
+import src.Asm.Instruction;
+import src.Asm.Mem;
+import java.util.List;
+
+/**
+ * Supprime l'écriture d'une valeur à l'adresse d'où elle vient d'être lue : LD Ra Rp ; ST Ra Rp devient LD Ra Rp.
+ * Arrive quand un registre est dépilé puis aussitôt rempilé autour d'un appel de fonction.
+ */
+public class LoadStoreRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "ecriture-inutile";
+    }
+
+    @Override
+    public int getWindowSize() {
+        return 2;
+    }
+
+    @Override
+    public List<Instruction> rewrite(List<Instruction> window, Instruction next, PeepholeOptimizer optimizer) {
+        if (!(window.get(0) instanceof Mem load) || !load.getName().equals("LD")) return null;
+        if (!(window.get(1) instanceof Mem store) || !store.getName().equals("ST")) return null;
+        // LD Rp Rp change l'adresse de l'écriture
+        if (load.getDest() == load.getAddress()) return null;
+        if (load.getDest() != store.getDest() || load.getAddress() != store.getAddress()) return null;
+        return List.of(load);
+    }
+}
@@ -0,0 +1,283 @@
+package src.Optimizer;
+
+import src.BasicBlock;
+import src.ConflictGraph;
+import src.ControlGraph;
+import src.Dominators;
+import src.Liveness;
+import src.Loop;
+import src.NaturalLoops;
+import src.Asm.CondJump;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.Ret;
+import src.Asm.Stop;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sortie des calculs invariants des boucles sur le code linéaire : un UAL, UALi ou LD d'une boucle naturelle
+ * dont les registres lus ne sont définis dans la boucle que par d'autres calculs invariants est recalculé une fois,
+ * dans un registre neuf, par un pré-en-tête placé avant l'en-tête ; dans la boucle il devient une copie de ce registre,
+ * que CopyPropagation et DeadCodeElimination font ensuite disparaître.
+ * Les registres n'étant pas en forme SSA, un registre lu est invariant quand la seule définition qui l'atteint
+ * dans la boucle est invariante, ou quand aucune ne l'atteint (sa valeur est celle de l'entrée de la boucle).
+ * Un LD n'est invariant que si la boucle ne contient ni ST ni CALL. Un LD, DIV ou MOD peut arrêter le programme :
+ * il n'est sorti que si son bloc est exécuté dès qu'on entre dans la boucle, éventuellement après le test de l'en-tête,
+ * que le pré-en-tête refait alors avant les calculs sortis (test de garde).
+ * Les boucles internes sont traitées d'abord, leur pré-en-tête pouvant ensuite sortir de la boucle qui les contient.
+ */
+public class LoopInvariantCodeMotion {
+    private ArrayList<Instruction> code;
+    private ControlGraph controlGraph;
+    private int nextRegister;
+    /**
+     * Labels des en-têtes déjà traités, l'ancien comme le nouveau
+     */
+    private Set<String> done;
+
+    /**
+     * Sort les calculs invariants des boucles, la liste d'instructions du programme est modifiée
+     * @param program
+     * @return int nombre d'instructions sorties des boucles
+     */
+    public int optimize(Program program) {
+        this.code = program.getInstructions();
+        for (Instruction instruction : code) {
+            for (int register : Liveness.getDef(instruction)) nextRegister = Math.max(nextRegister, register + 1);
+            for (int register : Liveness.getUse(instruction)) nextRegister = Math.max(nextRegister, register + 1);
+        }
+        int hoisted = 0;
+        this.done = new HashSet<>();
+        boolean changed = true;
+        while (changed) { // le graphe est reconstruit après chaque boucle modifiée
+            changed = false;
+            this.controlGraph = new ControlGraph(program);
+            NaturalLoops loops = new NaturalLoops(controlGraph);
+            for (Loop loop : loops.getLoops()) {
+                Instruction header = code.get(controlGraph.getBlock(loop.getHeader()).getStart());
+                if (!done.add(header.getLabel())) continue;
+                int count = hoist(program, loop, loops.getDominators());
+                if (count > 0) {
+                    hoisted += count;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return hoisted;
+    }
+
+    /**
+     * Sort les calculs invariants d'une boucle
+     * @return int nombre d'instructions sorties
+     */
+    private int hoist(Program program, Loop loop, Dominators dominators) {
+        BasicBlock header = controlGraph.getBlock(loop.getHeader());
+        String headerLabel = code.get(header.getStart()).getLabel();
+        if (headerLabel.isEmpty()) return 0;
+        if (header.getStart() > 0) { // le pré-en-tête se place avant l'en-tête : aucun bloc de la boucle ne doit y tomber
+            int previous = controlGraph.getBlockOf(header.getStart() - 1);
+            Instruction last = code.get(header.getStart() - 1);
+            boolean fallsThrough = !(last instanceof Ret || last instanceof Stop || last.getName().equals("JMP"));
+            if (fallsThrough && loop.contains(previous)) return 0;
+        }
+
+        boolean memoryWritten = false;
+        for (int b : loop.getBlocks()) {
+            for (Instruction instruction : controlGraph.getBlock(b).getInstructions()) {
+                if (instruction.getName().equals("ST") || instruction.getName().equals("CALL")) memoryWritten = true;
+                // un registre vivant à travers un CALL y est sauvé et restauré, ce qui coûte plus que le calcul sorti
+                // quand l'appel a lieu à chaque tour ou appelle une fonction du programme ; les routines (*tab_access...)
+                // appelées hors de ce cas sont des chemins lents
+                if (instruction instanceof JumpCall call && call.getName().equals("CALL")
+                        && (!call.getAddress().startsWith("*") || dominatesLatches(b, loop, dominators))) return 0;
+            }
+        }
+        ReachingDefinitions reaching = new ReachingDefinitions(controlGraph, program, loop);
+
+        // blocs par lesquels on peut sortir de la boucle (RET compris)
+        ArrayList<Integer> exits = new ArrayList<>();
+        for (int b : loop.getBlocks()) {
+            BasicBlock block = controlGraph.getBlock(b);
+            boolean exit = block.getSuccessors().length == 0;
+            for (int s : block.getSuccessors()) exit |= !loop.contains(s);
+            if (exit) exits.add(b);
+        }
+        boolean guardable = isGuardable(loop, header);
+
+        // calculs invariants, dans un ordre où chacun suit ceux dont il lit le résultat
+        List<Integer> invariants = new ArrayList<>();
+        Map<Integer, Boolean> invariant = new HashMap<>();
+        boolean needsGuard = false;
+        boolean found = true;
+        while (found) {
+            found = false;
+            for (int b : loop.getBlocks()) {
+                BasicBlock block = controlGraph.getBlock(b);
+                for (int i = block.getStart(); i < block.getEnd(); i++) {
+                    if (invariant.containsKey(i) || !isCandidate(code.get(i), memoryWritten)) continue;
+                    if (!operandsInvariant(i, reaching, invariant)) continue;
+                    boolean guard = false;
+                    if (mayFail(code.get(i)) && !executedOnEntry(b, exits, dominators)) {
+                        if (!guardable || !executedAfterTest(b, loop, exits, dominators)) continue;
+                        guard = true;
+                    }
+                    needsGuard |= guard;
+                    invariant.put(i, true);
+                    invariants.add(i);
+                    found = true;
+                }
+            }
+        }
+        if (invariants.isEmpty()) return 0;
+
+        // pré-en-tête : le test de garde éventuel, puis les calculs dans des registres neufs
+        List<Instruction> preheader = new ArrayList<>();
+        if (needsGuard) {
+            for (Instruction instruction : header.getInstructions()) preheader.add(copy(instruction, Map.of(), -1));
+        }
+        Map<Integer, Integer> results = new HashMap<>();
+        for (int i : invariants) {
+            Map<Integer, Integer> operands = new HashMap<>();
+            for (int register : Liveness.getUse(code.get(i))) {
+                int definition = reaching.getSingleDefinition(i, register);
+                if (definition >= 0) operands.put(register, results.get(definition));
+            }
+            int result = nextRegister++;
+            results.put(i, result);
+            preheader.add(copy(code.get(i), operands, result));
+        }
+        for (int i : invariants) {
+            Instruction instruction = code.get(i);
+            code.set(i, new UALi(instruction.getLabel(), UALi.Op.ADD, Liveness.getDef(instruction)[0], results.get(i), 0));
+        }
+
+        // l'en-tête prend un nouveau label pour les arcs retour, le pré-en-tête garde l'ancien pour les entrées
+        String bodyLabel = (headerLabel.startsWith("*") ? "" : "*") + headerLabel + "_boucle";
+        for (int b : loop.getBlocks()) {
+            BasicBlock block = controlGraph.getBlock(b);
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                if (code.get(i) instanceof CondJump jump && jump.getAddress().equals(headerLabel)) jump.setAddress(bodyLabel);
+                if (code.get(i) instanceof JumpCall jump && jump.getName().equals("JMP") && jump.getAddress().equals(headerLabel)) jump.setAddress(bodyLabel);
+            }
+        }
+        code.get(header.getStart()).setLabel(bodyLabel);
+        done.add(bodyLabel);
+        preheader.get(0).setLabel(headerLabel);
+        code.addAll(header.getStart(), preheader);
+        return invariants.size();
+    }
+
+    /**
+     * Indique si une instruction est un calcul qu'on peut sortir d'une boucle
+     */
+    private static boolean isCandidate(Instruction instruction, boolean memoryWritten) {
+        if (instruction instanceof UAL || instruction instanceof UALi) {
+            return Liveness.getDef(instruction)[0] >= ConflictGraph.RESERVED_REGISTERS;
+        }
+        if (instruction instanceof Mem mem && mem.getName().equals("LD")) {
+            return !memoryWritten && mem.getDest() >= ConflictGraph.RESERVED_REGISTERS;
+        }
+        return false;
+    }
+
+    /**
+     * Indique si une instruction peut arrêter le programme : lecture hors de la mémoire ou division par zéro
+     */
+    private static boolean mayFail(Instruction instruction) {
+        if (instruction instanceof Mem) return true;
+        boolean division = instruction.getName().equals("DIV") || instruction.getName().equals("MOD");
+        if (instruction instanceof UALi uali) return division && uali.getImm() == 0;
+        return division;
+    }
+
+    private boolean operandsInvariant(int index, ReachingDefinitions reaching, Map<Integer, Boolean> invariant) {
+        for (int register : Liveness.getUse(code.get(index))) {
+            if (reaching.isFromEntry(index, register)) continue;
+            int definition = reaching.getSingleDefinition(index, register);
+            if (definition < 0 || !invariant.containsKey(definition)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indique si un bloc est exécuté avant toute sortie de la boucle
+     */
+    private static boolean executedOnEntry(int block, List<Integer> exits, Dominators dominators) {
+        for (int exit : exits) {
+            if (!dominators.dominates(block, exit)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indique si un bloc est exécuté à chaque tour de la boucle
+     */
+    private static boolean dominatesLatches(int block, Loop loop, Dominators dominators) {
+        for (int latch : loop.getLatches()) {
+            if (!dominators.dominates(block, latch)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indique si un bloc est exécuté avant de revenir à l'en-tête ou de sortir autrement que par son test
+     */
+    private static boolean executedAfterTest(int block, Loop loop, List<Integer> exits, Dominators dominators) {
+        if (!dominatesLatches(block, loop, dominators)) return false;
+        for (int exit : exits) {
+            if (exit != loop.getHeader() && !dominators.dominates(block, exit)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indique si l'en-tête peut être refait comme test de garde : des calculs terminés par un saut conditionnel
+     * qui sort de la boucle, la boucle continuant à l'instruction suivante
+     */
+    private boolean isGuardable(Loop loop, BasicBlock header) {
+        if (!(header.getLast() instanceof CondJump) || header.getEnd() >= code.size()) return false;
+        if (!loop.contains(controlGraph.getBlockOf(header.getEnd()))) return false;
+        for (int s : header.getSuccessors()) {
+            if (s != controlGraph.getBlockOf(header.getEnd()) && loop.contains(s)) return false;
+        }
+        for (Instruction instruction : header.getInstructions()) {
+            if (!(instruction instanceof UAL || instruction instanceof UALi || instruction instanceof CondJump
+                    || instruction.getName().equals("LD"))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Retourne une copie sans label d'une instruction
+     * @param operands registres lus à remplacer
+     * @param result registre écrit à la place de celui de l'instruction, -1 pour le garder
+     */
+    private static Instruction copy(Instruction instruction, Map<Integer, Integer> operands, int result) {
+        if (instruction instanceof UAL ual) {
+            if (Liveness.getUse(ual).length == 0) { // XOR R R R : la constante 0, sans lecture
+                int dest = result < 0 ? ual.getDest() : result;
+                return new UAL(UAL.Op.valueOf(ual.getName()), dest, dest, dest);
+            }
+            return new UAL(UAL.Op.valueOf(ual.getName()), result < 0 ? ual.getDest() : result,
+                    operands.getOrDefault(ual.getSr1(), ual.getSr1()), operands.getOrDefault(ual.getSr2(), ual.getSr2()));
+        } else if (instruction instanceof UALi uali) {
+            return new UALi(UALi.Op.valueOf(uali.getName()), result < 0 ? uali.getDest() : result,
+                    operands.getOrDefault(uali.getSr(), uali.getSr()), uali.getImm());
+        } else if (instruction instanceof Mem mem) {
+            return new Mem(Mem.Op.valueOf(mem.getName()), result < 0 ? mem.getDest() : result, operands.getOrDefault(mem.getAddress(), mem.getAddress()));
+        } else if (instruction instanceof CondJump jump) {
+            return new CondJump(CondJump.Op.valueOf(jump.getName()), jump.getSr1(), jump.getSr2(), jump.getAddress());
+        }
+        throw new IllegalArgumentException("Instruction impossible à sortir de la boucle : " + instruction);
+    }
+}
@@ -0,0 +1,232 @@
+package src.Optimizer;
+
+import src.ConflictGraph;
+import src.Asm.CondJump;
+import src.Asm.IO;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.Ret;
+import src.Asm.Stop;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optimisation à lucarne du code linéaire, entre CodeGenerator et ControlGraph : les règles sont essayées à chaque position
+ * du programme jusqu'à ce qu'aucune ne s'applique plus, et le nombre d'applications de chaque règle est compté.
+ */
+public class PeepholeOptimizer {
+    private final ArrayList<PeepholeRule> rules;
+    private final Map<String, Integer> hits;
+    private int[] mentions;
+
+    /**
+     * Constructeur, sans règle
+     */
+    public PeepholeOptimizer() {
+        this.rules = new ArrayList<>();
+        this.hits = new LinkedHashMap<>();
+        this.mentions = new int[0];
+    }
+
+    /**
+     * Retourne un optimiseur avec toutes les règles de ce package
+     * @return PeepholeOptimizer
+     */
+    public static PeepholeOptimizer withDefaultRules() {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        optimizer.addRule(new IdentityRule());
+        optimizer.addRule(new ImmediateChainRule());
+        optimizer.addRule(new StoreLoadRule());
+        optimizer.addRule(new LoadStoreRule());
+        optimizer.addRule(new JumpToNextRule());
+        optimizer.addRule(new InvertedBranchRule());
+        optimizer.addRule(new TemporaryCopyRule(2));
+        optimizer.addRule(new TemporaryCopyRule(3));
+        return optimizer;
+    }
+
+    /**
+     * Ajoute une règle, essayée après les règles déjà ajoutées
+     * @param rule
+     */
+    public void addRule(PeepholeRule rule) {
+        rules.add(rule);
+        hits.putIfAbsent(rule.getName(), 0);
+    }
+
+    /**
+     * Getter du nombre d'applications de chaque règle, cumulé sur tous les programmes optimisés
+     * @return Map<String, Integer> nom de la règle vers nombre d'applications
+     */
+    public Map<String, Integer> getHits() {
+        return hits;
+    }
+
+    /**
+     * Optimise un programme, sa liste d'instructions est modifiée
+     * @param program
+     * @return int nombre de réécritures
+     */
+    public int optimize(Program program) {
+        ArrayList<Instruction> code = program.getInstructions();
+        int maxWindow = 1;
+        for (PeepholeRule rule : rules) maxWindow = Math.max(maxWindow, rule.getWindowSize());
+        mentions = new int[0];
+        for (Instruction instruction : code) count(instruction, 1);
+
+        int rewrites = 0;
+        int i = 0;
+        while (i < code.size()) {
+            boolean rewritten = false;
+            for (PeepholeRule rule : rules) {
+                if (apply(rule, code, i)) {
+                    hits.merge(rule.getName(), 1, Integer::sum);
+                    rewrites++;
+                    rewritten = true;
+                    break;
+                }
+            }
+            // après une réécriture, les fenêtres qui recouvrent le remplacement sont à réexaminer
+            i = rewritten ? Math.max(0, i - maxWindow + 1) : i + 1;
+        }
+        return rewrites;
+    }
+
+    private boolean apply(PeepholeRule rule, ArrayList<Instruction> code, int start) {
+        int size = rule.getWindowSize();
+        if (start + size > code.size()) return false;
+        List<Instruction> window = code.subList(start, start + size);
+        for (int j = 1; j < size; j++) {
+            if (!window.get(j).getLabel().isEmpty()) return false;
+        }
+        Instruction next = start + size < code.size() ? code.get(start + size) : null;
+        List<Instruction> replacement = rule.rewrite(window, next, this);
+        if (replacement == null) return false;
+
+        String label = window.get(0).getLabel();
+        if (!label.isEmpty()) {
+            // le label passe sur la première instruction du remplacement, ou sur la suivante si la fenêtre disparaît
+            Instruction target = replacement.isEmpty() ? next : replacement.get(0);
+            if (target == null || (!target.getLabel().isEmpty() && !target.getLabel().equals(label))) return false;
+            if (target != window.get(0)) window.get(0).setLabel("");
+            target.setLabel(label);
+        }
+        for (Instruction instruction : window) count(instruction, -1);
+        for (Instruction instruction : replacement) count(instruction, 1);
+        window.clear();
+        code.addAll(start, replacement);
+        return true;
+    }
+
+    /**
+     * Teste si toutes les apparitions d'un registre dans le programme sont dans la fenêtre :
+     * il peut alors être renommé ou supprimé sans regarder le reste du programme
+     * @param register
+     * @param window
+     * @return boolean
+     */
+    public boolean isLocal(int register, List<Instruction> window) {
+        if (register < ConflictGraph.RESERVED_REGISTERS) return false;
+        int inWindow = 0;
+        for (Instruction instruction : window) inWindow += mentions(instruction, register);
+        return register < mentions.length && mentions[register] == inWindow;
+    }
+
+    private void count(Instruction instruction, int delta) {
+        for (int register : registers(instruction)) {
+            if (register >= mentions.length) mentions = Arrays.copyOf(mentions, Math.max(2 * mentions.length, register + 1));
+            mentions[register] += delta;
+        }
+    }
+
+    /**
+     * Compte les apparitions d'un registre dans une instruction
+     * @param instruction
+     * @param register
+     * @return int nombre d'apparitions
+     */
+    static int mentions(Instruction instruction, int register) {
+        int result = 0;
+        for (int r : registers(instruction)) {
+            if (r == register) result++;
+        }
+        return result;
+    }
+
+    /**
+     * Retourne les registres qui apparaissent dans une instruction, y compris les opérandes de XOR R R R qui ne sont pas lus
+     * @param instruction
+     * @return int[] numéros des registres, un registre qui apparaît deux fois est répété
+     */
+    static int[] registers(Instruction instruction) {
+        if (instruction instanceof UAL ual) {
+            return new int[] { ual.getDest(), ual.getSr1(), ual.getSr2() };
+        } else if (instruction instanceof UALi uali) {
+            return new int[] { uali.getDest(), uali.getSr() };
+        } else if (instruction instanceof Mem mem) {
+            return new int[] { mem.getDest(), mem.getAddress() };
+        } else if (instruction instanceof CondJump condJump) {
+            return new int[] { condJump.getSr1(), condJump.getSr2() };
+        } else if (instruction instanceof IO io) {
+            return new int[] { io.getReg() };
+        }
+        return new int[0];
+    }
+
+    /**
+     * Copie une instruction en remplaçant un registre par un autre partout où il apparaît, le label est conservé
+     * @param instruction
+     * @param from registre remplacé
+     * @param to registre de remplacement
+     * @return Instruction la nouvelle instruction
+     */
+    static Instruction renamed(Instruction instruction, int from, int to) {
+        String label = instruction.getLabel();
+        if (instruction instanceof UAL ual) {
+            return new UAL(label, UAL.Op.valueOf(ual.getName()), rename(ual.getDest(), from, to),
+                    rename(ual.getSr1(), from, to), rename(ual.getSr2(), from, to));
+        } else if (instruction instanceof UALi uali) {
+            return new UALi(label, UALi.Op.valueOf(uali.getName()), rename(uali.getDest(), from, to),
+                    rename(uali.getSr(), from, to), uali.getImm());
+        } else if (instruction instanceof Mem mem) {
+            return new Mem(label, Mem.Op.valueOf(mem.getName()), rename(mem.getDest(), from, to), rename(mem.getAddress(), from, to));
+        } else if (instruction instanceof CondJump condJump) {
+            return new CondJump(label, CondJump.Op.valueOf(condJump.getName()), rename(condJump.getSr1(), from, to),
+                    rename(condJump.getSr2(), from, to), condJump.getAddress());
+        } else if (instruction instanceof IO io) {
+            return new IO(label, IO.Op.valueOf(io.getName()), rename(io.getReg(), from, to));
+        }
+        return instruction;
+    }
+
+    private static int rename(int register, int from, int to) {
+        return register == from ? to : register;
+    }
+
+    /**
+     * Teste si une instruction ne fait que calculer ses registres de destination : pas de saut, d'écriture en mémoire ni de sortie
+     * @param instruction
+     * @return boolean
+     */
+    static boolean isComputation(Instruction instruction) {
+        if (instruction instanceof UAL || instruction instanceof UALi) return true;
+        if (instruction instanceof Mem mem) return mem.getName().equals("LD");
+        return false;
+    }
+
+    /**
+     * Teste si une instruction modifie le flot d'exécution
+     * @param instruction
+     * @return boolean
+     */
+    static boolean isBranch(Instruction instruction) {
+        return instruction instanceof CondJump || instruction instanceof JumpCall || instruction instanceof Ret || instruction instanceof Stop;
+    }
+}
@@ -0,0 +1,32 @@
+package src.Optimizer;
+
+import src.Asm.Instruction;
+import java.util.List;
+
+/**
+ * Règle de réécriture du PeepholeOptimizer : remplace une fenêtre d'instructions consécutives.
+ * Seule la première instruction de la fenêtre peut porter un label, on n'entre donc dans la fenêtre que par le début.
+ */
+public interface PeepholeRule {
+    /**
+     * Getter du nom de la règle, utilisé pour compter ses applications
+     * @return String nom de la règle
+     */
+    String getName();
+
+    /**
+     * Getter de la taille de la fenêtre
+     * @return int nombre d'instructions examinées
+     */
+    int getWindowSize();
+
+    /**
+     * Réécrit une fenêtre
+     * @param window les instructions de la fenêtre
+     * @param next l'instruction qui suit la fenêtre, null en fin de programme
+     * @param optimizer l'optimiseur, pour savoir si un registre n'apparaît que dans la fenêtre
+     * @return List<Instruction> les instructions de remplacement (le label de la fenêtre est reporté sur la première),
+     *         ou null si la règle ne s'applique pas
+     */
+    List<Instruction> rewrite(List<Instruction> window, Instruction next, PeepholeOptimizer optimizer);
+}
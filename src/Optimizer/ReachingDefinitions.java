@@ -0,0 +1,165 @@
+package src.Optimizer;
+
+import src.BasicBlock;
+import src.ControlGraph;
+import src.Liveness;
+import src.Loop;
+import src.Asm.Instruction;
+import src.Asm.Program;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Définitions qui atteignent les instructions d'une boucle, limitées aux définitions de la boucle :
+ * une définition « entrée » par registre représente sa valeur à l'entrée de la boucle.
+ * Un CALL définit les registres que la fonction appelée peut modifier.
+ */
+public class ReachingDefinitions {
+    private final ControlGraph controlGraph;
+    private final ArrayList<Instruction> code;
+    /**
+     * Les définitions numérotées, (registre, position de l'instruction) : -1 pour la valeur d'entrée du registre
+     */
+    private final ArrayList<int[]> definitions;
+    private final Map<Integer, ArrayList<Integer>> definitionsOf;
+    /**
+     * Pour chaque instruction de la boucle, les positions des définitions qui atteignent chaque registre lu
+     */
+    private final Map<Integer, Map<Integer, ArrayList<Integer>>> reaching;
+
+    /**
+     * Constructeur, calcule directement les définitions
+     * @param controlGraph le graphe de contrôle du programme
+     * @param program le programme du graphe
+     * @param loop la boucle
+     */
+    public ReachingDefinitions(ControlGraph controlGraph, Program program, Loop loop) {
+        this.controlGraph = controlGraph;
+        this.code = program.getInstructions();
+        this.definitions = new ArrayList<>();
+        this.definitionsOf = new HashMap<>();
+        this.reaching = new HashMap<>();
+        for (int b : loop.getBlocks()) {
+            BasicBlock block = controlGraph.getBlock(b);
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                for (int register : defined(code.get(i))) {
+                    if (!definitionsOf.containsKey(register)) {
+                        definitionsOf.put(register, new ArrayList<>());
+                        add(register, -1);
+                    }
+                    add(register, i);
+                }
+            }
+        }
+        int words = (definitions.size() + 63) >>> 6;
+        int blockCount = controlGraph.getBlockCount();
+        long[][] in = new long[blockCount][];
+        long[][] out = new long[blockCount][];
+        for (int b : loop.getBlocks()) out[b] = new long[words];
+        long[] entry = new long[words];
+        for (int d = 0; d < definitions.size(); d++) {
+            if (definitions.get(d)[1] == -1) entry[d >>> 6] |= 1L << (d & 63);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b : loop.getBlocks()) {
+                BasicBlock block = controlGraph.getBlock(b);
+                long[] current = b == loop.getHeader() ? entry.clone() : new long[words];
+                for (int p : block.getPredecessors()) {
+                    if (!loop.contains(p)) continue;
+                    for (int w = 0; w < words; w++) current[w] |= out[p][w];
+                }
+                in[b] = current.clone();
+                for (int i = block.getStart(); i < block.getEnd(); i++) transfer(i, current);
+                for (int w = 0; w < words; w++) {
+                    if (current[w] != out[b][w]) {
+                        out[b] = current;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (int b : loop.getBlocks()) {
+            BasicBlock block = controlGraph.getBlock(b);
+            long[] current = in[b];
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                Map<Integer, ArrayList<Integer>> uses = new HashMap<>();
+                for (int register : Liveness.getUse(code.get(i))) {
+                    ArrayList<Integer> ids = definitionsOf.get(register);
+                    if (ids == null) continue;
+                    ArrayList<Integer> positions = new ArrayList<>();
+                    for (int d : ids) {
+                        if ((current[d >>> 6] & (1L << (d & 63))) != 0) positions.add(definitions.get(d)[1]);
+                    }
+                    uses.put(register, positions);
+                }
+                reaching.put(i, uses);
+                transfer(i, current);
+            }
+        }
+    }
+
+    private void add(int register, int position) {
+        definitionsOf.get(register).add(definitions.size());
+        definitions.add(new int[] { register, position });
+    }
+
+    private int[] defined(Instruction instruction) {
+        long[] callDefs = controlGraph.getCallDefs(instruction);
+        if (callDefs == null) return Liveness.getDef(instruction);
+        ArrayList<Integer> registers = new ArrayList<>();
+        for (int id = Liveness.nextBit(callDefs, 0); id >= 0; id = Liveness.nextBit(callDefs, id + 1)) registers.add(controlGraph.getRegister(id));
+        return registers.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void transfer(int index, long[] current) {
+        for (int register : defined(code.get(index))) {
+            for (int d : definitionsOf.get(register)) {
+                if (definitions.get(d)[1] == index) current[d >>> 6] |= 1L << (d & 63);
+                else current[d >>> 6] &= ~(1L << (d & 63));
+            }
+        }
+    }
+
+    /**
+     * Indique si seule la valeur d'entrée d'un registre atteint une instruction
+     * @param index position d'une instruction de la boucle
+     * @param register un registre lu par l'instruction
+     * @return true si le registre n'est défini par aucune instruction de la boucle qui atteint celle-ci
+     */
+    public boolean isFromEntry(int index, int register) {
+        ArrayList<Integer> positions = reaching.get(index).get(register);
+        return positions == null || (positions.size() == 1 && positions.get(0) == -1);
+    }
+
+    /**
+     * Retourne les définitions d'un registre dans la boucle
+     * @param register un registre
+     * @return ArrayList<Integer> positions des instructions de la boucle qui définissent le registre
+     */
+    public ArrayList<Integer> getDefinitions(int register) {
+        ArrayList<Integer> positions = new ArrayList<>();
+        if (!definitionsOf.containsKey(register)) return positions;
+        for (int d : definitionsOf.get(register)) {
+            if (definitions.get(d)[1] != -1) positions.add(definitions.get(d)[1]);
+        }
+        return positions;
+    }
+
+    /**
+     * Retourne la seule définition de la boucle qui atteint une instruction
+     * @param index position d'une instruction de la boucle
+     * @param register un registre lu par l'instruction
+     * @return int position de la définition, -1 si plusieurs définitions ou la valeur d'entrée l'atteignent
+     */
+    public int getSingleDefinition(int index, int register) {
+        ArrayList<Integer> positions = reaching.get(index).get(register);
+        if (positions == null || positions.size() != 1) return -1;
+        return positions.get(0);
+    }
+}
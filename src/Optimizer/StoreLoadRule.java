@@ -0,0 +1,32 @@
+package src.Optimizer;
+
+import src.Asm.Instruction;
+import src.Asm.Mem;
+import src.Asm.UALi;
+import java.util.List;
+
+/**
+ * Remplace la relecture d'une valeur qui vient d'être écrite à la même adresse par une copie :
+ * ST Ra Rp ; LD Rb Rp devient ST Ra Rp ; ADDi Rb Ra 0 (l'écriture est gardée, la case peut être relue plus tard).
+ * C'est ce qui reste d'un stackRegister suivi d'un unstackRegister une fois les pointeurs de pile regroupés.
+ */
+public class StoreLoadRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "relecture";
+    }
+
+    @Override
+    public int getWindowSize() {
+        return 2;
+    }
+
+    @Override
+    public List<Instruction> rewrite(List<Instruction> window, Instruction next, PeepholeOptimizer optimizer) {
+        if (!(window.get(0) instanceof Mem store) || !store.getName().equals("ST")) return null;
+        if (!(window.get(1) instanceof Mem load) || !load.getName().equals("LD")) return null;
+        if (store.getAddress() != load.getAddress()) return null;
+        if (load.getDest() == store.getDest()) return List.of(store);
+        return List.of(store, new UALi(UALi.Op.ADD, load.getDest(), store.getDest(), 0));
+    }
+}
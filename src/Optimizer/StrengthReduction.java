@@ -0,0 +1,356 @@
+package src.Optimizer;
+
+import src.BasicBlock;
+import src.ConflictGraph;
+import src.ControlGraph;
+import src.Liveness;
+import src.Loop;
+import src.NaturalLoops;
+import src.Asm.CondJump;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Program;
+import src.Asm.Ret;
+import src.Asm.Stop;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Réduction de force des variables d'induction sur le code linéaire. Une variable d'induction de base est un registre
+ * que la boucle ne définit qu'une fois, en lui ajoutant une constante, directement ou par un temporaire recopié
+ * dans le registre (i = i + 1 tel que le produit CodeGenerator).
+ * Un calcul i*s + c + b, où b est un registre que la boucle ne modifie pas, comme l'adresse data + i d'une case
+ * de tableau, devient une copie d'un pointeur courant : le pointeur est calculé une fois avant l'en-tête puis avancé
+ * de s*pas juste après l'incrément de i.
+ * Quand i ne sert plus qu'à son incrément et aux tests de la boucle, les tests comparent le pointeur à la borne
+ * transformée de la même façon (s > 0) et l'incrément de i disparaît.
+ */
+public class StrengthReduction {
+    private ArrayList<Instruction> code;
+    private ControlGraph controlGraph;
+    private int nextRegister;
+    /**
+     * Labels des en-têtes déjà traités
+     */
+    private Set<String> done;
+
+    /**
+     * Remplace les calculs dérivés des variables d'induction par des pointeurs courants,
+     * la liste d'instructions du programme est modifiée
+     * @param program
+     * @return int nombre de calculs remplacés
+     */
+    public int optimize(Program program) {
+        this.code = program.getInstructions();
+        for (Instruction instruction : code) {
+            for (int register : Liveness.getDef(instruction)) nextRegister = Math.max(nextRegister, register + 1);
+            for (int register : Liveness.getUse(instruction)) nextRegister = Math.max(nextRegister, register + 1);
+        }
+        int reduced = 0;
+        this.done = new HashSet<>();
+        boolean changed = true;
+        while (changed) { // le graphe est reconstruit après chaque boucle modifiée
+            changed = false;
+            this.controlGraph = new ControlGraph(program);
+            for (Loop loop : new NaturalLoops(controlGraph).getLoops()) {
+                Instruction header = code.get(controlGraph.getBlock(loop.getHeader()).getStart());
+                if (!done.add(header.getLabel())) continue;
+                int count = reduce(program, loop);
+                if (count > 0) {
+                    reduced += count;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return reduced;
+    }
+
+    /**
+     * Réduit les calculs dérivés des variables d'induction d'une boucle
+     * @return int nombre de calculs remplacés
+     */
+    private int reduce(Program program, Loop loop) {
+        BasicBlock header = controlGraph.getBlock(loop.getHeader());
+        String headerLabel = code.get(header.getStart()).getLabel();
+        if (headerLabel.isEmpty()) return 0;
+        int previous = header.getStart() > 0 ? controlGraph.getBlockOf(header.getStart() - 1) : -1;
+        boolean fallsIntoHeader = previous >= 0 && fallsThrough(code.get(header.getStart() - 1));
+        if (fallsIntoHeader && loop.contains(previous)) return 0; // le pré-en-tête se place avant l'en-tête
+        ReachingDefinitions reaching = new ReachingDefinitions(controlGraph, program, loop);
+
+        // variables d'induction de base : registre -> { position de l'incrément, pas, position du temporaire ou -1 }
+        Map<Integer, int[]> basics = new HashMap<>();
+        for (int b : loop.getBlocks()) {
+            BasicBlock block = controlGraph.getBlock(b);
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                if (!(code.get(i) instanceof UALi uali) || uali.getDest() < ConflictGraph.RESERVED_REGISTERS) continue;
+                int register = uali.getDest();
+                if (reaching.getDefinitions(register).size() != 1) continue;
+                if (step(uali, register) != 0) {
+                    basics.put(register, new int[] { i, step(uali, register), -1 });
+                } else if (ConflictGraph.isCopy(uali) && uali.getSr() != register) {
+                    ArrayList<Integer> temporary = reaching.getDefinitions(uali.getSr());
+                    if (temporary.size() != 1 || temporary.get(0) > i || controlGraph.getBlockOf(temporary.get(0)) != b) continue;
+                    int step = step(code.get(temporary.get(0)), register);
+                    if (step != 0) basics.put(register, new int[] { i, step, temporary.get(0) });
+                }
+            }
+        }
+        if (basics.isEmpty()) return 0;
+
+        // calculs dérivés : position -> { variable de base, facteur, registre ajouté ou -1, constante,
+        // position de la lecture de i, nombre d'instructions du calcul }
+        Map<Integer, int[]> families = new HashMap<>();
+        for (int b : loop.getBlocks()) {
+            BasicBlock block = controlGraph.getBlock(b);
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                Instruction instruction = code.get(i);
+                int[] def = Liveness.getDef(instruction);
+                if (def.length != 1 || def[0] < ConflictGraph.RESERVED_REGISTERS || basics.containsKey(def[0])) continue;
+                if (reaching.getDefinitions(def[0]).size() != 1) continue;
+                int[] family = derive(instruction, i, reaching, basics, families);
+                if (family == null) continue;
+                families.put(i, family);
+            }
+        }
+        // seuls les calculs dont le résultat sert hors de sa famille reçoivent un pointeur, les étapes intermédiaires disparaissent
+        Liveness liveness = new Liveness(controlGraph);
+        List<Integer> candidates = new ArrayList<>();
+        for (int b : loop.getBlocks()) {
+            BasicBlock block = controlGraph.getBlock(b);
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                int[] family = families.get(i);
+                if (family != null && (family[1] != 1 || family[2] != -1) && usedOutsideFamily(block, i, families, liveness)) candidates.add(i);
+            }
+        }
+        if (candidates.isEmpty()) return 0;
+
+        // remplacement des tests : i n'est plus lu que par son incrément et par des comparaisons à des registres fixes
+        Map<Integer, Integer> testFamily = new HashMap<>();
+        Map<Integer, List<Integer>> tests = new HashMap<>();
+        for (int i : candidates) {
+            if (families.get(i)[1] > 0) testFamily.putIfAbsent(families.get(i)[0], i);
+        }
+        for (Map.Entry<Integer, Integer> entry : testFamily.entrySet()) {
+            List<Integer> found = testsOf(loop, entry.getKey(), basics.get(entry.getKey()), reaching, candidates, liveness);
+            if (found != null) tests.put(entry.getKey(), found);
+        }
+        // sans cela, un calcul d'une seule instruction ne ferait que devenir l'avancée de son pointeur
+        candidates.removeIf(i -> families.get(i)[5] < 2 && !tests.containsKey(families.get(i)[0]));
+        if (candidates.isEmpty()) return 0;
+
+        // un pointeur par famille (i, s, b, c), calculé avant l'en-tête et avancé après l'incrément de i
+        List<Instruction> preheader = new ArrayList<>();
+        Map<Integer, List<Instruction>> after = new HashMap<>();
+        Map<String, Integer> pointers = new HashMap<>();
+        for (int i : candidates) {
+            int[] family = families.get(i);
+            String key = key(family);
+            if (!pointers.containsKey(key)) {
+                int pointer = nextRegister++;
+                pointers.put(key, pointer);
+                preheader.addAll(evaluate(pointer, family[0], family));
+                int[] basic = basics.get(family[0]);
+                after.computeIfAbsent(basic[0], k -> new ArrayList<>()).add(new UALi(UALi.Op.ADD, pointer, pointer, basic[1] * family[1]));
+            }
+        }
+
+        Set<Integer> removed = new HashSet<>();
+        Map<Integer, Instruction> replaced = new HashMap<>();
+        for (int i : candidates) {
+            int pointer = pointers.get(key(families.get(i)));
+            replaced.put(i, new UALi(code.get(i).getLabel(), UALi.Op.ADD, Liveness.getDef(code.get(i))[0], pointer, 0));
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : tests.entrySet()) {
+            int register = entry.getKey();
+            int[] basic = basics.get(register);
+            int[] family = families.get(testFamily.get(register));
+            int pointer = pointers.get(key(family));
+            for (int i : entry.getValue()) {
+                CondJump jump = (CondJump) code.get(i);
+                int bound = jump.getSr1() == register ? jump.getSr2() : jump.getSr1();
+                int limit = nextRegister++;
+                preheader.addAll(evaluate(limit, bound, family));
+                replaced.put(i, new CondJump(jump.getLabel(), CondJump.Op.valueOf(jump.getName()),
+                        jump.getSr1() == register ? pointer : limit, jump.getSr2() == register ? pointer : limit, jump.getAddress()));
+            }
+            removed.add(basic[0]);
+            if (basic[2] != -1) removed.add(basic[2]);
+        }
+        for (Map.Entry<Integer, Instruction> entry : replaced.entrySet()) code.set(entry.getKey(), entry.getValue());
+
+        // l'en-tête garde son label si un bloc hors de la boucle y tombe et en est le seul prédécesseur extérieur,
+        // sinon il en prend un nouveau pour les arcs retour et le pré-en-tête garde l'ancien pour les entrées
+        boolean existing = fallsIntoHeader;
+        for (int p : header.getPredecessors()) {
+            if (!loop.contains(p) && p != previous) existing = false;
+        }
+        if (!existing) {
+            String bodyLabel = (headerLabel.startsWith("*") ? "" : "*") + headerLabel + "_boucle";
+            for (int b : loop.getBlocks()) {
+                BasicBlock block = controlGraph.getBlock(b);
+                for (int i = block.getStart(); i < block.getEnd(); i++) {
+                    if (code.get(i) instanceof CondJump jump && jump.getAddress().equals(headerLabel)) jump.setAddress(bodyLabel);
+                    if (code.get(i) instanceof JumpCall jump && jump.getName().equals("JMP") && jump.getAddress().equals(headerLabel)) jump.setAddress(bodyLabel);
+                }
+            }
+            code.get(header.getStart()).setLabel(bodyLabel);
+            done.add(bodyLabel);
+            preheader.get(0).setLabel(headerLabel);
+        }
+
+        ArrayList<Instruction> result = new ArrayList<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (i == header.getStart()) result.addAll(preheader);
+            if (!removed.contains(i)) result.add(code.get(i));
+            if (after.containsKey(i)) result.addAll(after.get(i));
+        }
+        code.clear();
+        code.addAll(result);
+        return candidates.size();
+    }
+
+    /**
+     * Retourne le pas d'un incrément r = r + pas ou r = r - pas d'un registre, 0 si l'instruction n'en est pas un
+     */
+    private static int step(Instruction instruction, int register) {
+        if (!(instruction instanceof UALi uali) || uali.getSr() != register) return 0;
+        if (uali.getName().equals("ADD")) return uali.getImm();
+        if (uali.getName().equals("SUB")) return -uali.getImm();
+        return 0;
+    }
+
+    /**
+     * Exprime le résultat d'une instruction comme i*s + c (+ b) d'une variable d'induction de base i
+     * @return int[] { i, s, b ou -1, c, position de la lecture de i, nombre d'instructions }, null si ce n'est pas un calcul dérivé
+     */
+    private int[] derive(Instruction instruction, int index, ReachingDefinitions reaching, Map<Integer, int[]> basics, Map<Integer, int[]> families) {
+        if (instruction instanceof UALi uali) {
+            int[] source = source(uali.getSr(), index, reaching, basics, families);
+            if (source == null) return null;
+            int imm = uali.getImm();
+            switch (uali.getName()) {
+                case "ADD": return new int[] { source[0], source[1], source[2], source[3] + imm, source[4], source[5] + 1 };
+                case "SUB": return new int[] { source[0], source[1], source[2], source[3] - imm, source[4], source[5] + 1 };
+                case "MUL":
+                    if (source[2] != -1) return null;
+                    return new int[] { source[0], source[1] * imm, -1, source[3] * imm, source[4], source[5] + 1 };
+                case "SL":
+                    if (source[2] != -1 || imm < 0 || imm > 30) return null;
+                    return new int[] { source[0], source[1] << imm, -1, source[3] << imm, source[4], source[5] + 1 };
+                default: return null;
+            }
+        }
+        if (instruction instanceof UAL ual && ual.getName().equals("ADD")) {
+            for (int k = 0; k < 2; k++) {
+                int operand = k == 0 ? ual.getSr1() : ual.getSr2();
+                int other = k == 0 ? ual.getSr2() : ual.getSr1();
+                if (other < ConflictGraph.RESERVED_REGISTERS || !reaching.getDefinitions(other).isEmpty()) continue;
+                int[] source = source(operand, index, reaching, basics, families);
+                if (source != null && source[2] == -1) return new int[] { source[0], source[1], other, source[3], source[4], source[5] + 1 };
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retourne la famille d'un registre lu : une variable de base, ou un calcul dérivé du même bloc
+     * sans incrément de sa variable de base entre la lecture de celle-ci et l'instruction
+     */
+    private int[] source(int register, int index, ReachingDefinitions reaching, Map<Integer, int[]> basics, Map<Integer, int[]> families) {
+        if (basics.containsKey(register)) return new int[] { register, 1, -1, 0, index, 0 };
+        int definition = reaching.getSingleDefinition(index, register);
+        if (definition < 0 || !families.containsKey(definition)) return null;
+        int[] family = families.get(definition);
+        if (controlGraph.getBlockOf(definition) != controlGraph.getBlockOf(index)) return null;
+        int increment = basics.get(family[0])[0];
+        if (family[4] < increment && increment < index) return null;
+        return family;
+    }
+
+    /**
+     * Indique si le résultat d'un calcul dérivé est lu par autre chose qu'un calcul dérivé de son bloc
+     */
+    private boolean usedOutsideFamily(BasicBlock block, int index, Map<Integer, int[]> families, Liveness liveness) {
+        int register = Liveness.getDef(code.get(index))[0];
+        if (isLive(liveness.getBlockOut(block.getId()), register)) return true;
+        for (int i = index + 1; i < block.getEnd(); i++) {
+            for (int use : Liveness.getUse(code.get(i))) {
+                if (use == register && !families.containsKey(i)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static String key(int[] family) {
+        return family[0] + " " + family[1] + " " + family[2] + " " + family[3];
+    }
+
+    /**
+     * Retourne les instructions qui calculent source*s + c (+ b) dans dest
+     */
+    private static List<Instruction> evaluate(int dest, int source, int[] family) {
+        List<Instruction> instructions = new ArrayList<>();
+        int from = source;
+        if (family[1] != 1) {
+            instructions.add(new UALi(UALi.Op.MUL, dest, from, family[1]));
+            from = dest;
+        }
+        if (family[2] != -1) {
+            instructions.add(new UAL(UAL.Op.ADD, dest, from, family[2]));
+            from = dest;
+        }
+        if (family[3] != 0 || from != dest) instructions.add(new UALi(UALi.Op.ADD, dest, from, family[3]));
+        return instructions;
+    }
+
+    /**
+     * Retourne les tests de la boucle qui comparent une variable de base à un registre fixe,
+     * null si la variable sert à autre chose, reste vivante en sortie de boucle ou si son incrément porte un label
+     * @param reduced les positions des calculs qui deviendront des copies d'un pointeur
+     */
+    private List<Integer> testsOf(Loop loop, int register, int[] basic, ReachingDefinitions reaching, List<Integer> reduced, Liveness liveness) {
+        if (!code.get(basic[0]).getLabel().isEmpty()) return null;
+        if (basic[2] != -1 && !code.get(basic[2]).getLabel().isEmpty()) return null;
+        int temporary = basic[2] == -1 ? -1 : Liveness.getDef(code.get(basic[2]))[0];
+        List<Integer> tests = new ArrayList<>();
+        for (int b : loop.getBlocks()) {
+            BasicBlock block = controlGraph.getBlock(b);
+            for (int i = block.getStart(); i < block.getEnd(); i++) {
+                if (i == basic[0] || i == basic[2] || reduced.contains(i)) continue;
+                Instruction instruction = code.get(i);
+                for (int use : Liveness.getUse(instruction)) {
+                    if (use == temporary) return null;
+                    if (use != register) continue;
+                    if (!(instruction instanceof CondJump jump) || jump.getSr1() == jump.getSr2()) return null;
+                    int bound = jump.getSr1() == register ? jump.getSr2() : jump.getSr1();
+                    if (!reaching.getDefinitions(bound).isEmpty()) return null;
+                    if (!tests.contains(i)) tests.add(i);
+                }
+            }
+            // la variable ne doit plus servir après la boucle
+            for (int s : block.getSuccessors()) {
+                if (!loop.contains(s) && (isLive(liveness.getBlockIn(s), register) || isLive(liveness.getBlockIn(s), temporary))) return null;
+            }
+            if (block.getSuccessors().length == 0 && (isLive(liveness.getBlockOut(b), register) || isLive(liveness.getBlockOut(b), temporary))) return null;
+        }
+        return tests;
+    }
+
+    private boolean isLive(long[] live, int register) {
+        if (register < 0) return false;
+        int id = controlGraph.getRegisterId(register);
+        return (live[id >>> 6] & (1L << (id & 63))) != 0;
+    }
+
+    private static boolean fallsThrough(Instruction instruction) {
+        return !(instruction instanceof Ret || instruction instanceof Stop || instruction.getName().equals("JMP"));
+    }
+}
@@ -0,0 +1,57 @@
+package src.Optimizer;
+
+import src.ConflictGraph;
+import src.Asm.Instruction;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Supprime la copie d'un registre temporaire qui n'existe que dans la fenêtre : le calcul écrit directement dans la destination.
+ * Avec une fenêtre de 2 : ADD Rt Ra Rb ; ADDi Rd Rt 0 devient ADD Rd Ra Rb.
+ * Avec une fenêtre de 3, pour les constantes : XOR Rt Rt Rt ; ADDi Rt Rt v ; ADDi Rd Rt 0 devient XOR Rd Rd Rd ; ADDi Rd Rd v.
+ */
+public class TemporaryCopyRule implements PeepholeRule {
+    private final int windowSize;
+
+    /**
+     * Constructeur
+     * @param windowSize nombre d'instructions, copie comprise
+     */
+    public TemporaryCopyRule(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public String getName() {
+        return "copie-temporaire-" + windowSize;
+    }
+
+    @Override
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public List<Instruction> rewrite(List<Instruction> window, Instruction next, PeepholeOptimizer optimizer) {
+        Instruction last = window.get(windowSize - 1);
+        if (!ConflictGraph.isCopy(last)) return null;
+        int destination = ((UALi) last).getDest();
+        int temporary = ((UALi) last).getSr();
+        List<Instruction> computation = window.subList(0, windowSize - 1);
+        for (Instruction instruction : computation) {
+            if (!PeepholeOptimizer.isComputation(instruction)) return null;
+        }
+        // la destination ne doit pas être lue après la première écriture du temporaire, qui devient une écriture de la destination
+        for (int i = 1; i < computation.size(); i++) {
+            if (PeepholeOptimizer.mentions(computation.get(i), destination) > 0) return null;
+        }
+        if (PeepholeOptimizer.mentions(computation.get(0), temporary) == 0 || !optimizer.isLocal(temporary, window)) return null;
+
+        ArrayList<Instruction> replacement = new ArrayList<>();
+        for (Instruction instruction : computation) {
+            replacement.add(PeepholeOptimizer.renamed(instruction, temporary, destination));
+        }
+        return replacement;
+    }
+}
@@ -0,0 +1,205 @@
+package src;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import src.Asm.Instruction;
+import src.Asm.Program;
+import src.Optimizer.CallerSaves;
+import src.Optimizer.CommonSubexpressionElimination;
+import src.Optimizer.ConstantPropagation;
+import src.Optimizer.CopyPropagation;
+import src.Optimizer.DeadCodeElimination;
+import src.Optimizer.Inliner;
+import src.Optimizer.LoopInvariantCodeMotion;
+import src.Optimizer.PeepholeOptimizer;
+import src.Optimizer.StrengthReduction;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The passes from a TCL source to the allocated program, configured by the options of Main (the arguments that start with --),
+ * used by Main and the benchmarks: program = new Pipeline(options).compile(source)
+ */
+public class Pipeline {
+    private final boolean linearScan; // --linear-scan : allocation plus rapide, code un peu moins bon
+    private final boolean folding; // --sans-constantes : n'évalue pas les expressions constantes à la compilation, ni sur l'arbre ni sur le code linéaire
+    private final boolean shortCircuit; // --sans-court-circuit : évalue toujours les deux opérandes de && et ||
+    private final boolean bounds; // --sans-bornes : vérifie l'index de chaque accès aux tableaux, même dans les boucles for
+    private final boolean tailCalls; // --sans-appel-terminal : return f(...) dans f reste un CALL suivi d'un RET
+    private final boolean stack; // --sans-echappement : les tableaux qui ne sortent pas de leur fonction sont pris à *alloc au lieu de la pile, et libérés au retour
+    private final boolean inline; // --sans-integration : garde un CALL pour chaque appel de fonction
+    private final int inlineThreshold; // --seuil-integration=N : taille maximale, en instructions, d'une fonction intégrée à tous ses appels
+    private final boolean invariants; // --sans-invariants : laisse dans les boucles les calculs qui donnent toujours la même valeur
+    private final boolean subexpressions; // --sans-sous-expressions : recalcule les expressions déjà disponibles dans un registre
+    private final boolean induction; // --sans-induction : recalcule à chaque tour les adresses dérivées du compteur de boucle
+    private final boolean peephole; // --sans-peephole : garde le code linéaire tel que CodeGenerator le produit
+    private final boolean propagation; // --sans-propagation : ni propagation des copies ni suppression du code mort
+    private final boolean stats; // --stats : affiche sur la sortie d'erreur ce que chaque optimisation a fait
+
+    /**
+     * Constructor
+     * @param options the options of Main, the others are ignored
+     */
+    public Pipeline(Set<String> options) {
+        this.linearScan = options.contains("--linear-scan");
+        this.folding = !options.contains("--sans-constantes");
+        this.shortCircuit = !options.contains("--sans-court-circuit");
+        this.bounds = !options.contains("--sans-bornes");
+        this.tailCalls = !options.contains("--sans-appel-terminal");
+        this.stack = !options.contains("--sans-echappement");
+        this.inline = !options.contains("--sans-integration");
+        int threshold = Inliner.DEFAULT_THRESHOLD;
+        for (String option : options) {
+            if (option.startsWith("--seuil-integration=")) threshold = Integer.parseInt(option.substring("--seuil-integration=".length()));
+        }
+        this.inlineThreshold = threshold;
+        this.invariants = !options.contains("--sans-invariants");
+        this.subexpressions = !options.contains("--sans-sous-expressions");
+        this.induction = !options.contains("--sans-induction");
+        this.peephole = !options.contains("--sans-peephole");
+        this.propagation = !options.contains("--sans-propagation");
+        this.stats = options.contains("--stats");
+    }
+
+    /**
+     * Compiles a TCL source to the allocated program
+     * @param source the TCL program
+     * @return the assembly program
+     */
+    public Program compile(String source) {
+        return this.allocate(this.generateLinearCode(source));
+    }
+
+    /**
+     * Types a TCL source, generates its linear code and runs the enabled optimizations on it,
+     * then saves the registers that the calls would modify
+     * @param source the TCL program
+     * @return the linear code, with virtual registers
+     */
+    public Program generateLinearCode(String source) {
+        grammarTCLLexer lexer = new grammarTCLLexer(CharStreams.fromString(source)); // analyse lexicale de la String s
+        CommonTokenStream tokens = new CommonTokenStream(lexer); // récupération des terminaux
+        grammarTCLParser parser = new grammarTCLParser(tokens); // constructeur de l'analyseur syntaxique
+        grammarTCLParser.MainContext tree = parser.main(); // création de l'AST
+
+        TyperVisitor visitor = new TyperVisitor();
+        visitor.visit(tree); // unification des types
+
+        ConstantFolder folder = null;
+        if (this.folding) {
+            folder = new ConstantFolder();
+            folder.visit(tree); // expressions et variables constantes
+        }
+        CodeGenerator codeGenerator = new CodeGenerator(visitor.getTypes(), folder);
+        codeGenerator.setShortCircuit(this.shortCircuit);
+        codeGenerator.setBoundsCheckElimination(this.bounds);
+        codeGenerator.setTailCalls(this.tailCalls);
+        codeGenerator.setStackAllocation(this.stack);
+        Program program = codeGenerator.visit(tree); // génération du code linéaire
+
+        if (this.inline) {
+            Inliner inliner = new Inliner(this.inlineThreshold);
+            int inlined = inliner.optimize(program); // remplace les appels des petites fonctions par leur code, simplifié ensuite par les passes suivantes
+            if (this.stats) {
+                System.err.println("intégration : " + inlined + " appels remplacés");
+                for (String decision : inliner.getDecisions()) System.err.println("  " + decision);
+            }
+        }
+        if (this.folding) {
+            ConstantPropagation propagation = new ConstantPropagation();
+            int simplified = propagation.optimize(program); // arguments constants des appels intégrés, branches mortes supprimées
+            if (this.stats) {
+                System.err.println("constantes : " + simplified + " instructions simplifiées ou supprimées, " + propagation.getBranches() + " sauts résolus");
+            }
+        }
+
+        if (this.peephole) {
+            int before = program.getInstructions().size();
+            PeepholeOptimizer optimizer = PeepholeOptimizer.withDefaultRules();
+            optimizer.optimize(program); // réécritures locales avant l'allocation des registres
+            if (this.stats) {
+                System.err.println("peephole : " + before + " -> " + program.getInstructions().size() + " instructions " + optimizer.getHits());
+            }
+        }
+        if (this.invariants) {
+            int hoisted = new LoopInvariantCodeMotion().optimize(program); // calculs invariants recalculés une fois avant chaque boucle
+            if (this.stats) {
+                System.err.println("invariants : " + hoisted + " instructions sorties des boucles");
+            }
+        }
+        if (this.propagation) {
+            int replaced = new CopyPropagation().optimize(program); // lit les sources des copies plutôt que leurs destinations
+            int removed = new DeadCodeElimination().optimize(program); // supprime les copies et calculs devenus inutiles
+            if (this.stats) {
+                System.err.println("propagation : " + replaced + " registres lus remplacés, " + removed + " instructions supprimées");
+            }
+        }
+        if (this.subexpressions) {
+            int registers = registerCount(program);
+            int before = program.getInstructions().size();
+            int reused = new CommonSubexpressionElimination().optimize(program); // calculs déjà disponibles remplacés par des copies
+            if (reused > 0 && this.propagation) {
+                new CopyPropagation().optimize(program);
+                new DeadCodeElimination().optimize(program);
+            }
+            if (this.stats) {
+                System.err.println("sous-expressions : " + reused + " calculs réutilisés, " + before + " -> " + program.getInstructions().size()
+                        + " instructions, " + registers + " -> " + registerCount(program) + " registres");
+            }
+        }
+        if (this.induction) {
+            int reduced = new StrengthReduction().optimize(program); // adresses tenues à jour par un pointeur avancé avec le compteur
+            if (reduced > 0 && this.propagation) {
+                new CopyPropagation().optimize(program); // les calculs remplacés sont devenus des copies des pointeurs
+                new DeadCodeElimination().optimize(program);
+            }
+            if (this.stats) {
+                System.err.println("induction : " + reduced + " calculs remplacés par des pointeurs courants");
+            }
+        }
+
+        int saved = new CallerSaves().insert(program); // registres vivants autour des appels, d'après le code optimisé
+        if (this.stats) {
+            System.err.println("sauvegardes : " + saved + " registres sauvegardés autour des appels");
+        }
+
+        return program;
+    }
+
+    /**
+     * Allocates the registers of a linear code, with the graph coloring or the linear scan
+     * @param program the linear code
+     * @return the assembly program
+     */
+    public Program allocate(Program program) {
+        ControlGraph controlGraph = new ControlGraph(program);
+        RegisterAllocation allocation;
+        if (this.linearScan) {
+            LinearScanAllocator allocator = new LinearScanAllocator(controlGraph);
+            allocator.allocate(); // allocation par balayage linéaire, sans graphe de conflit
+            allocation = allocator;
+        }
+        else {
+            ConflictGraph conflictGraph = new ConflictGraph(controlGraph, program);
+            conflictGraph.color(); // allocation des registres
+            allocation = conflictGraph;
+        }
+
+        return new AssemblerGenerator(program, allocation).generateProgram();
+    }
+
+    /**
+     * Compte les registres virtuels distincts du code linéaire
+     * @param program
+     * @return int nombre de registres
+     */
+    private static int registerCount(Program program) {
+        Set<Integer> registers = new HashSet<>();
+        for (Instruction instruction : program.getInstructions()) {
+            for (int register : Liveness.getDef(instruction)) registers.add(register);
+            for (int register : Liveness.getUse(instruction)) registers.add(register);
+        }
+        return registers.size();
+    }
+}
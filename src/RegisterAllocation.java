@@ -0,0 +1,14 @@
+package src;
+
+/**
+ * Résultat d'une allocation de registres : la couleur de chaque registre virtuel.
+ * Les couleurs 0 à 29 sont des registres physiques, les couleurs à partir de 30 des emplacements mémoire.
+ */
+public interface RegisterAllocation {
+    /**
+     * Retourne la couleur d'un registre virtuel
+     * @param register registre sous la forme "R"+n
+     * @return int couleur, -1 si le registre n'a pas été alloué
+     */
+    int getColor(String register);
+}
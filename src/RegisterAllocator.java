@@ -0,0 +1,363 @@
+package src;
+
+import src.Graph.InterferenceGraph;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Allocation de registres de Chaitin-Briggs sur le graphe de conflit, avec fusion conservative des copies
+ * (tests de Briggs et de George, comme dans l'Iterated Register Coalescing de George et Appel).
+ * Les variables qui ne peuvent pas être colorées avec k couleurs sont choisies selon leur coût de mise en mémoire
+ * divisé par leur degré, puis reçoivent un emplacement mémoire (couleur supérieure ou égale à 30) que AssemblerGenerator
+ * charge et stocke avec R30 et R31.
+ */
+public class RegisterAllocator {
+    private static final int INITIAL = 0;
+    private static final int SIMPLIFY = 1;
+    private static final int FREEZE = 2;
+    private static final int SPILL = 3;
+    private static final int COALESCED = 4;
+    private static final int SELECTED = 5;
+    private static final int COLORED = 6;
+    private static final int SPILLED = 7;
+
+    private static final int MOVE_WORKLIST = 0;
+    private static final int MOVE_ACTIVE = 1;
+    private static final int MOVE_DONE = 2;
+
+    private final ConflictGraph graph;
+    private final int k;
+    private final int[] vertices;
+    private final InterferenceGraph interference;
+    private final int[] degree;
+    private final int[] alias;
+    private final int[] state;
+    private final int[] color;
+    private final double[] cost;
+    private final int[][] moves;
+    private final int[] moveState;
+    private final ArrayList<ArrayList<Integer>> moveList;
+    private final LinkedHashSet<Integer> simplifyWorklist;
+    private final LinkedHashSet<Integer> freezeWorklist;
+    private final LinkedHashSet<Integer> spillWorklist;
+    private final LinkedHashSet<Integer> worklistMoves;
+    private final int[] selectStack;
+    private int stackSize;
+
+    /**
+     * Constructeur
+     * @param graph le graphe de conflit, avec ses copies et ses coûts de mise en mémoire
+     * @param k nombre de registres physiques disponibles pour les variables
+     */
+    public RegisterAllocator(ConflictGraph graph, int k) {
+        this.graph = graph;
+        this.k = k;
+        this.vertices = graph.getVertices();
+        this.interference = new InterferenceGraph(graph); // la fusion ajoute des arêtes
+        int n = graph.size();
+
+        this.moveList = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            moveList.add(new ArrayList<>());
+        }
+        this.degree = new int[n];
+        this.alias = new int[n];
+        this.state = new int[n];
+        this.color = new int[n];
+        this.cost = new double[n];
+        for (int u = 0; u < n; u++) {
+            alias[u] = u;
+            degree[u] = graph.getDegree(u);
+            cost[u] = graph.getSpillCost(u);
+        }
+
+        ArrayList<int[]> copies = graph.getMoves();
+        this.moves = copies.toArray(new int[0][]);
+        this.moveState = new int[copies.size()];
+        this.worklistMoves = new LinkedHashSet<>();
+        for (int m = 0; m < moves.length; m++) {
+            moveList.get(moves[m][0]).add(m);
+            moveList.get(moves[m][1]).add(m);
+            worklistMoves.add(m);
+        }
+
+        this.simplifyWorklist = new LinkedHashSet<>();
+        this.freezeWorklist = new LinkedHashSet<>();
+        this.spillWorklist = new LinkedHashSet<>();
+        this.selectStack = new int[n];
+    }
+
+    /**
+     * Alloue les registres et enregistre la couleur de chaque variable dans le graphe de conflit
+     * @return int nombre de couleurs utilisées (registres réservés compris)
+     */
+    public int allocate() {
+        makeWorklist();
+        while (!simplifyWorklist.isEmpty() || !worklistMoves.isEmpty() || !freezeWorklist.isEmpty() || !spillWorklist.isEmpty()) {
+            if (!simplifyWorklist.isEmpty()) simplify();
+            else if (!worklistMoves.isEmpty()) coalesce();
+            else if (!freezeWorklist.isEmpty()) freeze();
+            else selectSpill();
+        }
+        assignColors();
+
+        int maxColor = ConflictGraph.RESERVED_REGISTERS - 1;
+        for (int u : vertices) {
+            graph.setColor(u, color[u]);
+            maxColor = Math.max(maxColor, color[u]);
+        }
+        return maxColor + 1;
+    }
+
+    private void addEdge(int u, int v) {
+        if (interference.addEdge(u, v)) {
+            degree[u]++;
+            degree[v]++;
+        }
+    }
+
+    private boolean hasEdge(int u, int v) {
+        return interference.hasEdge(u, v);
+    }
+
+    /**
+     * Voisins d'un sommet qui sont encore dans le graphe (ni empilés ni fusionnés)
+     */
+    private ArrayList<Integer> adjacent(int u) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int i = 0; i < interference.getDegree(u); i++) {
+            int v = interference.getNeighbor(u, i);
+            if (state[v] != SELECTED && state[v] != COALESCED) result.add(v);
+        }
+        return result;
+    }
+
+    /**
+     * Copies d'un sommet qui peuvent encore être fusionnées
+     */
+    private ArrayList<Integer> nodeMoves(int u) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int m : moveList.get(u)) {
+            if (moveState[m] != MOVE_DONE) result.add(m);
+        }
+        return result;
+    }
+
+    private boolean moveRelated(int u) {
+        for (int m : moveList.get(u)) {
+            if (moveState[m] != MOVE_DONE) return true;
+        }
+        return false;
+    }
+
+    private void makeWorklist() {
+        for (int u : vertices) {
+            if (degree[u] >= k) {
+                state[u] = SPILL;
+                spillWorklist.add(u);
+            } else if (moveRelated(u)) {
+                state[u] = FREEZE;
+                freezeWorklist.add(u);
+            } else {
+                state[u] = SIMPLIFY;
+                simplifyWorklist.add(u);
+            }
+        }
+    }
+
+    private int pop(LinkedHashSet<Integer> worklist) {
+        Iterator<Integer> iterator = worklist.iterator();
+        int u = iterator.next();
+        iterator.remove();
+        return u;
+    }
+
+    private void simplify() {
+        int u = pop(simplifyWorklist);
+        state[u] = SELECTED;
+        selectStack[stackSize++] = u;
+        for (int v : adjacent(u)) {
+            decrementDegree(v);
+        }
+    }
+
+    private void decrementDegree(int u) {
+        int d = degree[u];
+        degree[u] = d - 1;
+        if (d == k) {
+            enableMoves(u);
+            for (int v : adjacent(u)) {
+                enableMoves(v);
+            }
+            spillWorklist.remove(u);
+            if (moveRelated(u)) {
+                state[u] = FREEZE;
+                freezeWorklist.add(u);
+            } else {
+                state[u] = SIMPLIFY;
+                simplifyWorklist.add(u);
+            }
+        }
+    }
+
+    private void enableMoves(int u) {
+        for (int m : nodeMoves(u)) {
+            if (moveState[m] == MOVE_ACTIVE) {
+                moveState[m] = MOVE_WORKLIST;
+                worklistMoves.add(m);
+            }
+        }
+    }
+
+    private void coalesce() {
+        int m = pop(worklistMoves);
+        int u = getAlias(moves[m][0]);
+        int v = getAlias(moves[m][1]);
+        if (u == v) {
+            moveState[m] = MOVE_DONE;
+            addWorklist(u);
+        } else if (hasEdge(u, v)) {
+            moveState[m] = MOVE_DONE;
+            addWorklist(u);
+            addWorklist(v);
+        } else if (george(u, v) || george(v, u) || briggs(u, v)) {
+            moveState[m] = MOVE_DONE;
+            combine(u, v);
+            addWorklist(u);
+        } else {
+            moveState[m] = MOVE_ACTIVE;
+        }
+    }
+
+    private void addWorklist(int u) {
+        if (state[u] == FREEZE && !moveRelated(u) && degree[u] < k) {
+            freezeWorklist.remove(u);
+            state[u] = SIMPLIFY;
+            simplifyWorklist.add(u);
+        }
+    }
+
+    /**
+     * Test de George : fusionner v dans u est sûr si chaque voisin de v est de faible degré ou déjà voisin de u
+     */
+    private boolean george(int u, int v) {
+        for (int t : adjacent(v)) {
+            if (degree[t] >= k && !hasEdge(t, u)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Test de Briggs : fusionner u et v est sûr si le sommet obtenu a moins de k voisins de degré élevé
+     */
+    private boolean briggs(int u, int v) {
+        HashSet<Integer> neighbors = new HashSet<>(adjacent(u));
+        neighbors.addAll(adjacent(v));
+        int high = 0;
+        for (int t : neighbors) {
+            if (degree[t] >= k) high++;
+        }
+        return high < k;
+    }
+
+    private int getAlias(int u) {
+        while (state[u] == COALESCED) u = alias[u];
+        return u;
+    }
+
+    private void combine(int u, int v) {
+        if (state[v] == FREEZE) freezeWorklist.remove(v);
+        else spillWorklist.remove(v);
+        state[v] = COALESCED;
+        alias[v] = u;
+        cost[u] += cost[v];
+        moveList.get(u).addAll(moveList.get(v));
+        enableMoves(v);
+        for (int t : adjacent(v)) {
+            addEdge(t, u);
+            decrementDegree(t);
+        }
+        if (degree[u] >= k && state[u] == FREEZE) {
+            freezeWorklist.remove(u);
+            state[u] = SPILL;
+            spillWorklist.add(u);
+        }
+    }
+
+    private void freeze() {
+        int u = pop(freezeWorklist);
+        state[u] = SIMPLIFY;
+        simplifyWorklist.add(u);
+        freezeMoves(u);
+    }
+
+    private void freezeMoves(int u) {
+        for (int m : nodeMoves(u)) {
+            int x = moves[m][0];
+            int y = moves[m][1];
+            int v = getAlias(y) == getAlias(u) ? getAlias(x) : getAlias(y);
+            worklistMoves.remove(m);
+            moveState[m] = MOVE_DONE;
+            if (state[v] == FREEZE && !moveRelated(v) && degree[v] < k) {
+                freezeWorklist.remove(v);
+                state[v] = SIMPLIFY;
+                simplifyWorklist.add(v);
+            }
+        }
+    }
+
+    /**
+     * Choisit la variable à mettre en mémoire : celle dont le coût rapporté au degré est le plus faible
+     */
+    private void selectSpill() {
+        int best = -1;
+        for (int u : spillWorklist) {
+            if (best == -1 || cost[u] / degree[u] < cost[best] / degree[best]) best = u;
+        }
+        spillWorklist.remove(best);
+        state[best] = SIMPLIFY;
+        simplifyWorklist.add(best);
+        freezeMoves(best);
+    }
+
+    private void assignColors() {
+        ArrayList<Integer> spilled = new ArrayList<>();
+        boolean[] used = new boolean[k];
+        while (stackSize > 0) {
+            int u = selectStack[--stackSize];
+            Arrays.fill(used, false);
+            for (int i = 0; i < interference.getDegree(u); i++) {
+                int a = getAlias(interference.getNeighbor(u, i));
+                if (state[a] == COLORED) used[color[a] - ConflictGraph.RESERVED_REGISTERS] = true;
+            }
+            int c = 0;
+            while (c < k && used[c]) c++;
+            if (c == k) {
+                state[u] = SPILLED;
+                spilled.add(u);
+            } else {
+                state[u] = COLORED;
+                color[u] = ConflictGraph.RESERVED_REGISTERS + c;
+            }
+        }
+
+        // les variables en mémoire partagent un emplacement quand elles ne sont pas en conflit
+        int firstSlot = ConflictGraph.RESERVED_REGISTERS + k;
+        for (int u : spilled) {
+            HashSet<Integer> usedSlots = new HashSet<>();
+            for (int i = 0; i < interference.getDegree(u); i++) {
+                int a = getAlias(interference.getNeighbor(u, i));
+                if (state[a] == SPILLED && color[a] >= firstSlot) usedSlots.add(color[a]);
+            }
+            int slot = firstSlot;
+            while (usedSlots.contains(slot)) slot++;
+            color[u] = slot;
+        }
+        for (int u : vertices) {
+            if (state[u] == COALESCED) color[u] = color[getAlias(u)];
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package src.Simulator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Décode le texte d'un programme assembleur (format de prog.asm) pour le Simulator.
+ * Les lignes vides et celles qui commencent par # sont ignorées, un label est un premier mot terminé par ':'.
+ * Les instructions mal formées sont encodées en ERROR avec le message de simproc.py.
+ */
+public class AssemblyDecoder {
+    private static final String[] UAL = { "ADD", "SUB", "MUL", "DIV", "MOD", "AND", "OR", "XOR", "SL", "SR" };
+    private static final String[] JUMPS = { "JEQU", "JNEQ", "JSUP", "JINF", "JIEQ", "JSEQ" };
+
+    private final List<String[]> instructions;
+    private final List<Integer> lines;
+    private final Map<String, Integer> labels;
+    private final int registerCount;
+    private final int[] code;
+    private final ArrayList<String> errors;
+    private int maxRegister;
+
+    /**
+     * Constructeur
+     * @param text lignes du programme
+     * @param registerCount nombre de registres du processeur, 0 pour ne pas limiter les registres
+     */
+    private AssemblyDecoder(List<String> text, int registerCount) {
+        this.instructions = new ArrayList<>();
+        this.lines = new ArrayList<>();
+        this.labels = new HashMap<>();
+        this.registerCount = registerCount;
+        this.errors = new ArrayList<>();
+        for (int i = 0; i < text.size(); i++) {
+            String line = text.get(i).trim();
+            if (line.isEmpty()) continue;
+            String[] words = line.split("\\s+");
+            if (words[0].startsWith("#")) continue;
+            if (words[0].endsWith(":")) {
+                labels.put(words[0].substring(0, words[0].length() - 1), instructions.size());
+                String[] rest = new String[words.length - 1];
+                System.arraycopy(words, 1, rest, 0, rest.length);
+                words = rest;
+            }
+            instructions.add(words);
+            lines.add(i + 1);
+        }
+        this.code = new int[instructions.size() * Simulator.WIDTH];
+    }
+
+    /**
+     * Décode un programme
+     * @param text lignes du programme
+     * @param registerCount nombre de registres du processeur, 0 pour ne pas limiter les registres
+     * @param random générateur des valeurs initiales des registres et de la mémoire
+     * @return Simulator le simulateur prêt à exécuter le programme
+     */
+    public static Simulator decode(List<String> text, int registerCount, Random random) {
+        AssemblyDecoder decoder = new AssemblyDecoder(text, registerCount);
+        for (int i = 0; i < decoder.instructions.size(); i++) {
+            decoder.encode(i);
+        }
+        int registers = registerCount > 0 ? registerCount : decoder.maxRegister + 1;
+        return new Simulator(decoder.code, decoder.errors.toArray(new String[0]), registers, random);
+    }
+
+    private void encode(int index) {
+        String[] words = instructions.get(index);
+        int pc = index * Simulator.WIDTH;
+        try {
+            String op = words[0];
+            int ual = indexOf(UAL, op);
+            int ualImmediate = op.endsWith("i") ? indexOf(UAL, op.substring(0, op.length() - 1)) : -1;
+            int jump = indexOf(JUMPS, op);
+            if (ual >= 0) {
+                set(pc, Simulator.ADD + ual, register(words, 1), register(words, 2), register(words, 3));
+            } else if (ualImmediate >= 0) {
+                set(pc, Simulator.IMMEDIATE + ualImmediate, register(words, 1), register(words, 2), Integer.parseInt(words[3]));
+            } else if (jump >= 0) {
+                set(pc, Simulator.JEQU + jump, register(words, 1), register(words, 2), label(words, 3));
+            } else {
+                switch (op) {
+                    case "LD" -> set(pc, Simulator.LD, register(words, 1), register(words, 2), 0);
+                    case "ST" -> set(pc, Simulator.ST, register(words, 1), register(words, 2), 0);
+                    case "JMP" -> set(pc, Simulator.JMP, 0, 0, label(words, 1));
+                    case "CALL" -> set(pc, Simulator.CALL, 0, 0, label(words, 1));
+                    case "RET" -> set(pc, Simulator.RET, 0, 0, 0);
+                    case "STOP" -> set(pc, Simulator.STOP, 0, 0, 0);
+                    case "IN" -> set(pc, Simulator.IN, register(words, 1), 0, 0);
+                    case "OUT" -> set(pc, Simulator.OUT, register(words, 1), 0, 0);
+                    case "READ" -> set(pc, Simulator.READ, register(words, 1), 0, 0);
+                    case "PRINT" -> set(pc, Simulator.PRINT, register(words, 1), 0, 0);
+                    default -> throw new IllegalArgumentException();
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            StringBuilder message = new StringBuilder("ERROR LINE " + lines.get(index));
+            for (String word : words) {
+                message.append("\n").append(word);
+            }
+            set(pc, Simulator.ERROR, errors.size(), 0, 0);
+            errors.add(message.toString());
+        }
+    }
+
+    private void set(int pc, int op, int a, int b, int c) {
+        code[pc] = op;
+        code[pc + 1] = a;
+        code[pc + 2] = b;
+        code[pc + 3] = c;
+    }
+
+    private int register(String[] words, int i) {
+        String word = words[i];
+        if (word.charAt(0) != 'R') throw new IllegalArgumentException();
+        int register = Integer.parseInt(word.substring(1));
+        if (register < 0 || (registerCount > 0 && register >= registerCount)) throw new IllegalArgumentException();
+        maxRegister = Math.max(maxRegister, register);
+        return register;
+    }
+
+    private int label(String[] words, int i) {
+        Integer target = labels.get(words[i]);
+        if (target == null) throw new IllegalArgumentException();
+        return target * Simulator.WIDTH;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
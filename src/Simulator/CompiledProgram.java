@@ -0,0 +1,80 @@
+package src.Simulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Programme traduit en bytecode par JitCompiler, exécutable plusieurs fois
+ */
+public class CompiledProgram {
+    private final MethodHandle entry;
+    private final int[] chunkOf;
+    private final int registerCount;
+
+    /**
+     * Constructeur
+     * @param entry méthode run(JitState) de la classe générée
+     * @param chunkOf numéro de la méthode qui contient chaque bloc
+     * @param registerCount nombre de registres
+     */
+    CompiledProgram(MethodHandle entry, int[] chunkOf, int registerCount) {
+        this.entry = entry;
+        this.chunkOf = chunkOf;
+        this.registerCount = registerCount;
+    }
+
+    /**
+     * Exécute le programme, avec les registres et la mémoire initialisés aléatoirement entre 0 et 1000 comme dans Simulator
+     * @param input entrées lues par IN et READ
+     * @param output sorties écrites par OUT et PRINT
+     * @param random générateur des valeurs initiales
+     * @return long nombre de cycles, compté comme Simulator
+     * @throws IOException
+     */
+    public long run(Reader input, Writer output, Random random) throws IOException {
+        long[] registers = new long[registerCount];
+        long[] memory = new long[Simulator.MEMORY_SIZE];
+        for (int i = 0; i < registerCount; i++) registers[i] = random.nextInt(1001);
+        for (int i = 0; i < Simulator.MEMORY_SIZE; i++) memory[i] = random.nextInt(1001);
+        JitState state = new JitState(registers, memory, chunkOf, input, output);
+        try {
+            return (long) entry.invokeExact(state);
+        }
+        catch (IOException | RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Exécute le programme avec des fichiers d'entrées et de sorties, comme Simulator.run
+     * @param inputFile fichier des entrées (vide s'il n'existe pas)
+     * @param outputFile fichier des sorties, écrit même si l'exécution échoue
+     * @param random générateur des valeurs initiales
+     * @return long nombre de cycles
+     * @throws IOException
+     */
+    public long run(String inputFile, String outputFile, Random random) throws IOException {
+        File entrees = new File(inputFile);
+        try (Reader input = entrees.exists()
+                    ? new BufferedReader(new InputStreamReader(new FileInputStream(entrees), StandardCharsets.UTF_8))
+                    : new StringReader("");
+             Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
+            return run(input, output, random);
+        }
+    }
+}
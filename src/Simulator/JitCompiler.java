@@ -0,0 +1,370 @@
+package src.Simulator;
+
+import src.Asm.CondJump;
+import src.Asm.IO;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.Ret;
+import src.Asm.Stop;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Traduit un src.Asm.Program en bytecode pour que HotSpot le compile en code natif.
+ * Le programme est découpé en blocs de base ; chaque bloc devient un cas d'un switch sur le numéro de bloc,
+ * et les blocs sont regroupés en méthodes d'au plus CHUNK_SIZE instructions, pour rester sous la taille
+ * au-delà de laquelle HotSpot ne compile plus une méthode. Dans une méthode, les registres sont des variables locales,
+ * recopiées dans le tableau des registres quand l'exécution passe dans une autre méthode.
+ * Le JDK 21 n'ayant pas encore l'API ClassFile, le bytecode est obtenu en compilant en mémoire un source Java
+ * avec javax.tools, puis chargé comme classe cachée (Lookup.defineHiddenClass).
+ * Les entrées, les sorties, les erreurs et le nombre de cycles sont ceux du Simulator.
+ */
+public class JitCompiler {
+    /**
+     * Nombre maximal d'instructions par méthode générée
+     */
+    public static final int CHUNK_SIZE = 200;
+    private static final String CLASS_NAME = "src.Simulator.JitProgram";
+
+    private final ArrayList<Instruction> instructions;
+    private final int registerCount;
+    private final Map<String, Integer> labels;
+    private final int[] blockOf;
+    private final ArrayList<Integer> leaders;
+    private int maxRegister;
+
+    private JitCompiler(Program program, int registerCount) {
+        this.instructions = program.getInstructions();
+        this.registerCount = registerCount;
+        this.labels = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!instructions.get(i).getLabel().isEmpty()) {
+                labels.put(instructions.get(i).getLabel(), i);
+            }
+        }
+
+        TreeSet<Integer> starts = new TreeSet<>();
+        starts.add(0);
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (!instruction.getLabel().isEmpty()) starts.add(i);
+            if (instruction instanceof CondJump || instruction instanceof JumpCall || instruction instanceof Ret
+                    || instruction instanceof Stop || !isValid(instruction)) {
+                starts.add(i + 1);
+            }
+        }
+        starts.remove(instructions.size());
+        this.leaders = new ArrayList<>(starts);
+        this.blockOf = new int[instructions.size() + 1];
+        for (int b = 0; b < leaders.size(); b++) {
+            int end = b + 1 < leaders.size() ? leaders.get(b + 1) : instructions.size();
+            for (int i = leaders.get(b); i < end; i++) blockOf[i] = b;
+        }
+        blockOf[instructions.size()] = leaders.size();
+    }
+
+    /**
+     * Compile un programme
+     * @param program le programme, linéaire ou alloué
+     * @param registerCount nombre de registres du processeur, 0 pour ne pas limiter les registres
+     * @return CompiledProgram le programme compilé
+     */
+    public static CompiledProgram compile(Program program, int registerCount) {
+        JitCompiler compiler = new JitCompiler(program, registerCount);
+        int[] chunkOf = new int[compiler.leaders.size()];
+        String source = compiler.generate(chunkOf);
+        byte[] bytes = compileSource(source);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle entry = lookup.findStatic(lookup.lookupClass(), "run", MethodType.methodType(long.class, JitState.class));
+            int registers = registerCount > 0 ? registerCount : compiler.maxRegister + 1;
+            return new CompiledProgram(entry, chunkOf, registers);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Génère le source Java de la classe
+     * @param chunkOf rempli avec le numéro de la méthode qui contient chaque bloc
+     * @return String le source
+     */
+    private String generate(int[] chunkOf) {
+        ArrayList<int[]> chunks = new ArrayList<>();
+        int first = 0;
+        for (int b = 0; b < leaders.size(); b++) {
+            int end = b + 1 < leaders.size() ? leaders.get(b + 1) : instructions.size();
+            if (b > first && end - leaders.get(first) > CHUNK_SIZE) {
+                chunks.add(new int[] { first, b });
+                first = b;
+            }
+        }
+        if (first < leaders.size()) chunks.add(new int[] { first, leaders.size() });
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("package src.Simulator;\n\n");
+        sb.append("final class JitProgram {\n");
+        sb.append("    static long run(JitState s) throws java.io.IOException {\n");
+        sb.append("        final int[] chunkOf = s.chunkOf;\n");
+        sb.append("        int pc = 0;\n");
+        sb.append("        while (pc >= 0) {\n");
+        sb.append("            if (pc >= chunkOf.length) throw new SimulatorError(\"ERROR: fin du programme sans STOP\");\n");
+        sb.append("            switch (chunkOf[pc]) {\n");
+        for (int c = 0; c < chunks.size(); c++) {
+            sb.append("                case ").append(c).append(": pc = c").append(c).append("(s, pc); break;\n");
+            for (int b = chunks.get(c)[0]; b < chunks.get(c)[1]; b++) chunkOf[b] = c;
+        }
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("        return s.cycles;\n");
+        sb.append("    }\n");
+        for (int c = 0; c < chunks.size(); c++) {
+            generateChunk(sb, c, chunks.get(c)[0], chunks.get(c)[1]);
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private void generateChunk(StringBuilder sb, int chunk, int firstBlock, int endBlock) {
+        int start = leaders.get(firstBlock);
+        int end = endBlock < leaders.size() ? leaders.get(endBlock) : instructions.size();
+        TreeSet<Integer> used = new TreeSet<>();
+        TreeSet<Integer> defined = new TreeSet<>();
+        for (int i = start; i < end; i++) {
+            if (isValid(instructions.get(i))) collectRegisters(instructions.get(i), used, defined);
+        }
+
+        sb.append("\n    private static int c").append(chunk).append("(JitState s, int pc) throws java.io.IOException {\n");
+        sb.append("        final long[] reg = s.registers;\n");
+        sb.append("        final long[] mem = s.memory;\n");
+        for (int r : used) sb.append("        long r").append(r).append(" = reg[").append(r).append("];\n");
+        sb.append("        long cycles = 0;\n");
+        sb.append("        loop:\n");
+        sb.append("        while (true) {\n");
+        sb.append("            switch (pc) {\n");
+        for (int b = firstBlock; b < endBlock; b++) {
+            int blockStart = leaders.get(b);
+            int blockEnd = b + 1 < leaders.size() ? leaders.get(b + 1) : instructions.size();
+            int count = blockEnd - blockStart - (instructions.get(blockEnd - 1) instanceof Stop ? 1 : 0);
+            sb.append("                case ").append(b).append(": {\n");
+            if (count > 0) sb.append("                    cycles += ").append(count).append(";\n");
+            boolean terminated = false;
+            for (int i = blockStart; i < blockEnd && !terminated; i++) {
+                terminated = generateInstruction(sb, i);
+            }
+            if (!terminated) {
+                sb.append("                    pc = ").append(blockOf[blockEnd]).append(";\n");
+                sb.append("                    continue loop;\n");
+            }
+            sb.append("                }\n");
+        }
+        sb.append("                default:\n");
+        sb.append("                    break loop;\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        for (int r : defined) sb.append("        reg[").append(r).append("] = r").append(r).append(";\n");
+        sb.append("        s.cycles += cycles;\n");
+        sb.append("        return pc;\n");
+        sb.append("    }\n");
+    }
+
+    /**
+     * Génère le code d'une instruction
+     * @return boolean vrai si l'instruction termine le bloc sans le continuer en séquence
+     */
+    private boolean generateInstruction(StringBuilder sb, int i) {
+        Instruction instruction = instructions.get(i);
+        String indent = "                    ";
+        if (!isValid(instruction)) {
+            String message = "ERROR INSTRUCTION " + i + "\n" + instruction.toString().trim();
+            sb.append(indent).append("throw new SimulatorError(\"").append(escape(message)).append("\");\n");
+            return true;
+        }
+        if (instruction instanceof UAL ual) {
+            String value = operation(ual.getName(), "r" + ual.getSr1(), "r" + ual.getSr2());
+            sb.append(indent).append("r").append(ual.getDest()).append(" = ").append(value).append(";\n");
+        } else if (instruction instanceof UALi uali) {
+            String value = operation(uali.getName(), "r" + uali.getSr(), "(" + uali.getImm() + "L)");
+            sb.append(indent).append("r").append(uali.getDest()).append(" = ").append(value).append(";\n");
+        } else if (instruction instanceof Mem mem) {
+            String address = "mem[Simulator.address(r" + mem.getAddress() + ", " + i * Simulator.WIDTH + ")]";
+            if (mem.getName().equals("LD")) {
+                sb.append(indent).append("r").append(mem.getDest()).append(" = ").append(address).append(";\n");
+            } else {
+                sb.append(indent).append(address).append(" = r").append(mem.getDest()).append(";\n");
+            }
+        } else if (instruction instanceof CondJump condJump) {
+            String comparison = switch (condJump.getName()) {
+                case "JEQU" -> "==";
+                case "JNEQ" -> "!=";
+                case "JSUP" -> ">";
+                case "JINF" -> "<";
+                case "JIEQ" -> "<=";
+                default -> ">=";
+            };
+            sb.append(indent).append("if (r").append(condJump.getSr1()).append(" ").append(comparison).append(" r").append(condJump.getSr2())
+                    .append(") { pc = ").append(target(condJump.getAddress())).append("; continue loop; }\n");
+            sb.append(indent).append("pc = ").append(blockOf[i + 1]).append(";\n");
+            sb.append(indent).append("continue loop;\n");
+            return true;
+        } else if (instruction instanceof JumpCall jumpCall) {
+            if (jumpCall.getName().equals("CALL")) {
+                sb.append(indent).append("s.call(").append(blockOf[i + 1]).append(");\n");
+            }
+            sb.append(indent).append("pc = ").append(target(jumpCall.getAddress())).append(";\n");
+            sb.append(indent).append("continue loop;\n");
+            return true;
+        } else if (instruction instanceof Ret) {
+            sb.append(indent).append("pc = s.ret(").append(i).append(");\n");
+            sb.append(indent).append("continue loop;\n");
+            return true;
+        } else if (instruction instanceof Stop) {
+            sb.append(indent).append("pc = -1;\n");
+            sb.append(indent).append("continue loop;\n");
+            return true;
+        } else if (instruction instanceof IO io) {
+            String r = "r" + io.getReg();
+            switch (io.getName()) {
+                case "IN" -> sb.append(indent).append(r).append(" = Simulator.readChar(s.input);\n");
+                case "READ" -> sb.append(indent).append(r).append(" = Simulator.readInt(s.input);\n");
+                case "OUT" -> sb.append(indent).append("s.output.write((int) (").append(r).append(" & 0xFF));\n");
+                default -> sb.append(indent).append("s.output.write(Long.toString(").append(r).append("));\n");
+            }
+        }
+        return false;
+    }
+
+    private static String operation(String name, String left, String right) {
+        return switch (name) {
+            case "ADD" -> left + " + " + right;
+            case "SUB" -> left + " - " + right;
+            case "MUL" -> left + " * " + right;
+            case "DIV" -> "Math.floorDiv(" + left + ", Simulator.divisor(" + right + "))";
+            case "MOD" -> "Math.floorMod(" + left + ", Simulator.divisor(" + right + "))";
+            case "AND" -> left + " & " + right;
+            case "OR" -> left + " | " + right;
+            case "XOR" -> left + " ^ " + right;
+            case "SL" -> "Simulator.shiftLeft(" + left + ", " + right + ")";
+            default -> "Simulator.shiftRight(" + left + ", " + right + ")";
+        };
+    }
+
+    private int target(String label) {
+        return blockOf[labels.get(label)];
+    }
+
+    /**
+     * Teste si une instruction peut être compilée : registres dans les bornes et cibles de saut définies.
+     * Sinon elle lève une SimulatorError quand elle est exécutée.
+     */
+    private boolean isValid(Instruction instruction) {
+        TreeSet<Integer> registers = new TreeSet<>();
+        collectRegisters(instruction, registers, new TreeSet<>());
+        for (int r : registers) {
+            if (r < 0 || (registerCount > 0 && r >= registerCount)) return false;
+            maxRegister = Math.max(maxRegister, r);
+        }
+        if (instruction instanceof CondJump condJump) return labels.containsKey(condJump.getAddress());
+        if (instruction instanceof JumpCall jumpCall) return labels.containsKey(jumpCall.getAddress());
+        return instruction instanceof UAL || instruction instanceof UALi || instruction instanceof Mem
+                || instruction instanceof IO || instruction instanceof Ret || instruction instanceof Stop;
+    }
+
+    /**
+     * Ajoute les registres d'une instruction : tous dans used, ceux qu'elle modifie aussi dans defined
+     */
+    private static void collectRegisters(Instruction instruction, TreeSet<Integer> used, TreeSet<Integer> defined) {
+        if (instruction instanceof UAL ual) {
+            used.add(ual.getSr1());
+            used.add(ual.getSr2());
+            used.add(ual.getDest());
+            defined.add(ual.getDest());
+        } else if (instruction instanceof UALi uali) {
+            used.add(uali.getSr());
+            used.add(uali.getDest());
+            defined.add(uali.getDest());
+        } else if (instruction instanceof Mem mem) {
+            used.add(mem.getDest());
+            used.add(mem.getAddress());
+            if (mem.getName().equals("LD")) defined.add(mem.getDest());
+        } else if (instruction instanceof CondJump condJump) {
+            used.add(condJump.getSr1());
+            used.add(condJump.getSr2());
+        } else if (instruction instanceof IO io) {
+            used.add(io.getReg());
+            if (io.getName().equals("IN") || io.getName().equals("READ")) defined.add(io.getReg());
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Compile le source en mémoire
+     * @param source le source de la classe JitProgram
+     * @return byte[] le fichier .class
+     */
+    private static byte[] compileSource(String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("Compilateur Java indisponible : le JIT demande un JDK (module jdk.compiler)");
+        }
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager manager = new ForwardingJavaFileManager<>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        classes.put(className, out);
+                        return out;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///src/Simulator/JitProgram.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = List.of("-classpath", System.getProperty("java.class.path"), "-g:none", "-nowarn");
+        boolean success = compiler.getTask(null, manager, diagnostics, options, null, List.of(file)).call();
+        if (!success || !classes.containsKey(CLASS_NAME)) {
+            StringBuilder message = new StringBuilder("Échec de la compilation du programme généré");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append("\n").append(diagnostic.getMessage(null));
+            }
+            throw new IllegalStateException(message.toString());
+        }
+        return classes.get(CLASS_NAME).toByteArray();
+    }
+}
@@ -0,0 +1,38 @@
+package src.Simulator;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * État d'une exécution d'un programme compilé par JitCompiler, partagé par les méthodes de la classe générée
+ */
+final class JitState {
+    final long[] registers;
+    final long[] memory;
+    final int[] chunkOf;
+    final Reader input;
+    final Writer output;
+    int[] returns;
+    int depth;
+    long cycles;
+
+    JitState(long[] registers, long[] memory, int[] chunkOf, Reader input, Writer output) {
+        this.registers = registers;
+        this.memory = memory;
+        this.chunkOf = chunkOf;
+        this.input = input;
+        this.output = output;
+        this.returns = new int[64];
+    }
+
+    void call(int returnBlock) {
+        if (depth == returns.length) returns = Arrays.copyOf(returns, 2 * depth);
+        returns[depth++] = returnBlock;
+    }
+
+    int ret(int index) {
+        if (depth == 0) throw new SimulatorError("ERROR: RET sans CALL -- CO = " + index);
+        return returns[--depth];
+    }
+}
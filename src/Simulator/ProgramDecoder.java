@@ -0,0 +1,136 @@
+package src.Simulator;
+
+import src.Asm.CondJump;
+import src.Asm.IO;
+import src.Asm.Instruction;
+import src.Asm.JumpCall;
+import src.Asm.Mem;
+import src.Asm.Program;
+import src.Asm.Ret;
+import src.Asm.Stop;
+import src.Asm.UAL;
+import src.Asm.UALi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Encode un src.Asm.Program pour le Simulator directement depuis les objets instructions, sans passer par le texte :
+ * les labels sont résolus en indices avant l'exécution. Convient au code linéaire (avec 0 registre, c'est-à-dire
+ * sans limite) comme au programme alloué rendu par AssemblerGenerator.generateProgram.
+ */
+public class ProgramDecoder {
+    private final int registerCount;
+    private final int[] code;
+    private final ArrayList<String> errors;
+    private final Map<String, Integer> labels;
+    private int maxRegister;
+
+    private ProgramDecoder(Program program, int registerCount) {
+        this.registerCount = registerCount;
+        this.code = new int[program.getInstructions().size() * Simulator.WIDTH];
+        this.errors = new ArrayList<>();
+        this.labels = new HashMap<>();
+        ArrayList<Instruction> instructions = program.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!instructions.get(i).getLabel().isEmpty()) {
+                labels.put(instructions.get(i).getLabel(), i);
+            }
+        }
+    }
+
+    /**
+     * Encode un programme
+     * @param program le programme
+     * @param registerCount nombre de registres du processeur, 0 pour ne pas limiter les registres
+     * @param random générateur des valeurs initiales des registres et de la mémoire
+     * @return Simulator le simulateur prêt à exécuter le programme
+     */
+    public static Simulator decode(Program program, int registerCount, Random random) {
+        ProgramDecoder decoder = new ProgramDecoder(program, registerCount);
+        ArrayList<Instruction> instructions = program.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            decoder.encode(instructions.get(i), i * Simulator.WIDTH);
+        }
+        int registers = registerCount > 0 ? registerCount : decoder.maxRegister + 1;
+        return new Simulator(decoder.code, decoder.errors.toArray(new String[0]), registers, random);
+    }
+
+    private void encode(Instruction instruction, int pc) {
+        try {
+            if (instruction instanceof UAL ual) {
+                set(pc, Simulator.ADD + ualIndex(ual.getName()), register(ual.getDest()), register(ual.getSr1()), register(ual.getSr2()));
+            } else if (instruction instanceof UALi uali) {
+                set(pc, Simulator.IMMEDIATE + ualIndex(uali.getName()), register(uali.getDest()), register(uali.getSr()), uali.getImm());
+            } else if (instruction instanceof Mem mem) {
+                set(pc, mem.getName().equals("LD") ? Simulator.LD : Simulator.ST, register(mem.getDest()), register(mem.getAddress()), 0);
+            } else if (instruction instanceof CondJump condJump) {
+                int op = switch (condJump.getName()) {
+                    case "JEQU" -> Simulator.JEQU;
+                    case "JNEQ" -> Simulator.JNEQ;
+                    case "JSUP" -> Simulator.JSUP;
+                    case "JINF" -> Simulator.JINF;
+                    case "JIEQ" -> Simulator.JIEQ;
+                    default -> Simulator.JSEQ;
+                };
+                set(pc, op, register(condJump.getSr1()), register(condJump.getSr2()), label(condJump.getAddress()));
+            } else if (instruction instanceof JumpCall jumpCall) {
+                set(pc, jumpCall.getName().equals("CALL") ? Simulator.CALL : Simulator.JMP, 0, 0, label(jumpCall.getAddress()));
+            } else if (instruction instanceof IO io) {
+                int op = switch (io.getName()) {
+                    case "IN" -> Simulator.IN;
+                    case "OUT" -> Simulator.OUT;
+                    case "READ" -> Simulator.READ;
+                    default -> Simulator.PRINT;
+                };
+                set(pc, op, register(io.getReg()), 0, 0);
+            } else if (instruction instanceof Ret) {
+                set(pc, Simulator.RET, 0, 0, 0);
+            } else if (instruction instanceof Stop) {
+                set(pc, Simulator.STOP, 0, 0, 0);
+            } else {
+                throw new IllegalArgumentException();
+            }
+        }
+        catch (IllegalArgumentException e) {
+            set(pc, Simulator.ERROR, errors.size(), 0, 0);
+            errors.add("ERROR INSTRUCTION " + pc / Simulator.WIDTH + "\n" + instruction.toString().trim());
+        }
+    }
+
+    private void set(int pc, int op, int a, int b, int c) {
+        code[pc] = op;
+        code[pc + 1] = a;
+        code[pc + 2] = b;
+        code[pc + 3] = c;
+    }
+
+    private static int ualIndex(String name) {
+        return switch (name) {
+            case "ADD" -> Simulator.ADD;
+            case "SUB" -> Simulator.SUB;
+            case "MUL" -> Simulator.MUL;
+            case "DIV" -> Simulator.DIV;
+            case "MOD" -> Simulator.MOD;
+            case "AND" -> Simulator.AND;
+            case "OR" -> Simulator.OR;
+            case "XOR" -> Simulator.XOR;
+            case "SL" -> Simulator.SL;
+            case "SR" -> Simulator.SR;
+            default -> throw new IllegalArgumentException();
+        };
+    }
+
+    private int register(int register) {
+        if (register < 0 || (registerCount > 0 && register >= registerCount)) throw new IllegalArgumentException();
+        maxRegister = Math.max(maxRegister, register);
+        return register;
+    }
+
+    private int label(String label) {
+        Integer target = labels.get(label);
+        if (target == null) throw new IllegalArgumentException();
+        return target * Simulator.WIDTH;
+    }
+}
@@ -0,0 +1,262 @@
+package src.Simulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Simulateur du processeur de simproc.py : le programme est décodé une seule fois en un tableau d'entiers,
+ * quatre par instruction (code opération, puis trois opérandes : registres, constante ou indice de la cible d'un saut),
+ * puis exécuté par une boucle de dispatch. Les entrées, les sorties et le nombre de cycles sont les mêmes
+ * que ceux de simproc.py, aux entiers près : les registres et la mémoire sont des entiers sur 64 bits.
+ * Usage : java src.Simulator.Simulator [prog.asm] [--registres n] (n = 0 : autant de registres que le programme en utilise, comme simcode.py)
+ */
+public class Simulator {
+    public static final int ADD = 0;
+    public static final int SUB = 1;
+    public static final int MUL = 2;
+    public static final int DIV = 3;
+    public static final int MOD = 4;
+    public static final int AND = 5;
+    public static final int OR = 6;
+    public static final int XOR = 7;
+    public static final int SL = 8;
+    public static final int SR = 9;
+    /**
+     * Les opérations avec constante suivent les opérations entre registres, dans le même ordre
+     */
+    public static final int IMMEDIATE = 10;
+    public static final int LD = 20;
+    public static final int ST = 21;
+    public static final int JMP = 22;
+    public static final int CALL = 23;
+    public static final int RET = 24;
+    public static final int JEQU = 25;
+    public static final int JNEQ = 26;
+    public static final int JSUP = 27;
+    public static final int JINF = 28;
+    public static final int JIEQ = 29;
+    public static final int JSEQ = 30;
+    public static final int IN = 31;
+    public static final int OUT = 32;
+    public static final int READ = 33;
+    public static final int PRINT = 34;
+    public static final int STOP = 35;
+    /**
+     * Instruction invalide : l'erreur n'est levée que si l'instruction est exécutée, comme dans simproc.py
+     */
+    public static final int ERROR = 36;
+
+    /**
+     * Nombre de mots d'une instruction encodée
+     */
+    public static final int WIDTH = 4;
+    public static final int MEMORY_SIZE = 65536;
+    public static final int REGISTER_COUNT = 32;
+
+    private final int[] code;
+    private final String[] errors;
+    private final long[] registers;
+    private final long[] memory;
+
+    /**
+     * Constructeur, les registres et la mémoire sont initialisés aléatoirement entre 0 et 1000
+     * @param code le programme encodé, WIDTH entiers par instruction
+     * @param errors messages des instructions ERROR, indexés par leur premier opérande
+     * @param registerCount nombre de registres
+     * @param random générateur des valeurs initiales
+     */
+    public Simulator(int[] code, String[] errors, int registerCount, Random random) {
+        this.code = code;
+        this.errors = errors;
+        this.registers = new long[registerCount];
+        this.memory = new long[MEMORY_SIZE];
+        for (int i = 0; i < registerCount; i++) registers[i] = random.nextInt(1001);
+        for (int i = 0; i < MEMORY_SIZE; i++) memory[i] = random.nextInt(1001);
+    }
+
+    /**
+     * Getter du programme encodé
+     * @return int[] WIDTH entiers par instruction
+     */
+    public int[] getCode() {
+        return code;
+    }
+
+    /**
+     * Getter des registres
+     * @return long[] valeurs des registres
+     */
+    public long[] getRegisters() {
+        return registers;
+    }
+
+    /**
+     * Getter de la mémoire
+     * @return long[] valeurs des MEMORY_SIZE mots
+     */
+    public long[] getMemory() {
+        return memory;
+    }
+
+    /**
+     * Exécute le programme depuis sa première instruction jusqu'à STOP
+     * @param input entrées lues par IN et READ
+     * @param output sorties écrites par OUT et PRINT
+     * @return long nombre de cycles (instructions exécutées, sans compter STOP)
+     * @throws IOException
+     */
+    public long run(Reader input, Writer output) throws IOException {
+        final int[] code = this.code;
+        final long[] reg = this.registers;
+        final long[] mem = this.memory;
+        int[] returns = new int[64];
+        int depth = 0;
+        long cycles = 0;
+        int pc = 0;
+
+        while (true) {
+            if (pc >= code.length) throw new SimulatorError("ERROR: fin du programme sans STOP");
+            int a = code[pc + 1];
+            int b = code[pc + 2];
+            int c = code[pc + 3];
+            switch (code[pc]) {
+                case ADD -> { reg[a] = reg[b] + reg[c]; pc += WIDTH; }
+                case SUB -> { reg[a] = reg[b] - reg[c]; pc += WIDTH; }
+                case MUL -> { reg[a] = reg[b] * reg[c]; pc += WIDTH; }
+                case DIV -> { reg[a] = Math.floorDiv(reg[b], divisor(reg[c])); pc += WIDTH; }
+                case MOD -> { reg[a] = Math.floorMod(reg[b], divisor(reg[c])); pc += WIDTH; }
+                case AND -> { reg[a] = reg[b] & reg[c]; pc += WIDTH; }
+                case OR -> { reg[a] = reg[b] | reg[c]; pc += WIDTH; }
+                case XOR -> { reg[a] = reg[b] ^ reg[c]; pc += WIDTH; }
+                case SL -> { reg[a] = shiftLeft(reg[b], reg[c]); pc += WIDTH; }
+                case SR -> { reg[a] = shiftRight(reg[b], reg[c]); pc += WIDTH; }
+                case IMMEDIATE + ADD -> { reg[a] = reg[b] + c; pc += WIDTH; }
+                case IMMEDIATE + SUB -> { reg[a] = reg[b] - c; pc += WIDTH; }
+                case IMMEDIATE + MUL -> { reg[a] = reg[b] * c; pc += WIDTH; }
+                case IMMEDIATE + DIV -> { reg[a] = Math.floorDiv(reg[b], divisor(c)); pc += WIDTH; }
+                case IMMEDIATE + MOD -> { reg[a] = Math.floorMod(reg[b], divisor(c)); pc += WIDTH; }
+                case IMMEDIATE + AND -> { reg[a] = reg[b] & c; pc += WIDTH; }
+                case IMMEDIATE + OR -> { reg[a] = reg[b] | c; pc += WIDTH; }
+                case IMMEDIATE + XOR -> { reg[a] = reg[b] ^ c; pc += WIDTH; }
+                case IMMEDIATE + SL -> { reg[a] = shiftLeft(reg[b], c); pc += WIDTH; }
+                case IMMEDIATE + SR -> { reg[a] = shiftRight(reg[b], c); pc += WIDTH; }
+                case LD -> { reg[a] = mem[address(reg[b], pc)]; pc += WIDTH; }
+                case ST -> { mem[address(reg[b], pc)] = reg[a]; pc += WIDTH; }
+                case JMP -> pc = c;
+                case CALL -> {
+                    if (depth == returns.length) returns = Arrays.copyOf(returns, 2 * depth);
+                    returns[depth++] = pc + WIDTH;
+                    pc = c;
+                }
+                case RET -> {
+                    if (depth == 0) throw new SimulatorError("ERROR: RET sans CALL -- CO = " + pc / WIDTH);
+                    pc = returns[--depth];
+                }
+                case JEQU -> pc = reg[a] == reg[b] ? c : pc + WIDTH;
+                case JNEQ -> pc = reg[a] != reg[b] ? c : pc + WIDTH;
+                case JSUP -> pc = reg[a] > reg[b] ? c : pc + WIDTH;
+                case JINF -> pc = reg[a] < reg[b] ? c : pc + WIDTH;
+                case JIEQ -> pc = reg[a] <= reg[b] ? c : pc + WIDTH;
+                case JSEQ -> pc = reg[a] >= reg[b] ? c : pc + WIDTH;
+                case IN -> { reg[a] = readChar(input); pc += WIDTH; }
+                case OUT -> { output.write((int) (reg[a] & 0xFF)); pc += WIDTH; }
+                case READ -> { reg[a] = readInt(input); pc += WIDTH; }
+                case PRINT -> { output.write(Long.toString(reg[a])); pc += WIDTH; }
+                case STOP -> {
+                    return cycles;
+                }
+                default -> throw new SimulatorError(errors[a]);
+            }
+            cycles++;
+        }
+    }
+
+    /**
+     * Exécute le programme avec des fichiers d'entrées et de sorties, comme simproc.py
+     * @param inputFile fichier des entrées (vide s'il n'existe pas)
+     * @param outputFile fichier des sorties, écrit même si l'exécution échoue
+     * @return long nombre de cycles
+     * @throws IOException
+     */
+    public long run(String inputFile, String outputFile) throws IOException {
+        File entrees = new File(inputFile);
+        try (Reader input = entrees.exists()
+                    ? new BufferedReader(new InputStreamReader(new FileInputStream(entrees), StandardCharsets.UTF_8))
+                    : new StringReader("");
+             Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
+            return run(input, output);
+        }
+    }
+
+    static long divisor(long value) {
+        if (value == 0) throw new SimulatorError("ERROR: division par zéro");
+        return value;
+    }
+
+    static long shiftLeft(long value, long shift) {
+        if (shift < 0) throw new SimulatorError("ERROR: décalage négatif");
+        return shift >= 64 ? 0 : value << shift;
+    }
+
+    static long shiftRight(long value, long shift) {
+        if (shift < 0) throw new SimulatorError("ERROR: décalage négatif");
+        return value >> Math.min(shift, 63);
+    }
+
+    /**
+     * Vérifie une adresse mémoire ; comme en Python, une adresse négative part de la fin de la mémoire
+     */
+    static int address(long value, int pc) {
+        if (value > MEMORY_SIZE) throw new SimulatorError("ERROR: memory address > 65536 -- CO = " + pc / WIDTH);
+        if (value < 0) value += MEMORY_SIZE;
+        if (value < 0 || value >= MEMORY_SIZE) throw new SimulatorError("ERROR: memory address out of range -- CO = " + pc / WIDTH);
+        return (int) value;
+    }
+
+    static int readChar(Reader input) throws IOException {
+        int c = input.read();
+        return c == -1 ? 255 : c;
+    }
+
+    static long readInt(Reader input) throws IOException {
+        long result = 0;
+        int c = readChar(input);
+        while ('0' <= c && c <= '9') {
+            result = 10 * result + c - '0';
+            c = readChar(input);
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String file = "prog.asm";
+        int registerCount = REGISTER_COUNT;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--registres")) registerCount = Integer.parseInt(args[++i]);
+            else file = args[i];
+        }
+
+        Simulator simulator = AssemblyDecoder.decode(Files.readAllLines(Path.of(file)), registerCount, new Random());
+        try {
+            long cycles = simulator.run("entrees.txt", "sorties.txt");
+            System.out.println("Execution : " + cycles + " cycles");
+        }
+        catch (SimulatorError e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
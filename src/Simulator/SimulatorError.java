@@ -0,0 +1,17 @@
+package src.Simulator;
+
+/**
+ * Erreur à l'exécution d'un programme assembleur (instruction invalide, adresse hors mémoire, division par zéro...)
+ */
+public class SimulatorError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Crée une nouvelle {@code SimulatorError}
+     *
+     * @param message Le message de l'erreur.
+     */
+    public SimulatorError(String message) {
+        super(message);
+    }
+}
@@ -47,10 +47,10 @@ public class TyperVisitor extends AbstractParseTreeVisitor<Type> implements gram
 
     private void substituteTypes(HashMap<UnknownType, Type> constraints) {
         AtomicBoolean isFinish = new AtomicBoolean(true);
-        Map<UnknownType, Type> newConstraints = new HashMap<>();
         Map<UnknownType, Type> oldConstraints = new HashMap<>();
         do {
             isFinish.set(true);
+            Map<UnknownType, Type> newConstraints = new HashMap<>(); // only the constraints found by this pass
             constraints.forEach((variable, type) -> {
                 if (!this.typesStack.contains(variable)) {
                     this.typesStack.assignVar(variable, type);
@@ -64,9 +64,12 @@ public class TyperVisitor extends AbstractParseTreeVisitor<Type> implements gram
                         HashMap<UnknownType, Type> newLayer = new HashMap<>(layer);
                         if (layer.containsKey(variable)) {
                             if (isKnown(type)) {
-                                Type oldTypeToSubstitute = this.typesStack.getLastTypeOfVarName(variable.getVarName());
-                                newConstraints.putAll(oldTypeToSubstitute.unify(type));
-                                isFinish.set(false);
+                                Type oldTypeToSubstitute = layer.get(variable); // the "#" variables all have the same name
+                                Map<UnknownType, Type> unified = oldTypeToSubstitute.unify(type);
+                                if (!unified.isEmpty()) {
+                                    newConstraints.putAll(unified);
+                                    isFinish.set(false);
+                                }
                             }
                             newLayer.put(variable, variable.substituteAll(constraints));
                         } else {